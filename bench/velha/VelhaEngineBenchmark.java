@@ -0,0 +1,65 @@
+package velha;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark do robot (@ref VelhaEngine.getJogada) em cada modo e nivel,
+ * sobre posicoes aleatorias com jogadas disponiveis.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VelhaEngineBenchmark {
+
+	/** Modo do robot (@ref VelhaEngine.MODO_REGRAS a
+	 *  @ref VelhaEngine.MODO_MCTS). */
+	@Param({"0", "1", "2", "3"})
+	public int modo;
+
+	/** Nivel de inteligencia do robot. */
+	@Param({"0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10"})
+	public int nivel;
+
+	/** Um engine por posicao, ja' com o tabuleiro montado. */
+	private VelhaEngine engines[];
+	/** Jogador da vez em cada posicao. */
+	private char vez[];
+	/** Proxima posicao a ser usada. */
+	private int proxima = 0;
+
+	@Setup
+	public void preparar() {
+		char posicoes[][] = VelhaPosicoes.gerar(VelhaPosicoes.SEMENTE, false);
+		engines = new VelhaEngine[posicoes.length];
+		vez = new char[posicoes.length];
+		for (int i = 0; i < posicoes.length; i++) {
+			engines[i] = new VelhaEngine();
+			engines[i].setModo(modo);
+			engines[i].setNivel(nivel);
+			engines[i].copiarTabuleiro(posicoes[i]);
+			vez[i] = VelhaPosicoes.getVez(posicoes[i]);
+			engines[i].setVez(vez[i]);
+		}
+	}
+
+	@Benchmark
+	public int getJogada() {
+		int i = proxima++ & (VelhaPosicoes.TOTAL - 1);
+		return engines[i].getJogada(vez[i]);
+	}
+}
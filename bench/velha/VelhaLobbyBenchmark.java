@@ -0,0 +1,188 @@
+package velha;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.DummySession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Teste de carga do lobby e das partidas (@ref VelhaLobby,
+ * @ref VelhaPartida): varias threads abrem sessoes, jogam e fecham
+ * sessoes ao mesmo tempo, no mesmo handler, como as threads de I/O do
+ * MINA. Cada operacao abre uma sessao, faz uma jogada ou fecha uma
+ * sessao (no meio do jogo, gerando WO para o oponente).
+ * Verifica que cada sessao recebe sempre o mesmo Id de jogador e que, no
+ * fim, com todas as sessoes fechadas, nao sobra nenhuma partida no lobby;
+ * se falhar, o @ref TearDown lanca uma excecao e o JMH aponta o erro.
+ * As sessoes sao @ref DummySession do MINA, sem rede.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class VelhaLobbyBenchmark {
+
+	/** Sessoes abertas por thread, ao mesmo tempo. */
+	private static final int SESSOES_POR_THREAD = 4;
+
+	/** Sessao que guarda a ultima mensagem enviada pelo servidor. */
+	private static class Sessao extends DummySession {
+		/** Ultima mensagem enviada ao cliente. */
+		private volatile Object ultimaMensagem = null;
+		/** Id recebido na primeira mensagem. */
+		private char id = VelhaEngine.JOGADOR_VAZIO;
+
+		@Override
+		public WriteFuture write(Object message) {
+			ultimaMensagem = message;
+			return super.write(message);
+		}
+	}
+
+	/** Sessoes de uma thread do benchmark. */
+	@State(Scope.Thread)
+	public static class Jogador {
+		/** Sessoes abertas pela thread (null se a posicao esta' livre). */
+		private final Sessao sessoes[] = new Sessao[SESSOES_POR_THREAD];
+		/** Sorteio das acoes e das jogadas. */
+		private final Random random = new Random();
+	}
+
+	/** Executor das partidas: "io" (thread que recebeu o evento) ou
+	 *  "pool" (pool de threads compartilhado). */
+	@Param({"io", "pool"})
+	public String executor;
+
+	/** Parser usado pelo handler e pelos jogadores. */
+	private VelhaCodec parser;
+	/** Pool das partidas (modo "pool"), ou null. */
+	private ExecutorService pool;
+	/** Handler compartilhado por todas as threads. */
+	private VelhaServerHandler handler;
+	/** Sessoes das threads, para fechar no fim. */
+	private final Set<Sessao> abertas =
+		Collections.newSetFromMap(new ConcurrentHashMap<Sessao, Boolean>());
+	/** Numero de erros encontrados. */
+	private final AtomicInteger erros = new AtomicInteger();
+
+	@Setup
+	public void criarHandler() {
+		parser = Main.criarCodec("stax");
+		if ("pool".equals(executor)) {
+			pool = Executors.newFixedThreadPool(
+					Runtime.getRuntime().availableProcessors());
+		}
+		handler = new VelhaServerHandler(new VelhaLobby(parser, false,
+				new VelhaCacheMensagens(parser), pool, null,
+				VelhaLobby.LIMITE_ESPECTADOR));
+	}
+
+	@Benchmark
+	public void operar(Jogador jogador) {
+		int i = jogador.random.nextInt(SESSOES_POR_THREAD);
+		Sessao sessao = jogador.sessoes[i];
+
+		if (sessao == null || !sessao.isConnected()) {
+			/* abre uma sessao nova no lugar da que fechou */
+			if (sessao != null) abertas.remove(sessao);
+			sessao = new Sessao();
+			sessao.setHandler(handler);
+			jogador.sessoes[i] = sessao;
+			abertas.add(sessao);
+			handler.sessionOpened(sessao);
+			return;
+		}
+
+		VelhaBean status = getStatus(sessao);
+		if (status == null) return;
+
+		if (VelhaEngine.STATUS_JOGUE.equals(status.getStatus())) {
+			/* joga em uma posicao livre */
+			int jogada;
+			do {
+				jogada = jogador.random.nextInt(9);
+			} while (status.getPosicao(jogada) != VelhaEngine.JOGADOR_VAZIO);
+			status.setJogada(jogada);
+			handler.messageReceived(sessao, parser.getVelhaXML(status));
+
+		} else if (jogador.random.nextInt(8) == 0) {
+			/* desiste no meio do jogo (ou da espera) */
+			sessao.close(true);
+		}
+	}
+
+	@TearDown
+	public void verificar() throws InterruptedException {
+		/* fecha as sessoes que sobraram */
+		for (Sessao sessao : abertas) {
+			sessao.close(true);
+		}
+
+		/* espera as filas das partidas esvaziarem */
+		long limite = System.currentTimeMillis() + 10000;
+		while (handler.getLobby().getNumPartidas() != 0
+				&& System.currentTimeMillis() < limite) {
+			Thread.sleep(10);
+		}
+		if (pool != null) pool.shutdown();
+
+		if (handler.getLobby().getNumPartidas() != 0) {
+			throw new IllegalStateException("Partidas nao encerradas: "
+					+ handler.getLobby().getNumPartidas());
+		}
+		if (erros.get() != 0) {
+			throw new IllegalStateException("Sessoes com Id trocado: "
+					+ erros.get());
+		}
+	}
+
+	/**
+	 * Retorna o status da ultima mensagem enviada a uma sessao e verifica
+	 * se o Id do jogador nao mudou.
+	 * @param sessao Sessao
+	 * @return Objeto @ref VelhaBean, ou null se ainda nao houve mensagem.
+	 */
+	private VelhaBean getStatus(Sessao sessao) {
+		Object mensagem = sessao.ultimaMensagem;
+		if (!(mensagem instanceof IoBuffer)) return null;
+
+		IoBuffer buffer = ((IoBuffer) mensagem).duplicate();
+		byte linha[] = new byte[buffer.remaining()];
+		buffer.get(linha);
+		VelhaBean status = parser.getVelhaBean(
+				new String(linha, Charset.forName("UTF-8")).trim());
+		if (status == null) return null;
+
+		if (sessao.id == VelhaEngine.JOGADOR_VAZIO) {
+			sessao.id = status.getId();
+		} else if (sessao.id != status.getId()) {
+			erros.incrementAndGet();
+		}
+		return status;
+	}
+}
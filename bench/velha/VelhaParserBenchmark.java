@@ -0,0 +1,79 @@
+package velha;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark dos parsers de XML (@ref VelhaParser e @ref VelhaStaxParser),
+ * nos dois sentidos e na ida e volta. O schema /velha.xsd precisa estar no
+ * classpath para o parser DOM, senao todas as mensagens sao rejeitadas e o
+ * benchmark falha no setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VelhaParserBenchmark {
+
+	/** Parser medido ("dom" ou "stax", ver @ref Main.criarCodec). */
+	@Param({"dom", "stax"})
+	public String codec;
+
+	/** Parser medido. */
+	private VelhaCodec parser;
+	/** Beans com posicoes aleatorias. */
+	private VelhaBean beans[];
+	/** XMLs correspondentes aos beans. */
+	private String xmls[];
+	/** Proxima mensagem a ser usada. */
+	private int proxima = 0;
+
+	@Setup
+	public void preparar() {
+		char posicoes[][] = VelhaPosicoes.gerar(VelhaPosicoes.SEMENTE, false);
+		parser = Main.criarCodec(codec);
+		beans = new VelhaBean[posicoes.length];
+		xmls = new String[posicoes.length];
+		for (int i = 0; i < posicoes.length; i++) {
+			beans[i] = new VelhaBean();
+			beans[i].setId(VelhaPosicoes.getVez(posicoes[i]));
+			beans[i].setStatus(VelhaEngine.STATUS_JOGUE);
+			beans[i].copiarTabuleiro(posicoes[i]);
+			xmls[i] = parser.getVelhaXML(beans[i]);
+			if (xmls[i] == null || parser.getVelhaBean(xmls[i]) == null) {
+				throw new IllegalStateException(
+						"XML rejeitado (velha.xsd fora do classpath?)");
+			}
+		}
+	}
+
+	@Benchmark
+	public VelhaBean getVelhaBean() {
+		return parser.getVelhaBean(xmls[proxima++ & (VelhaPosicoes.TOTAL - 1)]);
+	}
+
+	@Benchmark
+	public String getVelhaXML() {
+		return parser.getVelhaXML(beans[proxima++ & (VelhaPosicoes.TOTAL - 1)]);
+	}
+
+	@Benchmark
+	public VelhaBean idaEVolta() {
+		String xml =
+			parser.getVelhaXML(beans[proxima++ & (VelhaPosicoes.TOTAL - 1)]);
+		return parser.getVelhaBean(xml);
+	}
+}
@@ -0,0 +1,67 @@
+package velha;
+
+import java.util.Random;
+
+/**
+ * Gerador de posicoes aleatorias (legais) do Jogo da Velha, usado pelos
+ * benchmarks. As posicoes sao sempre as mesmas para a mesma semente, para
+ * que os resultados de execucoes diferentes possam ser comparados.
+ */
+final class VelhaPosicoes {
+
+	/** Numero de posicoes geradas (potencia de 2, para indexar com &). */
+	static final int TOTAL = 1024;
+
+	/** Semente default dos benchmarks. */
+	static final long SEMENTE = 0x5EEDBA5EL;
+
+	private VelhaPosicoes() {
+	}
+
+	/**
+	 * Gera @ref TOTAL posicoes jogando partidas aleatorias a partir do
+	 * tabuleiro vazio, sempre com @ref VelhaEngine.JOGADOR_X iniciando.
+	 * @param semente Semente do gerador de numeros aleatorios
+	 * @param incluirFinais True para incluir posicoes de fim de jogo
+	 *   (ganhador ou empate), false para gerar so' posicoes com jogadas
+	 * @return Vetor de tabuleiros (9 posicoes cada).
+	 */
+	static char[][] gerar(long semente, boolean incluirFinais) {
+		Random random = new Random(semente);
+		VelhaEngine engine = new VelhaEngine();
+		int jogadas[] = new int[9];
+		char posicoes[][] = new char[TOTAL][];
+
+		for (int i = 0; i < TOTAL; i++) {
+			engine.limparTabuleiro();
+			engine.setVez(VelhaEngine.JOGADOR_X);
+			int numJogadas = random.nextInt(incluirFinais ? 10 : 9);
+			while (engine.getNumJogadas() < numJogadas
+					&& !engine.isGameOver()) {
+				int total = engine.preencherJogadasLivres(jogadas);
+				engine.makeMove(jogadas[random.nextInt(total)]);
+			}
+			if (!incluirFinais && engine.isGameOver()) {
+				/* fim de jogo: desfaz a ultima jogada */
+				engine.unmakeMove();
+			}
+			posicoes[i] = engine.getTabuleiro().clone();
+		}
+		return posicoes;
+	}
+
+	/**
+	 * Retorna o jogador da vez numa posicao gerada por @ref gerar.
+	 * @param tabuleiro Tabuleiro (9 posicoes)
+	 * @return @ref VelhaEngine.JOGADOR_O se X tem uma marca a mais,
+	 *   @ref VelhaEngine.JOGADOR_X se nao.
+	 */
+	static char getVez(char[] tabuleiro) {
+		int saldo = 0;
+		for (int pos = 0; pos < tabuleiro.length; pos++) {
+			if      (tabuleiro[pos] == VelhaEngine.JOGADOR_X) saldo++;
+			else if (tabuleiro[pos] == VelhaEngine.JOGADOR_O) saldo--;
+		}
+		return (saldo > 0) ? VelhaEngine.JOGADOR_O : VelhaEngine.JOGADOR_X;
+	}
+}
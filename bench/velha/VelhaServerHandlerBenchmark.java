@@ -0,0 +1,117 @@
+package velha;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.DummySession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark de uma jogada completa no servidor
+ * (@ref VelhaServerHandler.processarMensagem): conversao do XML recebido,
+ * verificacao, jogada no engine e envio do status aos dois jogadores.
+ * As sessoes sao @ref DummySession do MINA, sem rede.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VelhaServerHandlerBenchmark {
+
+	/** Sessao que guarda a ultima mensagem enviada pelo servidor. */
+	private static class Sessao extends DummySession {
+		/** Ultima mensagem enviada ao cliente. */
+		private Object ultimaMensagem = null;
+
+		@Override
+		public WriteFuture write(Object message) {
+			ultimaMensagem = message;
+			return super.write(message);
+		}
+	}
+
+	/** Parser usado pelo handler ("dom" ou "stax", ver
+	 *  @ref Main.criarCodec). */
+	@Param({"dom", "stax"})
+	public String codec;
+
+	/** Parser usado para montar a mensagem da jogada. */
+	private VelhaCodec parser;
+	/** Cache das mensagens, compartilhado pelos handlers (como no
+	 *  servidor, que mantem o handler entre as partidas). */
+	private VelhaCacheMensagens cacheMensagens;
+
+	/** Handler com uma partida recem-iniciada. */
+	private VelhaServerHandler handler;
+	/** Sessao do jogador da vez. */
+	private Sessao sessaoVez;
+	/** XML da jogada do jogador da vez. */
+	private String jogada;
+
+	@Setup(Level.Trial)
+	public void criarCache() {
+		parser = Main.criarCodec(codec);
+		cacheMensagens = new VelhaCacheMensagens(parser);
+	}
+
+	@Setup(Level.Invocation)
+	public void preparar() {
+		handler = new VelhaServerHandler(new VelhaLobby(parser, false,
+				cacheMensagens, null, null, VelhaLobby.LIMITE_ESPECTADOR));
+		Sessao sessao1 = new Sessao();
+		Sessao sessao2 = new Sessao();
+		handler.sessionOpened(sessao1);
+		handler.sessionOpened(sessao2);
+
+		/* o jogador da vez recebeu por ultimo o status JOGUE */
+		VelhaBean status = parser.getVelhaBean(getTexto(sessao1));
+		sessaoVez = sessao1;
+		if (status == null
+				|| !VelhaEngine.STATUS_JOGUE.equals(status.getStatus())) {
+			status = parser.getVelhaBean(getTexto(sessao2));
+			sessaoVez = sessao2;
+		}
+		if (status == null) {
+			throw new IllegalStateException(
+					"XML rejeitado (velha.xsd fora do classpath?)");
+		}
+		status.setJogada(4);
+		jogada = parser.getVelhaXML(status);
+	}
+
+	@Benchmark
+	public Object processarMensagem() {
+		handler.processarMensagem(sessaoVez, jogada);
+		return sessaoVez.ultimaMensagem;
+	}
+
+	/**
+	 * Retorna o texto da ultima mensagem enviada a uma sessao.
+	 * @param sessao Sessao
+	 * @return XML da mensagem (sem o fim de linha).
+	 */
+	private static String getTexto(Sessao sessao) {
+		if (sessao.ultimaMensagem instanceof IoBuffer) {
+			IoBuffer buffer = ((IoBuffer) sessao.ultimaMensagem).duplicate();
+			byte linha[] = new byte[buffer.remaining()];
+			buffer.get(linha);
+			return new String(linha, Charset.forName("UTF-8")).trim();
+		}
+		return String.valueOf(sessao.ultimaMensagem);
+	}
+}
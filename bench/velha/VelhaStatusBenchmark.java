@@ -0,0 +1,60 @@
+package velha;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark da verificacao de fim de jogo (@ref VelhaEngine.isGameOver e
+ * @ref VelhaEngine.getTrioGanhador) sobre posicoes aleatorias, incluindo
+ * posicoes de fim de jogo. Cada operacao copia a posicao para o engine,
+ * para que o custo de calcular o status da posicao seja medido junto.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VelhaStatusBenchmark {
+
+	/** Posicoes aleatorias. */
+	private char posicoes[][];
+	/** Engine onde as posicoes sao copiadas. */
+	private VelhaEngine engine;
+	/** Proxima posicao a ser usada. */
+	private int proxima = 0;
+
+	@Setup
+	public void preparar() {
+		posicoes = VelhaPosicoes.gerar(VelhaPosicoes.SEMENTE, true);
+		engine = new VelhaEngine();
+	}
+
+	@Benchmark
+	public boolean copiarTabuleiro() {
+		engine.copiarTabuleiro(posicoes[proxima++ & (VelhaPosicoes.TOTAL - 1)]);
+		return engine.isVazio();
+	}
+
+	@Benchmark
+	public boolean isGameOver() {
+		engine.copiarTabuleiro(posicoes[proxima++ & (VelhaPosicoes.TOTAL - 1)]);
+		return engine.isGameOver();
+	}
+
+	@Benchmark
+	public int[] getTrioGanhador() {
+		engine.copiarTabuleiro(posicoes[proxima++ & (VelhaPosicoes.TOTAL - 1)]);
+		return engine.getTrioGanhador();
+	}
+}
@@ -0,0 +1,60 @@
+package velha;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark das simulacoes aleatorias (como as do @ref VelhaMCTS) no
+ * Jogo da Velha classico, com o @ref VelhaEngine e com o
+ * @ref VelhaEngineMNK 3,3,3.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VelhaTabuleiroBenchmark {
+
+	/** Tabuleiro simulado ("engine" ou "mnk"). */
+	@Param({"engine", "mnk"})
+	public String tabuleiro;
+
+	/** Tabuleiro vazio, restaurado com unmakeMove apos cada simulacao. */
+	private VelhaTabuleiro velha;
+	/** Jogadas livres da posicao atual. */
+	private final int livres[] = new int[9];
+	/** Sorteio das jogadas. */
+	private final Random random = new Random(VelhaPosicoes.SEMENTE);
+
+	@Setup
+	public void preparar() {
+		velha = "mnk".equals(tabuleiro)
+			? new VelhaEngineMNK(3, 3, 3) : new VelhaEngine();
+	}
+
+	@Benchmark
+	public char simular() {
+		while (!velha.isGameOver()) {
+			int total = velha.preencherJogadasLivres(livres);
+			velha.makeMove(livres[random.nextInt(total)]);
+		}
+		char ganhador = velha.getGanhador();
+		while (velha.unmakeMove()) {
+			/* volta ao tabuleiro vazio */
+		}
+		return ganhador;
+	}
+}
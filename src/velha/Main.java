@@ -1,45 +1,192 @@
 package velha;
 
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.mina.core.service.IoAcceptor;
+import org.apache.mina.core.session.IdleStatus;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.apache.mina.filter.codec.textline.TextLineCodecFactory;
-import org.apache.mina.filter.logging.LoggingFilter;
+import org.apache.mina.filter.executor.ExecutorFilter;
+import org.apache.mina.transport.socket.SocketSessionConfig;
 import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
 
 public class Main {
 
-    /** Porta TCP do servidor. */
-    private static final int TCP_PORT = 9123;
-    /** Tamanho do buffer da sessao, em bytes. */
-    private static final int ACCEPTOR_BUFFER_SIZE = 2048;
-    
+    /**
+     * Inicia o servidor.
+     * @param args Propriedades no formato chave=valor (ver
+     *   @ref VelhaConfig)
+     */
     public static void main(String[] args) {
 
+    	/* carrega a configuracao */
+    	VelhaConfig config;
+    	try {
+    		config = VelhaConfig.carregar(args);
+    	} catch (IOException ex) {
+    		Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    		return;
+    	} catch (IllegalArgumentException ex) {
+    		Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    		return;
+    	}
+
+    	/* inicia o log assincrono */
+    	try {
+    		VelhaLog.iniciar(config.getLogArquivo(), config.getLogCapacidade(),
+    				config.getLogNivel());
+    	} catch (IOException ex) {
+    		Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+    		return;
+    	}
+    	Runtime.getRuntime().addShutdownHook(new Thread() {
+    		@Override
+    		public void run() {
+    			VelhaLog.parar();
+    		}
+    	});
+
     	/* inicia o servidor de sockets */
-    	IoAcceptor acceptor = new NioSocketAcceptor();
+    	NioSocketAcceptor acceptor =
+    		new NioSocketAcceptor(config.getProcessadores());
+    	acceptor.setBacklog(config.getBacklog());
+    	acceptor.setReuseAddress(config.isReuseAddress());
+
+    	SocketSessionConfig sessionConfig = acceptor.getSessionConfig();
+    	sessionConfig.setTcpNoDelay(config.isTcpNoDelay());
+    	sessionConfig.setReadBufferSize(config.getBufferLeitura());
+    	if (config.getBufferEnvio() > 0) {
+    		sessionConfig.setSendBufferSize(config.getBufferEnvio());
+    	}
+    	if (config.getBufferRecepcao() > 0) {
+    		sessionConfig.setReceiveBufferSize(config.getBufferRecepcao());
+    	}
+    	if (config.getOcioso() > 0) {
+    		sessionConfig.setIdleTime(IdleStatus.BOTH_IDLE, config.getOcioso());
+    	}
+
+        String codec = config.getCodec();
+        VelhaCodec parser;
+        boolean enviarBeans;
+        if ("direto".equals(codec)) {
+        	/* XML direto do IoBuffer ou protocolo binario; o StAX so' trata
+        	 * as mensagens XML que o codec nao reconhece */
+        	acceptor.getFilterChain().addLast("codec",new ProtocolCodecFilter(new VelhaCodecFactory()));
+        	parser = new VelhaStaxParser();
+        	enviarBeans = true;
+        } else {
+        	acceptor.getFilterChain().addLast("codec",new ProtocolCodecFilter(new TextLineCodecFactory(Charset.forName("UTF-8"))));
+        	parser = criarCodec(codec);
+        	enviarBeans = false;
+        }
+        if (config.getExecutorMax() > 0) {
+        	/* eventos das sessoes em um pool, na ordem de cada sessao */
+        	acceptor.getFilterChain().addLast("executor", new ExecutorFilter(
+        			config.getExecutorMin(), config.getExecutorMax()));
+        }
+        ExecutorService executorPartidas = null;
+        if (config.getPartidasThreads() > 0) {
+        	executorPartidas =
+        		Executors.newFixedThreadPool(config.getPartidasThreads());
+        }
+        VelhaRobo robo = null;
+        if (config.getRoboThreads() > 0) {
+        	robo = new VelhaRobo(config.getRoboThreads(),
+        			config.getRoboFila(), config.getRoboNivel(),
+        			config.getRoboEspera());
+        }
+        acceptor.setHandler(new VelhaServerHandler(new VelhaLobby(parser,
+        		enviarBeans, new VelhaCacheMensagens(parser), executorPartidas,
+        		robo, config.getEspectadorLimite())));
 
-        acceptor.getFilterChain().addLast("logger", new LoggingFilter());
-        acceptor.getFilterChain().addLast("codec",new ProtocolCodecFilter(new TextLineCodecFactory(Charset.forName("UTF-8"))));
+        /* metricas no JMX e, periodicamente, no log e no arquivo das
+         * latencias */
+        VelhaMetricas.registrar();
+        final VelhaMetricas metricas = new VelhaMetricas();
+        ScheduledExecutorService agendador =
+        	Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        		public Thread newThread(Runnable tarefa) {
+        			Thread thread = new Thread(tarefa, "velha-metricas");
+        			thread.setDaemon(true);
+        			return thread;
+        		}
+        	});
+        if (config.getMetricasIntervalo() > 0) {
+        	agendador.scheduleAtFixedRate(new Runnable() {
+        		public void run() {
+        			if (VelhaLog.isAtivo(VelhaLog.INFO)) {
+        				VelhaLog.mensagem(VelhaLog.INFO, metricas.getTexto());
+        			}
+        		}
+        	}, config.getMetricasIntervalo(), config.getMetricasIntervalo(),
+        			TimeUnit.SECONDS);
+        }
+        if (config.getLatenciasIntervalo() > 0) {
+        	try {
+        		final Writer latencias = new BufferedWriter(
+        				new OutputStreamWriter(new FileOutputStream(
+        						config.getLatenciasArquivo(), true),
+        						Charset.forName("UTF-8")));
+        		agendador.scheduleAtFixedRate(new Runnable() {
+        			public void run() {
+        				try {
+        					metricas.gravarIntervalo(latencias);
+        				} catch (IOException ex) {
+        					if (VelhaLog.isAtivo(VelhaLog.ERRO)) {
+        						VelhaLog.erro(ex);
+        					}
+        				}
+        			}
+        		}, config.getLatenciasIntervalo(),
+        				config.getLatenciasIntervalo(), TimeUnit.SECONDS);
+        	} catch (IOException ex) {
+        		Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+        	}
+        }
 
-        acceptor.setHandler(new VelhaServerHandler());
-        acceptor.getSessionConfig().setReadBufferSize(ACCEPTOR_BUFFER_SIZE);
             try {
-                acceptor.bind(new InetSocketAddress(TCP_PORT));
+                acceptor.bind(new InetSocketAddress(config.getPorta()));
             } catch (IOException ex) {
                 Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+                return;
             }
         
-        if (VelhaServerHandler.DEBUG_ENABLED) {
-        	System.out.println("Servidor do Jogo da Velha iniciado!");
-        	System.out.println("Aguardando conexoes...");
+        /* o inicio e a configuracao efetiva vao para o log, como as
+         * metricas; a saida padrao fica livre */
+        if (VelhaLog.isAtivo(VelhaLog.INFO)) {
+        	VelhaLog.mensagem(VelhaLog.INFO, "Servidor do Jogo da Velha "
+        			+ "iniciado na porta " + config.getPorta() + "\n"
+        			+ config.getTexto());
         }
     }
 
+    /**
+     * Cria o parser de XML pelo nome.
+     * @param nome "dom" (@ref VelhaParser) ou "stax" (@ref VelhaStaxParser)
+     * @return Parser de XML.
+     * @throws IllegalArgumentException Se o nome nao e' conhecido.
+     */
+    static VelhaCodec criarCodec(String nome) {
+    	if ("dom".equalsIgnoreCase(nome)) {
+    		return new VelhaParser();
+    	}
+    	if ("stax".equalsIgnoreCase(nome)) {
+    		return new VelhaStaxParser();
+    	}
+    	throw new IllegalArgumentException("Parser de XML desconhecido: "
+    			+ nome);
+    }
+
 }
@@ -117,4 +117,15 @@ public class VelhaBean{
 		this.jogada = jogada;
 	}
 
+	/**
+	 * Retorna uma representacao do bean em texto (para debug).
+	 * @return Texto com os atributos do bean.
+	 */
+	@Override
+	public String toString() {
+		return "VelhaBean[id=" + id + ", status=" + status
+				+ ", jogada=" + jogada
+				+ ", tabuleiro=" + new String(tabuleiro) + "]";
+	}
+
 }
@@ -0,0 +1,369 @@
+package velha;
+
+import java.util.Random;
+
+/**
+ * Classe que implementa a busca de jogadas do Jogo da Velha por negamax
+ * com poda alfa-beta, ordenacao de jogadas e tabela de transposicao
+ * (hash Zobrist) de tamanho limitado.
+ * Funciona com qualquer @ref VelhaTabuleiro; em tabuleiros grandes a
+ * profundidade deve ser limitada com @ref setProfundidadeMaxima, e as
+ * folhas sao avaliadas por @ref VelhaTabuleiro.avaliar.
+ * Cada instancia tem a sua propria tabela e nao deve ser usada por mais de
+ * uma thread ao mesmo tempo.
+ */
+public class VelhaBusca {
+
+	/** Numero padrao de entradas da tabela de transposicao. */
+	public static final int TAMANHO_TABELA_PADRAO = 1 << 14;
+
+	/** Profundidade maxima da busca (limite da tabela de transposicao). */
+	public static final int PROFUNDIDADE_LIMITE = 255;
+
+	/** Valor de uma vitoria na raiz (vitorias mais rapidas valem mais). */
+	private static final int VITORIA = 1000000000;
+	/** Maior distancia da raiz considerada nos valores de vitoria. */
+	private static final int PLY_MAXIMO = 1024;
+
+	/** Tipo de entrada na tabela: valor exato. */
+	private static final int TIPO_EXATO    = 0;
+	/** Tipo de entrada na tabela: limite inferior (corte beta). */
+	private static final int TIPO_INFERIOR = 1;
+	/** Tipo de entrada na tabela: limite superior (nao superou alfa). */
+	private static final int TIPO_SUPERIOR = 2;
+
+	/** Semente das chaves Zobrist (as mesmas para todas as buscas). */
+	private static final long SEMENTE_ZOBRIST = 0x5EEDBA5EL;
+
+	/** Chaves das entradas da tabela de transposicao. */
+	private final long chaves[];
+	/** Dados das entradas da tabela de transposicao: valor (32 bits),
+	 *  melhor jogada (16), profundidade (8), tipo (2) e geracao (6). */
+	private final long dados[];
+	/** Mascara para o indice na tabela (tamanho - 1). */
+	private final int mascaraTabela;
+	/** Geracao atual da tabela (incrementada a cada busca). */
+	private int geracao = 0;
+
+	/** Profundidade maxima da busca. */
+	private int profundidadeMaxima = PROFUNDIDADE_LIMITE;
+
+	/** Chaves Zobrist de cada posicao, para cada jogador (X e O). */
+	private long zobrist[][] = new long[2][0];
+	/** Chave Zobrist da vez do Jogador O. */
+	private long zobristVezO = 0;
+	/** Buffer de jogadas ordenadas de cada nivel da busca. */
+	private int jogadas[][] = new int[0][0];
+
+	/** Nos visitados na ultima busca. */
+	private long nos = 0;
+	/** Tempo da ultima busca, em nanossegundos. */
+	private long tempo = 0;
+	/** Total de nos visitados desde a criacao. */
+	private long nosTotal = 0;
+	/** Tempo total de busca desde a criacao, em nanossegundos. */
+	private long tempoTotal = 0;
+
+	/** Construtor default, com tabela de @ref TAMANHO_TABELA_PADRAO. */
+	public VelhaBusca() {
+		this(TAMANHO_TABELA_PADRAO);
+	}
+
+	/**
+	 * Construtor.
+	 * @param tamanhoTabela Numero de entradas da tabela de transposicao
+	 *   (arredondado para a potencia de 2 superior).
+	 */
+	public VelhaBusca(int tamanhoTabela) {
+		int tamanho = Integer.highestOneBit(Math.max(tamanhoTabela, 2) - 1) << 1;
+		chaves = new long[tamanho];
+		dados  = new long[tamanho];
+		mascaraTabela = tamanho - 1;
+	}
+
+	/**
+	 * Retorna a profundidade maxima da busca.
+	 * @return Profundidade maxima, em jogadas.
+	 */
+	public int getProfundidadeMaxima() {
+		return profundidadeMaxima;
+	}
+
+	/**
+	 * Configura a profundidade maxima da busca.
+	 * @param profundidadeMaxima Profundidade maxima, em jogadas (1 a
+	 *   @ref PROFUNDIDADE_LIMITE).
+	 */
+	public void setProfundidadeMaxima(int profundidadeMaxima) {
+		if (profundidadeMaxima >= 1 && profundidadeMaxima <= PROFUNDIDADE_LIMITE) {
+			this.profundidadeMaxima = profundidadeMaxima;
+		}
+	}
+
+	/**
+	 * Busca a melhor jogada para o jogador da vez.
+	 * O tabuleiro e' alterado com @ref VelhaTabuleiro.makeMove durante a busca
+	 * e restaurado ao final.
+	 * @param tabuleiro Tabuleiro a ser analisado, com o jogador da vez
+	 *   configurado
+	 * @return Posicao da melhor jogada, ou -1 se o jogo terminou.
+	 */
+	public int buscar(VelhaTabuleiro tabuleiro) {
+		long inicio = System.nanoTime();
+		nos = 0;
+		geracao = (geracao + 1) & 0x3F;
+		preparar(tabuleiro.getNumPosicoes());
+
+		int melhor = -1;
+		if (!tabuleiro.isGameOver()) {
+			long hash = getHash(tabuleiro);
+			int alfa = -VITORIA - 1;
+			int idx = (int) hash & mascaraTabela;
+			int primeira = (chaves[idx] == hash && dados[idx] != 0)
+				? (int) ((dados[idx] >>> 16) & 0xFFFF) - 1 : -1;
+			int total = ordenarJogadas(tabuleiro, 0, primeira);
+			char vez = tabuleiro.getVez();
+
+			for (int i = 0; i < total; i++) {
+				int pos = jogadas[0][i];
+				long filho = hash ^ getChave(vez, pos) ^ zobristVezO;
+				tabuleiro.makeMove(pos);
+				int valor = -negamax(tabuleiro, filho, 1, -VITORIA - 1, -alfa);
+				tabuleiro.unmakeMove();
+
+				if (valor > alfa) {
+					alfa = valor;
+					melhor = pos;
+				}
+			}
+			guardar(hash, alfa, melhor, getProfundidade(tabuleiro, 0),
+			        TIPO_EXATO, 0);
+		}
+
+		tempo = System.nanoTime() - inicio;
+		nosTotal += nos;
+		tempoTotal += tempo;
+		return melhor;
+	}
+
+	/**
+	 * Retorna o numero de nos visitados na ultima busca.
+	 * @return Numero de nos.
+	 */
+	public long getNos() {
+		return nos;
+	}
+
+	/**
+	 * Retorna o tempo da ultima busca.
+	 * @return Tempo em nanossegundos.
+	 */
+	public long getTempo() {
+		return tempo;
+	}
+
+	/**
+	 * Retorna a taxa media de nos visitados por segundo, desde a criacao.
+	 * @return Nos por segundo, ou 0 se nenhuma busca foi feita.
+	 */
+	public long getNosPorSegundo() {
+		return (tempoTotal > 0) ? (nosTotal * 1000000000L / tempoTotal) : 0;
+	}
+
+	/**
+	 * Negamax com poda alfa-beta e tabela de transposicao.
+	 * @param tabuleiro Tabuleiro
+	 * @param hash Hash Zobrist da posicao
+	 * @param ply Distancia ate' a raiz
+	 * @param alfa Limite inferior
+	 * @param beta Limite superior
+	 * @return Valor da posicao do ponto de vista do jogador da vez.
+	 */
+	private int negamax(VelhaTabuleiro tabuleiro, long hash, int ply,
+	                    int alfa, int beta) {
+		nos++;
+
+		char ganhador = tabuleiro.getGanhador();
+		if (ganhador != VelhaEngine.JOGADOR_VAZIO) {
+			/* o oponente fez a linha na ultima jogada */
+			return -(VITORIA - ply);
+		}
+		if (tabuleiro.isGameOver()) {
+			return 0;
+		}
+
+		int profundidade = getProfundidade(tabuleiro, ply);
+		if (profundidade == 0) {
+			return tabuleiro.avaliar();
+		}
+		int alfaOriginal = alfa;
+		int melhorTabela = -1;
+
+		/* consulta a tabela de transposicao */
+		int idx = (int) hash & mascaraTabela;
+		if (chaves[idx] == hash && dados[idx] != 0) {
+			long dado = dados[idx];
+			int valor = valorDaTabela((int) (dado >> 32), ply);
+			int tipo  = (int) (dado >>> 6) & 0x3;
+			melhorTabela = (int) ((dado >>> 16) & 0xFFFF) - 1;
+
+			if (((int) (dado >>> 8) & 0xFF) >= profundidade) {
+				if (tipo == TIPO_EXATO) return valor;
+				if (tipo == TIPO_INFERIOR && valor > alfa) alfa = valor;
+				if (tipo == TIPO_SUPERIOR && valor < beta) beta = valor;
+				if (alfa >= beta) return valor;
+			}
+		}
+
+		int melhorValor = -VITORIA - 1;
+		int melhor = -1;
+		int total = ordenarJogadas(tabuleiro, ply, melhorTabela);
+		char vez = tabuleiro.getVez();
+
+		for (int i = 0; i < total; i++) {
+			int pos = jogadas[ply][i];
+			long filho = hash ^ getChave(vez, pos) ^ zobristVezO;
+			tabuleiro.makeMove(pos);
+			int valor = -negamax(tabuleiro, filho, ply + 1, -beta, -alfa);
+			tabuleiro.unmakeMove();
+
+			if (valor > melhorValor) {
+				melhorValor = valor;
+				melhor = pos;
+			}
+			if (valor > alfa) alfa = valor;
+			if (alfa >= beta) break;
+		}
+
+		int tipo = TIPO_EXATO;
+		if      (melhorValor <= alfaOriginal) tipo = TIPO_SUPERIOR;
+		else if (melhorValor >= beta        ) tipo = TIPO_INFERIOR;
+		guardar(hash, melhorValor, melhor, profundidade, tipo, ply);
+
+		return melhorValor;
+	}
+
+	/**
+	 * Preenche o buffer de jogadas de um nivel da busca, na ordem do
+	 * tabuleiro, com a jogada da tabela de transposicao em primeiro lugar.
+	 * @param tabuleiro Tabuleiro
+	 * @param ply Nivel da busca
+	 * @param primeira Jogada a ser testada primeiro, ou -1
+	 * @return Numero de jogadas no buffer.
+	 */
+	private int ordenarJogadas(VelhaTabuleiro tabuleiro, int ply, int primeira) {
+		int destino[] = jogadas[ply];
+		int total = tabuleiro.preencherJogadasOrdenadas(destino);
+
+		if (primeira >= 0) {
+			for (int i = 0; i < total; i++) {
+				if (destino[i] == primeira) {
+					System.arraycopy(destino, 0, destino, 1, i);
+					destino[0] = primeira;
+					break;
+				}
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Retorna a profundidade restante da busca num no.
+	 * @param tabuleiro Tabuleiro
+	 * @param ply Distancia ate' a raiz
+	 * @return Numero de jogadas que ainda serao buscadas.
+	 */
+	private int getProfundidade(VelhaTabuleiro tabuleiro, int ply) {
+		int livres = tabuleiro.getNumPosicoes() - tabuleiro.getNumJogadas();
+		return Math.min(livres, profundidadeMaxima - ply);
+	}
+
+	/**
+	 * Prepara as chaves Zobrist e os buffers de jogadas para um tamanho de
+	 * tabuleiro. So' aloca memoria quando o tamanho muda.
+	 * @param posicoes Numero de posicoes do tabuleiro
+	 */
+	private void preparar(int posicoes) {
+		if (zobrist[0].length != posicoes) {
+			Random random = new Random(SEMENTE_ZOBRIST + posicoes);
+			zobrist = new long[2][posicoes];
+			for (int j = 0; j < zobrist.length; j++) {
+				for (int pos = 0; pos < posicoes; pos++) {
+					zobrist[j][pos] = random.nextLong();
+				}
+			}
+			zobristVezO = random.nextLong();
+			jogadas = new int[0][0];
+			for (int i = 0; i < chaves.length; i++) {
+				chaves[i] = 0;
+				dados[i]  = 0;
+			}
+		}
+		int niveis = Math.min(posicoes, profundidadeMaxima) + 1;
+		if (jogadas.length < niveis) {
+			jogadas = new int[niveis][posicoes];
+		}
+	}
+
+	/**
+	 * Guarda uma entrada na tabela de transposicao. A entrada existente e'
+	 * substituida se for de uma busca anterior ou de profundidade menor ou
+	 * igual.
+	 */
+	private void guardar(long hash, int valor, int melhor, int profundidade,
+	                     int tipo, int ply) {
+		int idx = (int) hash & mascaraTabela;
+		long dado = dados[idx];
+
+		if (dado != 0 && chaves[idx] != hash
+				&& (int) (dado & 0x3F) == geracao
+				&& ((int) (dado >>> 8) & 0xFF) > profundidade) {
+			return;
+		}
+
+		chaves[idx] = hash;
+		dados[idx] = ((long) valorParaTabela(valor, ply) << 32)
+		           | ((long) ((melhor + 1) & 0xFFFF) << 16)
+		           | ((long) (profundidade & 0xFF) << 8)
+		           | ((long) tipo << 6)
+		           | geracao;
+	}
+
+	/**
+	 * Converte um valor de vitoria relativo a' raiz para relativo ao no,
+	 * para que possa ser reaproveitado em outra distancia da raiz.
+	 */
+	private static int valorParaTabela(int valor, int ply) {
+		if (valor >  VITORIA - PLY_MAXIMO) return valor + ply;
+		if (valor < -VITORIA + PLY_MAXIMO) return valor - ply;
+		return valor;
+	}
+
+	/** Converte um valor guardado na tabela para relativo a' raiz. */
+	private static int valorDaTabela(int valor, int ply) {
+		if (valor >  VITORIA - PLY_MAXIMO) return valor - ply;
+		if (valor < -VITORIA + PLY_MAXIMO) return valor + ply;
+		return valor;
+	}
+
+	/**
+	 * Calcula o hash Zobrist de um tabuleiro.
+	 * @param tabuleiro Tabuleiro
+	 * @return Hash da posicao, incluindo o jogador da vez.
+	 */
+	private long getHash(VelhaTabuleiro tabuleiro) {
+		long hash = (tabuleiro.getVez() == VelhaEngine.JOGADOR_O) ? zobristVezO : 0;
+		for (int pos = 0; pos < tabuleiro.getNumPosicoes(); pos++) {
+			char jogador = tabuleiro.getPosicao(pos);
+			if (jogador != VelhaEngine.JOGADOR_VAZIO) {
+				hash ^= getChave(jogador, pos);
+			}
+		}
+		return hash;
+	}
+
+	/** Retorna a chave Zobrist de um jogador numa posicao. */
+	private long getChave(char jogador, int pos) {
+		return zobrist[(jogador == VelhaEngine.JOGADOR_X) ? 0 : 1][pos];
+	}
+}
@@ -0,0 +1,116 @@
+package velha;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * Cache das mensagens XML de status enviadas pelo servidor.
+ * Uma mensagem de status depende apenas do tabuleiro, do Id do jogador e
+ * do status (a jogada e' sempre vazia), entao ha' no maximo
+ * 3^9 x 2 x 6 mensagens diferentes. Cada uma e' gerada (e validada) pelo
+ * parser uma unica vez, no primeiro uso, e guardada como uma linha UTF-8
+ * pronta para o envio. O envio passa a ser uma consulta ao cache e um
+ * duplicate do IoBuffer, que atravessa o codec do MINA sem ser
+ * codificado.
+ * Pode ser usado por varias threads ao mesmo tempo.
+ */
+public class VelhaCacheMensagens {
+
+	/** Numero de Ids de jogador (X e O). */
+	private static final int NUM_IDS = 2;
+	/** Numero de status. */
+	private static final int NUM_STATUS = VelhaProtocolo.STATUS.length;
+	/** Numero de entradas do cache. */
+	public static final int TOTAL_ENTRADAS =
+		VelhaTabela.TOTAL_INDICES * NUM_IDS * NUM_STATUS;
+
+	/** Charset das linhas. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Parser que gera as mensagens. */
+	private final VelhaCodec velhaParser;
+	/** Mensagens ja' geradas (somente leitura), ou null. */
+	private final AtomicReferenceArray<IoBuffer> mensagens =
+		new AtomicReferenceArray<IoBuffer>(TOTAL_ENTRADAS);
+
+	/**
+	 * Construtor.
+	 * @param velhaParser Parser que gera as mensagens
+	 */
+	public VelhaCacheMensagens(VelhaCodec velhaParser) {
+		this.velhaParser = velhaParser;
+	}
+
+	/**
+	 * Retorna a mensagem de status, pronta para ser enviada.
+	 * @param mascaraX Mascara (9 bits) das posicoes de @ref VelhaEngine.JOGADOR_X
+	 * @param mascaraO Mascara (9 bits) das posicoes de @ref VelhaEngine.JOGADOR_O
+	 * @param id Id do jogador que recebe a mensagem
+	 * @param status Status do jogo (uma das constantes STATUS_ de
+	 *   @ref VelhaEngine)
+	 * @return Buffer com a linha do XML (um duplicate, que pode ser escrito
+	 *   na sessao), ou null se o Id ou o status sao invalidos ou se o
+	 *   parser rejeitou a mensagem.
+	 */
+	public IoBuffer getMensagem(int mascaraX, int mascaraO, char id,
+			String status) {
+
+		long inicio = System.nanoTime();
+		int codigoId;
+		if      (id == VelhaEngine.JOGADOR_X) codigoId = 0;
+		else if (id == VelhaEngine.JOGADOR_O) codigoId = 1;
+		else return null;
+		int codigoStatus = VelhaProtocolo.getCodigoStatus(status);
+		if (codigoStatus < 0) return null;
+
+		int entrada = (VelhaTabela.getIndice(mascaraX, mascaraO) * NUM_IDS
+				+ codigoId) * NUM_STATUS + codigoStatus;
+
+		IoBuffer mensagem = mensagens.get(entrada);
+		if (mensagem == null) {
+			mensagem = gerar(mascaraX, mascaraO, id, status);
+			if (mensagem == null) return null;
+			/* outra thread pode ter gerado a mesma mensagem */
+			if (!mensagens.compareAndSet(entrada, null, mensagem)) {
+				mensagem = mensagens.get(entrada);
+			}
+		}
+		mensagem = mensagem.duplicate();
+		VelhaMetricas.CODIFICACAO.registrar(inicio);
+		return mensagem;
+	}
+
+	/**
+	 * Gera uma mensagem de status com o parser.
+	 * @param mascaraX Mascara das posicoes de @ref VelhaEngine.JOGADOR_X
+	 * @param mascaraO Mascara das posicoes de @ref VelhaEngine.JOGADOR_O
+	 * @param id Id do jogador que recebe a mensagem
+	 * @param status Status do jogo
+	 * @return Buffer somente leitura com a linha do XML, ou null se o
+	 *   parser rejeitou a mensagem.
+	 */
+	private IoBuffer gerar(int mascaraX, int mascaraO, char id,
+			String status) {
+
+		VelhaBean velhaBean = new VelhaBean();
+		velhaBean.setId(id);
+		velhaBean.setStatus(status);
+		velhaBean.setJogada(-1);
+		for (int pos = 0; pos < 9; pos++) {
+			if      ((mascaraX & (1 << pos)) != 0)
+				velhaBean.setPosicao(pos, VelhaEngine.JOGADOR_X);
+			else if ((mascaraO & (1 << pos)) != 0)
+				velhaBean.setPosicao(pos, VelhaEngine.JOGADOR_O);
+		}
+
+		long inicio = System.nanoTime();
+		String velhaXML = velhaParser.getVelhaXML(velhaBean);
+		VelhaMetricas.XML.registrar(inicio);
+		if (velhaXML == null) return null;
+
+		byte linha[] = (velhaXML + "\n").getBytes(UTF8);
+		return IoBuffer.wrap(linha).asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,23 @@
+package velha;
+
+/**
+ * Interface de conversao entre o XML do Jogo da Velha e o objeto
+ * @ref VelhaBean. As implementacoes devem poder ser usadas por varias
+ * threads ao mesmo tempo.
+ */
+public interface VelhaCodec {
+
+	/**
+	 * Retorna um objeto @ref VelhaBean a partir de uma string contendo XML.
+	 * @param xmlContent String com o conteudo do XML
+	 * @return Objeto da classe @ref VelhaBean, ou null se houve erro.
+	 */
+	VelhaBean getVelhaBean(String xmlContent);
+
+	/**
+	 * Retorna uma string contendo XML a partir de um objeto @ref VelhaBean.
+	 * @param velhaBean Objeto da classe @ref VelhaBean
+	 * @return String com o conteudo do XML, ou null se houve erro.
+	 */
+	String getVelhaXML(VelhaBean velhaBean);
+}
@@ -0,0 +1,35 @@
+package velha;
+
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+
+/**
+ * Fabrica do codec MINA do Jogo da Velha, que converte as mensagens
+ * direto entre IoBuffer e @ref VelhaBean, no lugar do
+ * TextLineCodecFactory. Cada sessao usa o protocolo XML (uma mensagem por
+ * linha) ou, se o cliente fizer o handshake, o protocolo binario
+ * (@ref VelhaProtocolo).
+ */
+public class VelhaCodecFactory implements ProtocolCodecFactory {
+
+	/**
+	 * Retorna o codificador de uma sessao.
+	 * @param session Sessao do cliente
+	 * @return Novo codificador.
+	 */
+	public ProtocolEncoder getEncoder(IoSession session) {
+		return new VelhaEncoder();
+	}
+
+	/**
+	 * Retorna o decodificador de uma sessao.
+	 * @param session Sessao do cliente
+	 * @return Novo decodificador (guarda o protocolo e o estado da
+	 *   mensagem sendo lida).
+	 */
+	public ProtocolDecoder getDecoder(IoSession session) {
+		return new VelhaDecoder();
+	}
+}
@@ -0,0 +1,541 @@
+package velha;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Configuracao do servidor do Jogo da Velha: porta, codec, threads do
+ * MINA e opcoes dos sockets.
+ * Os valores vem, em ordem de prioridade crescente, dos valores padrao,
+ * do arquivo de propriedades (@ref ARQUIVO_PADRAO, ou o indicado por
+ * @ref CONFIG), das propriedades de sistema (-Dvelha.porta=9124) e dos
+ * argumentos da linha de comando (velha.porta=9124 ou porta=9124).
+ * Uma chave desconhecida, no arquivo ou nos argumentos, e' um erro.
+ * Exemplo de arquivo:
+ *
+ *     velha.porta=9123
+ *     velha.codec=direto
+ *     velha.processadores=4
+ *     velha.tcpNoDelay=true
+ */
+public class VelhaConfig {
+
+	/** Arquivo de propriedades (argumento ou propriedade de sistema). */
+	public static final String CONFIG = "velha.config";
+	/** Arquivo de propriedades lido se existir e nao for indicado outro. */
+	public static final String ARQUIVO_PADRAO = "velha.properties";
+
+	/** Porta TCP do servidor. */
+	public static final String PORTA = "velha.porta";
+	/** Codec: "dom" ou "stax" (TextLineCodecFactory) ou "direto"
+	 *  (@ref VelhaCodecFactory, XML ou protocolo binario por sessao). */
+	public static final String CODEC = "velha.codec";
+	/** Numero de threads de I/O (processadores) do acceptor. */
+	public static final String PROCESSADORES = "velha.processadores";
+	/** Threads minimas do ExecutorFilter (com @ref EXECUTOR_MAX). */
+	public static final String EXECUTOR_MIN = "velha.executor.min";
+	/** Threads maximas do ExecutorFilter; 0 = sem ExecutorFilter (o
+	 *  handler executa nas threads de I/O). */
+	public static final String EXECUTOR_MAX = "velha.executor.max";
+	/** Threads que executam os eventos das partidas; 0 = thread que
+	 *  recebeu o evento (ver @ref VelhaFilaSerial). */
+	public static final String PARTIDAS_THREADS = "velha.partidas.threads";
+	/** Opcao TCP_NODELAY dos sockets (desliga o algoritmo de Nagle). */
+	public static final String TCP_NO_DELAY = "velha.tcpNoDelay";
+	/** Tamanho da fila de conexoes pendentes (backlog) do accept. */
+	public static final String BACKLOG = "velha.backlog";
+	/** Opcao SO_REUSEADDR do socket do servidor. */
+	public static final String REUSE_ADDRESS = "velha.reuseAddress";
+	/** Tamanho inicial do buffer de leitura da sessao (MINA), em bytes. */
+	public static final String BUFFER_LEITURA = "velha.buffer.leitura";
+	/** Tamanho do buffer de envio do socket (SO_SNDBUF), em bytes;
+	 *  0 = padrao do sistema. */
+	public static final String BUFFER_ENVIO = "velha.buffer.envio";
+	/** Tamanho do buffer de recepcao do socket (SO_RCVBUF), em bytes;
+	 *  0 = padrao do sistema. */
+	public static final String BUFFER_RECEPCAO = "velha.buffer.recepcao";
+	/** Tempo sem leitura nem escrita, em segundos, depois do qual a
+	 *  sessao e' fechada; 0 = nunca. */
+	public static final String OCIOSO = "velha.ocioso";
+	/** Nivel do log (@ref VelhaLog): desligado, erro, info, debug ou
+	 *  trace. Pode ser trocado com o servidor rodando. */
+	public static final String LOG_NIVEL = "velha.log.nivel";
+	/** Arquivo do log. */
+	public static final String LOG_ARQUIVO = "velha.log.arquivo";
+	/** Numero de eventos no buffer circular do log. */
+	public static final String LOG_CAPACIDADE = "velha.log.capacidade";
+	/** Intervalo, em segundos, entre as gravacoes das metricas
+	 *  (@ref VelhaMetricas) no log; 0 = nunca. */
+	public static final String METRICAS_INTERVALO =
+		"velha.metricas.intervalo";
+	/** Intervalo, em segundos, entre as gravacoes dos percentis das
+	 *  latencias (@ref VelhaHistograma) no arquivo; 0 = nunca. */
+	public static final String LATENCIAS_INTERVALO =
+		"velha.latencias.intervalo";
+	/** Arquivo dos percentis das latencias. */
+	public static final String LATENCIAS_ARQUIVO = "velha.latencias.arquivo";
+	/** Tempo, em segundos, que um jogador aguarda o oponente antes de o
+	 *  robot (@ref VelhaRobo) ocupar o lugar; 0 = so' quando o jogador
+	 *  pede (so' no protocolo binario, entao clientes XML aguardam sem
+	 *  limite). */
+	public static final String ROBO_ESPERA = "velha.robo.espera";
+	/** Nivel do robot (0 a 10) quando o jogador nao escolhe. */
+	public static final String ROBO_NIVEL = "velha.robo.nivel";
+	/** Threads que calculam as jogadas do robot; 0 = servidor sem robot
+	 *  (so' pareia clientes). */
+	public static final String ROBO_THREADS = "velha.robo.threads";
+	/** Numero maximo de jogadas do robot aguardando calculo; com a fila
+	 *  cheia o robot joga na primeira posicao livre. */
+	public static final String ROBO_FILA = "velha.robo.fila";
+	/** Bytes aguardando envio a um espectador a partir dos quais ele so'
+	 *  recebe o estado mais recente; com 16 vezes esse valor, ele e'
+	 *  desconectado. */
+	public static final String ESPECTADOR_LIMITE = "velha.espectador.limite";
+
+	/** Propriedades e valores padrao, na ordem de impressao. */
+	private static final String PADROES[][] = {
+			{PORTA,            "9123"},
+			{CODEC,            "dom"},
+			{PROCESSADORES,    String.valueOf(
+					Runtime.getRuntime().availableProcessors() + 1)},
+			{EXECUTOR_MIN,     "0"},
+			{EXECUTOR_MAX,     "0"},
+			{PARTIDAS_THREADS, "0"},
+			{TCP_NO_DELAY,     "true"},
+			{BACKLOG,          "50"},
+			{REUSE_ADDRESS,    "true"},
+			{BUFFER_LEITURA,   "2048"},
+			{BUFFER_ENVIO,     "0"},
+			{BUFFER_RECEPCAO,  "0"},
+			{OCIOSO,           "0"},
+			{LOG_NIVEL,        "info"},
+			{LOG_ARQUIVO,      "velha.log"},
+			{LOG_CAPACIDADE,   "8192"},
+			{METRICAS_INTERVALO, "60"},
+			{LATENCIAS_INTERVALO, "0"},
+			{LATENCIAS_ARQUIVO, "velha-latencias.log"},
+			{ROBO_ESPERA,      "15"},
+			{ROBO_NIVEL,       "10"},
+			{ROBO_THREADS,     String.valueOf(
+					Runtime.getRuntime().availableProcessors())},
+			{ROBO_FILA,        "10000"},
+			{ESPECTADOR_LIMITE, String.valueOf(
+					VelhaLobby.LIMITE_ESPECTADOR)}
+	};
+
+	/** Valores efetivos. */
+	private final Properties propriedades;
+
+	/**
+	 * Construtor.
+	 * @param propriedades Valores efetivos (ja' com os padroes)
+	 */
+	private VelhaConfig(Properties propriedades) {
+		this.propriedades = propriedades;
+	}
+
+	/**
+	 * Carrega a configuracao dos valores padrao, do arquivo de
+	 * propriedades, das propriedades de sistema e dos argumentos.
+	 * @param args Argumentos da linha de comando ("chave=valor")
+	 * @return Configuracao validada.
+	 * @throws IOException Se o arquivo de propriedades nao pode ser lido.
+	 * @throws IllegalArgumentException Se um argumento ou valor e'
+	 *   invalido.
+	 */
+	public static VelhaConfig carregar(String args[]) throws IOException {
+
+		/* argumentos da linha de comando */
+		Properties argumentos = new Properties();
+		for (String arg : args) {
+			int igual = arg.indexOf('=');
+			if (igual <= 0) {
+				throw new IllegalArgumentException(
+						"Argumento invalido (use chave=valor): " + arg);
+			}
+			argumentos.setProperty(getChave(arg.substring(0, igual).trim()),
+					arg.substring(igual + 1).trim());
+		}
+
+		/* valores padrao */
+		Properties propriedades = new Properties();
+		for (String padrao[] : PADROES) {
+			propriedades.setProperty(padrao[0], padrao[1]);
+		}
+
+		/* arquivo de propriedades */
+		String arquivo = argumentos.getProperty(CONFIG,
+				System.getProperty(CONFIG));
+		if (arquivo != null || new File(ARQUIVO_PADRAO).isFile()) {
+			if (arquivo == null) arquivo = ARQUIVO_PADRAO;
+			Properties doArquivo = new Properties();
+			InputStream entrada = new FileInputStream(arquivo);
+			try {
+				doArquivo.load(entrada);
+			} finally {
+				entrada.close();
+			}
+			/* chave com erro de digitacao nao pode ser ignorada em silencio */
+			for (String chave : doArquivo.stringPropertyNames()) {
+				if (!isPropriedade(chave)) {
+					throw new IllegalArgumentException("Propriedade "
+							+ "desconhecida em " + arquivo + ": " + chave);
+				}
+				propriedades.setProperty(chave, doArquivo.getProperty(chave));
+			}
+		}
+
+		/* propriedades de sistema e argumentos */
+		for (String padrao[] : PADROES) {
+			String valor = System.getProperty(padrao[0]);
+			if (valor != null) propriedades.setProperty(padrao[0], valor);
+		}
+		for (String chave : argumentos.stringPropertyNames()) {
+			if (!CONFIG.equals(chave)) {
+				propriedades.setProperty(chave,
+						argumentos.getProperty(chave));
+			}
+		}
+
+		VelhaConfig config = new VelhaConfig(propriedades);
+		config.validar();
+		return config;
+	}
+
+	/**
+	 * Retorna o nome completo de uma propriedade.
+	 * @param nome Nome com ou sem o prefixo "velha."
+	 * @return Nome da propriedade.
+	 * @throws IllegalArgumentException Se a propriedade nao existe.
+	 */
+	private static String getChave(String nome) {
+		String chave = nome.startsWith("velha.") ? nome : "velha." + nome;
+		if (CONFIG.equals(chave) || isPropriedade(chave)) return chave;
+		throw new IllegalArgumentException("Propriedade desconhecida: "
+				+ nome);
+	}
+
+	/**
+	 * Verifica se uma propriedade existe.
+	 * @param chave Nome completo da propriedade
+	 * @return True se a propriedade tem valor padrao em @ref PADROES,
+	 *   false se nao.
+	 */
+	private static boolean isPropriedade(String chave) {
+		for (String padrao[] : PADROES) {
+			if (padrao[0].equals(chave)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Verifica os valores efetivos.
+	 * @throws IllegalArgumentException Se algum valor e' invalido.
+	 */
+	private void validar() {
+		if (getPorta() < 1 || getPorta() > 65535) {
+			throw new IllegalArgumentException("Porta invalida: "
+					+ getPorta());
+		}
+		getCodec();
+		if (getProcessadores() < 1) {
+			throw new IllegalArgumentException(
+					PROCESSADORES + " deve ser maior que zero");
+		}
+		if (getExecutorMax() > 0 && getExecutorMin() > getExecutorMax()) {
+			throw new IllegalArgumentException(
+					EXECUTOR_MIN + " maior que " + EXECUTOR_MAX);
+		}
+		getPartidasThreads();
+		isTcpNoDelay();
+		getBacklog();
+		isReuseAddress();
+		if (getBufferLeitura() < 1) {
+			throw new IllegalArgumentException(
+					BUFFER_LEITURA + " deve ser maior que zero");
+		}
+		getBufferEnvio();
+		getBufferRecepcao();
+		getOcioso();
+		getLogNivel();
+		if (getLogCapacidade() < 1) {
+			throw new IllegalArgumentException(
+					LOG_CAPACIDADE + " deve ser maior que zero");
+		}
+		getMetricasIntervalo();
+		getLatenciasIntervalo();
+		getRoboEspera();
+		if (getRoboNivel() > 10) {
+			throw new IllegalArgumentException(
+					ROBO_NIVEL + " deve ser de 0 a 10");
+		}
+		getRoboThreads();
+		if (getRoboFila() < 1) {
+			throw new IllegalArgumentException(
+					ROBO_FILA + " deve ser maior que zero");
+		}
+		if (getEspectadorLimite() < 1) {
+			throw new IllegalArgumentException(
+					ESPECTADOR_LIMITE + " deve ser maior que zero");
+		}
+	}
+
+	/**
+	 * Retorna uma propriedade inteira nao negativa.
+	 * @param chave Nome da propriedade
+	 * @return Valor.
+	 * @throws IllegalArgumentException Se o valor nao e' um inteiro nao
+	 *   negativo.
+	 */
+	private int getInt(String chave) {
+		String valor = propriedades.getProperty(chave).trim();
+		try {
+			int numero = Integer.parseInt(valor);
+			if (numero >= 0) return numero;
+		} catch (NumberFormatException e) {
+			/* tratado abaixo */
+		}
+		throw new IllegalArgumentException("Valor invalido para " + chave
+				+ ": " + valor);
+	}
+
+	/**
+	 * Retorna uma propriedade booleana.
+	 * @param chave Nome da propriedade
+	 * @return Valor.
+	 * @throws IllegalArgumentException Se o valor nao e' true nem false.
+	 */
+	private boolean getBoolean(String chave) {
+		String valor = propriedades.getProperty(chave).trim();
+		if ("true".equalsIgnoreCase(valor)) return true;
+		if ("false".equalsIgnoreCase(valor)) return false;
+		throw new IllegalArgumentException("Valor invalido para " + chave
+				+ ": " + valor);
+	}
+
+	/**
+	 * Retorna a propriedade @ref PORTA.
+	 * @return Porta TCP do servidor.
+	 */
+	public int getPorta() {
+		return getInt(PORTA);
+	}
+
+	/**
+	 * Retorna a propriedade @ref CODEC.
+	 * @return Nome do codec: "dom", "stax" ou "direto".
+	 * @throws IllegalArgumentException Se o codec nao e' conhecido.
+	 */
+	public String getCodec() {
+		String codec = propriedades.getProperty(CODEC).trim().toLowerCase();
+		if (!"dom".equals(codec) && !"stax".equals(codec)
+				&& !"direto".equals(codec)) {
+			throw new IllegalArgumentException("Codec desconhecido: "
+					+ codec);
+		}
+		return codec;
+	}
+
+	/**
+	 * Retorna a propriedade @ref PROCESSADORES.
+	 * @return Numero de threads de I/O.
+	 */
+	public int getProcessadores() {
+		return getInt(PROCESSADORES);
+	}
+
+	/**
+	 * Retorna a propriedade @ref EXECUTOR_MIN.
+	 * @return Threads minimas do ExecutorFilter.
+	 */
+	public int getExecutorMin() {
+		return getInt(EXECUTOR_MIN);
+	}
+
+	/**
+	 * Retorna a propriedade @ref EXECUTOR_MAX.
+	 * @return Threads maximas do ExecutorFilter, 0 = sem ExecutorFilter.
+	 */
+	public int getExecutorMax() {
+		return getInt(EXECUTOR_MAX);
+	}
+
+	/**
+	 * Retorna a propriedade @ref PARTIDAS_THREADS.
+	 * @return Threads das partidas, 0 = thread que recebeu o evento.
+	 */
+	public int getPartidasThreads() {
+		return getInt(PARTIDAS_THREADS);
+	}
+
+	/**
+	 * Retorna a propriedade @ref TCP_NO_DELAY.
+	 * @return Opcao TCP_NODELAY.
+	 */
+	public boolean isTcpNoDelay() {
+		return getBoolean(TCP_NO_DELAY);
+	}
+
+	/**
+	 * Retorna a propriedade @ref BACKLOG.
+	 * @return Backlog do accept.
+	 */
+	public int getBacklog() {
+		return getInt(BACKLOG);
+	}
+
+	/**
+	 * Retorna a propriedade @ref REUSE_ADDRESS.
+	 * @return Opcao SO_REUSEADDR.
+	 */
+	public boolean isReuseAddress() {
+		return getBoolean(REUSE_ADDRESS);
+	}
+
+	/**
+	 * Retorna a propriedade @ref BUFFER_LEITURA.
+	 * @return Buffer de leitura da sessao, em bytes.
+	 */
+	public int getBufferLeitura() {
+		return getInt(BUFFER_LEITURA);
+	}
+
+	/**
+	 * Retorna a propriedade @ref BUFFER_ENVIO.
+	 * @return Buffer de envio do socket, 0 = padrao do sistema.
+	 */
+	public int getBufferEnvio() {
+		return getInt(BUFFER_ENVIO);
+	}
+
+	/**
+	 * Retorna a propriedade @ref BUFFER_RECEPCAO.
+	 * @return Buffer de recepcao do socket, 0 = padrao do sistema.
+	 */
+	public int getBufferRecepcao() {
+		return getInt(BUFFER_RECEPCAO);
+	}
+
+	/**
+	 * Retorna a propriedade @ref OCIOSO.
+	 * @return Tempo ocioso em segundos, 0 = nunca.
+	 */
+	public int getOcioso() {
+		return getInt(OCIOSO);
+	}
+
+	/**
+	 * Retorna a propriedade @ref LOG_NIVEL.
+	 * @return Nivel do log (@ref VelhaLog.DESLIGADO a @ref VelhaLog.TRACE).
+	 * @throws IllegalArgumentException Se o nivel nao e' conhecido.
+	 */
+	public int getLogNivel() {
+		String valor = propriedades.getProperty(LOG_NIVEL).trim();
+		int nivel = VelhaLog.getNivel(valor);
+		if (nivel < 0) {
+			throw new IllegalArgumentException("Valor invalido para "
+					+ LOG_NIVEL + ": " + valor);
+		}
+		return nivel;
+	}
+
+	/**
+	 * Retorna a propriedade @ref LOG_ARQUIVO.
+	 * @return Caminho do arquivo do log.
+	 */
+	public String getLogArquivo() {
+		return propriedades.getProperty(LOG_ARQUIVO).trim();
+	}
+
+	/**
+	 * Retorna a propriedade @ref LOG_CAPACIDADE.
+	 * @return Numero de eventos no buffer do log.
+	 */
+	public int getLogCapacidade() {
+		return getInt(LOG_CAPACIDADE);
+	}
+
+	/**
+	 * Retorna a propriedade @ref METRICAS_INTERVALO.
+	 * @return Intervalo das metricas no log em segundos, 0 = nunca.
+	 */
+	public int getMetricasIntervalo() {
+		return getInt(METRICAS_INTERVALO);
+	}
+
+	/**
+	 * Retorna a propriedade @ref LATENCIAS_INTERVALO.
+	 * @return Intervalo dos percentis das latencias em segundos,
+	 *   0 = nunca.
+	 */
+	public int getLatenciasIntervalo() {
+		return getInt(LATENCIAS_INTERVALO);
+	}
+
+	/**
+	 * Retorna a propriedade @ref LATENCIAS_ARQUIVO.
+	 * @return Caminho do arquivo dos percentis das latencias.
+	 */
+	public String getLatenciasArquivo() {
+		return propriedades.getProperty(LATENCIAS_ARQUIVO).trim();
+	}
+
+	/**
+	 * Retorna a propriedade @ref ROBO_ESPERA.
+	 * @return Espera pelo oponente em segundos, 0 = so' quando o jogador
+	 *   pede o robot.
+	 */
+	public int getRoboEspera() {
+		return getInt(ROBO_ESPERA);
+	}
+
+	/**
+	 * Retorna a propriedade @ref ROBO_NIVEL.
+	 * @return Nivel padrao do robot (0 a 10).
+	 */
+	public int getRoboNivel() {
+		return getInt(ROBO_NIVEL);
+	}
+
+	/**
+	 * Retorna a propriedade @ref ROBO_THREADS.
+	 * @return Numero de threads do robot, 0 = sem robot.
+	 */
+	public int getRoboThreads() {
+		return getInt(ROBO_THREADS);
+	}
+
+	/**
+	 * Retorna a propriedade @ref ROBO_FILA.
+	 * @return Numero maximo de jogadas do robot aguardando calculo.
+	 */
+	public int getRoboFila() {
+		return getInt(ROBO_FILA);
+	}
+
+	/**
+	 * Retorna a propriedade @ref ESPECTADOR_LIMITE.
+	 * @return Bytes aguardando envio a partir dos quais o espectador so'
+	 *   recebe o estado mais recente.
+	 */
+	public int getEspectadorLimite() {
+		return getInt(ESPECTADOR_LIMITE);
+	}
+
+	/**
+	 * Retorna os valores efetivos.
+	 * @return Texto com um valor por linha ("chave = valor").
+	 */
+	public String getTexto() {
+		StringBuilder texto = new StringBuilder(1024);
+		for (String padrao[] : PADROES) {
+			texto.append(padrao[0]).append(" = ")
+				.append(propriedades.getProperty(padrao[0]).trim())
+				.append('\n');
+		}
+		return texto.toString();
+	}
+}
@@ -0,0 +1,198 @@
+package velha;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.CumulativeProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+
+/**
+ * Decodificador MINA do Jogo da Velha que negocia o protocolo da sessao.
+ * Se os primeiros bytes recebidos sao o handshake binario
+ * (@ref VelhaProtocolo), responde o handshake, guarda o protocolo na
+ * sessao, repassa o @ref VelhaProtocolo ao handler e passa a decodificar
+ * mensagens binarias. Senao, a sessao fica no protocolo XML, decodificado
+ * pelo @ref VelhaXMLDecoder.
+ * Cada sessao tem o seu decodificador (ver @ref VelhaCodecFactory).
+ */
+public class VelhaDecoder extends CumulativeProtocolDecoder {
+
+	/** Protocolo ainda nao definido. */
+	private static final int PROTOCOLO_INDEFINIDO = 0;
+	/** Protocolo XML (legado). */
+	private static final int PROTOCOLO_XML = 1;
+	/** Protocolo binario. */
+	private static final int PROTOCOLO_BINARIO = 2;
+
+	/** Decodificador das sessoes XML. */
+	private final VelhaXMLDecoder xml = new VelhaXMLDecoder();
+
+	/** Protocolo da sessao. */
+	private int protocolo = PROTOCOLO_INDEFINIDO;
+	/** Protocolo binario negociado, ou null. */
+	private VelhaProtocolo protocoloSessao = null;
+
+	/**
+	 * Decodifica uma mensagem do buffer.
+	 * @param session Sessao do cliente
+	 * @param in Buffer com os bytes recebidos (acumulados)
+	 * @param out Saida das mensagens decodificadas
+	 * @return True se uma mensagem foi decodificada, false se e' preciso
+	 *   esperar mais bytes.
+	 * @throws ProtocolDecoderException Se o handshake ou uma mensagem
+	 *   binaria e' invalida.
+	 */
+	@Override
+	protected boolean doDecode(IoSession session, IoBuffer in,
+			ProtocolDecoderOutput out) throws Exception {
+
+		long inicio = System.nanoTime();
+		boolean decodificou = decodificar(session, in, out);
+		if (decodificou) VelhaMetricas.DECODIFICACAO.registrar(inicio);
+		return decodificou;
+	}
+
+	/**
+	 * Decodifica uma mensagem do buffer, no protocolo da sessao.
+	 * @param session Sessao do cliente
+	 * @param in Buffer com os bytes recebidos (acumulados)
+	 * @param out Saida das mensagens decodificadas
+	 * @return True se uma mensagem foi decodificada, false se e' preciso
+	 *   esperar mais bytes.
+	 * @throws ProtocolDecoderException Se o handshake ou uma mensagem
+	 *   binaria e' invalida.
+	 */
+	private boolean decodificar(IoSession session, IoBuffer in,
+			ProtocolDecoderOutput out) throws Exception {
+
+		if (protocolo == PROTOCOLO_INDEFINIDO) {
+			if (in.get(in.position()) != VelhaProtocolo.MAGICO[0]) {
+				/* cliente legado: nao ha' handshake */
+				protocolo = PROTOCOLO_XML;
+			} else {
+				return negociar(session, in, out);
+			}
+		}
+
+		if (protocolo == PROTOCOLO_XML) {
+			return xml.doDecode(session, in, out);
+		}
+		return decodificarBinario(session, in, out);
+	}
+
+	/**
+	 * Le o handshake binario e responde ao cliente.
+	 * @param session Sessao do cliente
+	 * @param in Buffer com os bytes recebidos
+	 * @param out Saida das mensagens decodificadas
+	 * @return True se o handshake foi lido, false se e' preciso esperar
+	 *   mais bytes.
+	 * @throws ProtocolDecoderException Se o handshake e' invalido.
+	 */
+	private boolean negociar(IoSession session, IoBuffer in,
+			ProtocolDecoderOutput out) throws ProtocolDecoderException {
+
+		if (in.remaining() < VelhaProtocolo.TAMANHO_HANDSHAKE) return false;
+
+		for (int i = 0; i < VelhaProtocolo.MAGICO.length; i++) {
+			if (in.get() != VelhaProtocolo.MAGICO[i]) {
+				throw new ProtocolDecoderException("Handshake invalido");
+			}
+		}
+		int versao = in.getUnsigned();
+		int capacidades = in.getUnsigned();
+		VelhaProtocolo velhaProtocolo =
+			VelhaProtocolo.negociar(versao, capacidades);
+		if (velhaProtocolo == null) {
+			throw new ProtocolDecoderException(
+					"Versao do protocolo nao suportada: " + versao);
+		}
+
+		protocolo = PROTOCOLO_BINARIO;
+		protocoloSessao = velhaProtocolo;
+		session.setAttribute(VelhaProtocolo.ATRIBUTO, velhaProtocolo);
+		/* o IoBuffer passa pelo codec sem ser codificado */
+		session.write(velhaProtocolo.getHandshake());
+		out.write(velhaProtocolo);
+		return true;
+	}
+
+	/**
+	 * Decodifica uma mensagem binaria.
+	 * Um pedido de reenvio (modo delta), do robot ou para assistir uma
+	 * partida marca a sessao e repassa o @ref VelhaProtocolo ao handler,
+	 * que trata o pedido.
+	 * @param session Sessao do cliente
+	 * @param in Buffer com os bytes recebidos
+	 * @param out Saida das mensagens decodificadas
+	 * @return True se uma mensagem foi decodificada, false se e' preciso
+	 *   esperar mais bytes.
+	 * @throws ProtocolDecoderException Se a mensagem e' invalida.
+	 */
+	private boolean decodificarBinario(IoSession session, IoBuffer in,
+			ProtocolDecoderOutput out) throws ProtocolDecoderException {
+
+		int tipo = in.getUnsigned(in.position());
+		switch (tipo) {
+			case VelhaProtocolo.TIPO_ESTADO:
+				if (in.remaining() < VelhaProtocolo.TAMANHO_ESTADO) {
+					return false;
+				}
+				in.skip(1);
+				VelhaBean velhaBean =
+					VelhaProtocolo.decodificarEstado(in.getInt());
+				if (velhaBean == null) {
+					throw new ProtocolDecoderException("Estado invalido");
+				}
+				out.write(velhaBean);
+				return true;
+
+			case VelhaProtocolo.TIPO_REENVIO:
+				if (!protocoloSessao.isCapacidade(
+						VelhaProtocolo.CAPACIDADE_DELTA)) {
+					throw new ProtocolDecoderException(
+							"Reenvio fora do modo delta");
+				}
+				if (in.remaining() < VelhaProtocolo.TAMANHO_REENVIO) {
+					return false;
+				}
+				in.skip(1);
+				/* ultima sequencia recebida pelo cliente (so' informativa:
+				 * o estado completo e' reenviado) */
+				in.getInt();
+				session.setAttribute(VelhaProtocolo.ATRIBUTO_REENVIO,
+						Boolean.TRUE);
+				out.write(protocoloSessao);
+				return true;
+
+			case VelhaProtocolo.TIPO_ROBO:
+				if (in.remaining() < VelhaProtocolo.TAMANHO_ROBO) {
+					return false;
+				}
+				in.skip(1);
+				int nivel = in.getUnsigned();
+				if (nivel > 10) {
+					throw new ProtocolDecoderException(
+							"Nivel do robot invalido: " + nivel);
+				}
+				session.setAttribute(VelhaProtocolo.ATRIBUTO_ROBO,
+						Integer.valueOf(nivel));
+				out.write(protocoloSessao);
+				return true;
+
+			case VelhaProtocolo.TIPO_ESPECTADOR:
+				if (in.remaining() < VelhaProtocolo.TAMANHO_ESPECTADOR) {
+					return false;
+				}
+				in.skip(1);
+				session.setAttribute(VelhaProtocolo.ATRIBUTO_ESPECTADOR,
+						Long.valueOf(in.getLong()));
+				out.write(protocoloSessao);
+				return true;
+
+			default:
+				throw new ProtocolDecoderException(
+						"Tipo de mensagem desconhecido: " + tipo);
+		}
+	}
+}
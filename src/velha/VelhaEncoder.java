@@ -0,0 +1,85 @@
+package velha;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolEncoderAdapter;
+import org.apache.mina.filter.codec.ProtocolEncoderException;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+
+/**
+ * Codificador MINA do Jogo da Velha, no protocolo negociado da sessao:
+ * binario (@ref VelhaProtocolo) se houve handshake, XML
+ * (@ref VelhaXMLEncoder) se nao. No modo delta guarda o numero de
+ * sequencia da sessao e envia o estado completo so' quando e' preciso.
+ * Cada sessao tem o seu codificador (ver @ref VelhaCodecFactory).
+ */
+public class VelhaEncoder extends ProtocolEncoderAdapter {
+
+	/** Codificador das sessoes XML. */
+	private final VelhaXMLEncoder xml = new VelhaXMLEncoder();
+
+	/** Numero de sequencia da ultima mensagem enviada (modo delta). */
+	private int sequencia = 0;
+	/** Indica se o cliente ja' recebeu o estado completo (modo delta). */
+	private boolean sincronizado = false;
+
+	/**
+	 * Codifica uma mensagem.
+	 * @param session Sessao do cliente
+	 * @param message Mensagem (@ref VelhaBean, ou String nas sessoes XML;
+	 *   no modo delta a jogada do bean e' a ultima jogada do tabuleiro)
+	 * @param out Saida dos buffers codificados
+	 * @throws ProtocolEncoderException Se a mensagem nao pode ser enviada
+	 *   no protocolo binario.
+	 */
+	public synchronized void encode(IoSession session, Object message,
+			ProtocolEncoderOutput out) throws Exception {
+
+		long inicio = System.nanoTime();
+		VelhaProtocolo velhaProtocolo = VelhaProtocolo.getProtocolo(session);
+		if (velhaProtocolo == null) {
+			xml.encode(session, message, out);
+			VelhaMetricas.CODIFICACAO.registrar(inicio);
+			return;
+		}
+
+		if (!(message instanceof VelhaBean)) {
+			throw new ProtocolEncoderException(
+					"Mensagem sem formato binario: " + message);
+		}
+		VelhaBean velhaBean = (VelhaBean) message;
+		int estado = VelhaProtocolo.codificarEstado(velhaBean);
+		if (estado < 0) {
+			throw new ProtocolEncoderException(
+					"Estado invalido: " + message);
+		}
+
+		IoBuffer buffer;
+		if (!velhaProtocolo.isCapacidade(VelhaProtocolo.CAPACIDADE_DELTA)) {
+			buffer = VelhaProtocolo.criarMensagemEstado(estado);
+
+		} else {
+			sequencia++;
+			if (session.removeAttribute(VelhaProtocolo.ATRIBUTO_REENVIO)
+					!= null) {
+				/* o cliente perdeu alguma mensagem */
+				sincronizado = false;
+			}
+			if (!sincronizado) {
+				buffer = IoBuffer.allocate(VelhaProtocolo.TAMANHO_SINCRONIA);
+				buffer.put((byte) VelhaProtocolo.TIPO_SINCRONIA);
+				buffer.putInt(sequencia);
+				buffer.putInt(estado);
+				sincronizado = true;
+			} else {
+				buffer = IoBuffer.allocate(VelhaProtocolo.TAMANHO_DELTA);
+				buffer.put((byte) VelhaProtocolo.TIPO_DELTA);
+				buffer.putInt(sequencia);
+				buffer.put((byte) VelhaProtocolo.codificarDelta(velhaBean));
+			}
+			buffer.flip();
+		}
+		out.write(buffer);
+		VelhaMetricas.CODIFICACAO.registrar(inicio);
+	}
+}
@@ -1,13 +1,11 @@
 package velha;
 
-import java.util.List;
-import java.util.ArrayList;
 import java.util.Random;
 
 /**
  * Classe que implementa a logica do Jogo da Velha. 
  */
-public class VelhaEngine {
+public class VelhaEngine implements VelhaTabuleiro {
 
 	/** Representa o Jogador X. */
 	public static final char JOGADOR_X     = 'X';  
@@ -29,22 +27,96 @@ public class VelhaEngine {
 	/** Status: Outro jogador abandonou a partida. */  
 	public static final String STATUS_WO      = "wo"     ; 
 	
+	/** Modo do robot: regras da "Jogada Perfeita". */
+	public static final int MODO_REGRAS = 0;
+	/** Modo do robot: tabela de jogadas perfeitas (@ref VelhaTabela). */
+	public static final int MODO_TABELA = 1;
+	/** Modo do robot: busca negamax com alfa-beta (@ref VelhaBusca). */
+	public static final int MODO_BUSCA  = 2;
+	/** Modo do robot: Monte-Carlo Tree Search (@ref VelhaMCTS). */
+	public static final int MODO_MCTS   = 3;
+	/** Modo do robot: tablebase em arquivo (@ref VelhaTablebase). */
+	public static final int MODO_TABLEBASE = 4;
+	
 	
 	/** Posicoes possiveis de formar um trio em linha. */
-	private final int TRIOS[][] = {
+	private static final int TRIOS[][] = {
 			{0,1,2},{3,4,5},{6,7,8},{0,3,6},{1,4,7},{2,5,8},{0,4,8},{2,4,6}
 	};
+	
+	/** Mascara (bitboard) com todas as posicoes do tabuleiro marcadas. */
+	private static final int MASCARA_CHEIO = 0x1FF;
+	/** Mascara (bitboard) dos cantos do tabuleiro: 0, 2, 6 e 8. */
+	private static final int MASCARA_CANTOS = 0x145;
+	/** Mascara (bitboard) das bordas do tabuleiro: 1, 3, 5 e 7. */
+	private static final int MASCARA_BORDAS = 0x0AA;
+	/** Ordem de preferencia das jogadas: centro, cantos e bordas. */
+	private static final int ORDEM[] = {4, 0, 2, 6, 8, 1, 3, 5, 7};
+	
+	/** Mascaras (bitboard de 9 bits) de cada trio em linha de @ref TRIOS. */
+	private static final int MASCARAS_TRIOS[] = new int[TRIOS.length];
+	
+	/** Trio ganhador de cada mascara possivel de um jogador (512 posicoes),
+	 *  ou 0 se a mascara nao contem nenhum trio. */
+	private static final int TRIO_GANHADOR[] = new int[MASCARA_CHEIO + 1];
+	
+	static {
+		for (int t = 0; t < TRIOS.length; t++) {
+			for (int p1 = 0; p1 < 3; p1++) {
+				MASCARAS_TRIOS[t] |= 1 << TRIOS[t][p1];
+			}
+		}
+		for (int mascara = 0; mascara <= MASCARA_CHEIO; mascara++) {
+			for (int t = 0; t < MASCARAS_TRIOS.length; t++) {
+				if ((mascara & MASCARAS_TRIOS[t]) == MASCARAS_TRIOS[t]) {
+					TRIO_GANHADOR[mascara] = MASCARAS_TRIOS[t];
+				}
+			}
+		}
+	}
     
 	/** Tabuleiro do Jogo da Velha:
 	 * [0][1][2]
 	 * [3][4][5]
 	 * [6][7][8]
+	 * Mantido apenas como visao (char[9]) das mascaras dos jogadores.
 	 */
 	private char[] tabuleiro = new char[9];
 	
+	/** Bitboard do Jogador X: bit n marcado se a posicao n e' do X. */
+	private int mascaraX = 0;
+	/** Bitboard do Jogador O: bit n marcado se a posicao n e' do O. */
+	private int mascaraO = 0;
+	
+	/** Jogador da vez (@ref JOGADOR_X ou @ref JOGADOR_O). */
+	private char vez = JOGADOR_X;
+	/** Numero de posicoes marcadas no tabuleiro. */
+	private int numJogadas = 0;
+	/** Jogador que ganhou, ou @ref JOGADOR_VAZIO se nenhum ganhou. */
+	private char ganhador = JOGADOR_VAZIO;
+	
+	/** Pilha de jogadas feitas com @ref makeMove, para @ref unmakeMove. */
+	private final int pilhaJogadas[] = new int[9];
+	/** Topo da pilha de jogadas (numero de jogadas na pilha). */
+	private int topoPilha = 0;
+	
 	/** Nivel de inteligencia do robot (0 a 10). */
 	private int nivel = 10;
 	
+	/** Modo do robot (@ref MODO_REGRAS, @ref MODO_TABELA,
+	 *  @ref MODO_BUSCA, @ref MODO_MCTS ou @ref MODO_TABLEBASE). */
+	private int modo = MODO_REGRAS;
+	
+	/** Busca do robot no @ref MODO_BUSCA (criada no primeiro uso). */
+	private VelhaBusca busca = null;
+	/** Busca do robot no @ref MODO_MCTS (criada no primeiro uso). */
+	private VelhaMCTS mcts = null;
+	/** Tablebase do robot no @ref MODO_TABLEBASE. */
+	private VelhaTablebase tablebase = null;
+	
+	/** Gerador de numeros aleatorios do robot. */
+	private final Random random = new Random();
+	
 	/** Construtor default. */
 	public VelhaEngine() {
 		limparTabuleiro();
@@ -68,6 +140,60 @@ public class VelhaEngine {
 		}
 	}
 
+	/**
+	 * Retorna o Modo do robot.
+	 * @return Modo do robot (@ref MODO_REGRAS, @ref MODO_TABELA,
+	 *   @ref MODO_BUSCA, @ref MODO_MCTS ou @ref MODO_TABLEBASE).
+	 */
+	public int getModo() {
+		return modo;
+	}
+
+	/**
+	 * Configura o Modo do robot.
+	 * O @ref MODO_TABLEBASE so' e' aceito depois de @ref setTablebase.
+	 * @param modo Modo do robot (@ref MODO_REGRAS, @ref MODO_TABELA,
+	 *   @ref MODO_BUSCA, @ref MODO_MCTS ou @ref MODO_TABLEBASE).
+	 */
+	public void setModo(int modo) {
+		if ((modo >= MODO_REGRAS && modo <= MODO_MCTS)
+				|| (modo == MODO_TABLEBASE && tablebase != null)) {
+			this.modo = modo;
+		}
+	}
+
+	/**
+	 * Retorna a busca usada pelo robot no @ref MODO_BUSCA, com as
+	 * estatisticas de nos visitados.
+	 * @return Objeto @ref VelhaBusca, ou null se ainda nao foi usada.
+	 */
+	public VelhaBusca getBusca() {
+		return busca;
+	}
+
+	/**
+	 * Configura a tablebase usada pelo robot no @ref MODO_TABLEBASE.
+	 * @param tablebase Tablebase de um tabuleiro 3x3 com k=3
+	 * @throws IllegalArgumentException Se a tablebase e' de outro tabuleiro.
+	 */
+	public void setTablebase(VelhaTablebase tablebase) {
+		if (tablebase.getLargura() != 3 || tablebase.getAltura() != 3
+				|| tablebase.getK() != 3) {
+			throw new IllegalArgumentException(
+					"Tablebase nao e' de um tabuleiro 3x3 com k=3.");
+		}
+		this.tablebase = tablebase;
+	}
+
+	/**
+	 * Retorna a busca usada pelo robot no @ref MODO_MCTS, com as
+	 * estatisticas de simulacoes.
+	 * @return Objeto @ref VelhaMCTS, ou null se ainda nao foi usada.
+	 */
+	public VelhaMCTS getMCTS() {
+		return mcts;
+	}
+
 	/**
 	 * Retorna qual o oponente do jogador.
 	 * @param jogador Jogador a ser retornado seu oponente
@@ -93,6 +219,8 @@ public class VelhaEngine {
 	
 	/**
 	 * Altera uma posicao no tabuleiro.
+	 * A vez passa para o oponente do jogador marcado e a pilha de
+	 * @ref unmakeMove e' descartada.
 	 * @param pos Posicao (de 0 a 8)
 	 * @param jogador Jogador a ser marcado na posicao (@ref JOGADOR_X,
 	 *   @ref JOGADOR_O ou @ref JOGADOR_VAZIO)
@@ -100,11 +228,118 @@ public class VelhaEngine {
 	public void setPosicao(int pos, char jogador) {
 		if (jogador == JOGADOR_O || jogador == JOGADOR_X) {
 			tabuleiro[pos] = jogador;
+			int bit = 1 << pos;
+			if (jogador == JOGADOR_X) {
+				mascaraX |= bit;
+				mascaraO &= ~bit;
+			} else {
+				mascaraO |= bit;
+				mascaraX &= ~bit;
+			}
+			vez = getOponente(jogador);
+			atualizarStatus();
+		}
+	}
+	
+	/**
+	 * Faz uma jogada do jogador da vez, atualizando o status do jogo
+	 * incrementalmente. A vez passa para o oponente.
+	 * @param pos Posicao (de 0 a 8)
+	 * @return True se a jogada foi feita, false se a posicao nao esta' livre
+	 *   ou o jogo terminou.
+	 */
+	public boolean makeMove(int pos) {
+		int bit = 1 << pos;
+		if (ganhador != JOGADOR_VAZIO || ((mascaraX | mascaraO) & bit) != 0) {
+			return false;
+		}
+		
+		tabuleiro[pos] = vez;
+		if (vez == JOGADOR_X) {
+			mascaraX |= bit;
+			if (TRIO_GANHADOR[mascaraX] != 0) ganhador = JOGADOR_X;
+		} else {
+			mascaraO |= bit;
+			if (TRIO_GANHADOR[mascaraO] != 0) ganhador = JOGADOR_O;
+		}
+		numJogadas++;
+		pilhaJogadas[topoPilha++] = pos;
+		vez = getOponente(vez);
+		return true;
+	}
+	
+	/**
+	 * Desfaz a ultima jogada feita com @ref makeMove. A vez volta para o
+	 * jogador que fez a jogada.
+	 * @return True se a jogada foi desfeita, false se nao ha' jogadas na
+	 *   pilha.
+	 */
+	public boolean unmakeMove() {
+		if (topoPilha == 0) return false;
+		
+		int pos = pilhaJogadas[--topoPilha];
+		int bit = 1 << pos;
+		tabuleiro[pos] = JOGADOR_VAZIO;
+		mascaraX &= ~bit;
+		mascaraO &= ~bit;
+		numJogadas--;
+		/* so' e' possivel jogar com o jogo em andamento */
+		ganhador = JOGADOR_VAZIO;
+		vez = getOponente(vez);
+		return true;
+	}
+	
+	/**
+	 * Retorna o jogador da vez.
+	 * @return Jogador da vez (@ref JOGADOR_X ou @ref JOGADOR_O).
+	 */
+	public char getVez() {
+		return vez;
+	}
+	
+	/**
+	 * Configura o jogador da vez.
+	 * @param jogador Jogador da vez (@ref JOGADOR_X ou @ref JOGADOR_O).
+	 */
+	public void setVez(char jogador) {
+		if (jogador == JOGADOR_O || jogador == JOGADOR_X) {
+			vez = jogador;
+		}
+	}
+	
+	/**
+	 * Retorna o numero de posicoes do tabuleiro.
+	 * @return Numero de posicoes (9).
+	 */
+	public int getNumPosicoes() {
+		return tabuleiro.length;
+	}
+	
+	/**
+	 * Retorna o numero de posicoes marcadas no tabuleiro.
+	 * @return Numero de jogadas (0 a 9).
+	 */
+	public int getNumJogadas() {
+		return numJogadas;
+	}
+	
+	/**
+	 * Retorna o bitboard de um jogador.
+	 * @param jogador Jogador (@ref JOGADOR_X ou @ref JOGADOR_O)
+	 * @return Mascara de 9 bits com as posicoes marcadas pelo jogador, ou 0
+	 *   se jogador nao e' valido.
+	 */
+	public int getMascara(char jogador) {
+		switch (jogador) {
+			case JOGADOR_X: return mascaraX;
+			case JOGADOR_O: return mascaraO;
+			default       : return 0;
 		}
 	}
 	
 	/** 
 	 * Retorna o tabuleiro.
+	 * O vetor e' uma visao dos bitboards e nao deve ser alterado diretamente.
 	 * @return Vetor que representa o tabuleiro.
 	 */
 	public char[] getTabuleiro() {
@@ -118,6 +353,9 @@ public class VelhaEngine {
 		for (int pos = 0; pos < tabuleiro.length; pos++) {
 			tabuleiro[pos] = JOGADOR_VAZIO;
 		}
+		mascaraX = 0;
+		mascaraO = 0;
+		atualizarStatus();
 	}
 	
 	/**
@@ -127,9 +365,14 @@ public class VelhaEngine {
 	 */
 	public void copiarTabuleiro(char[] from) {
 		if (from != null && from.length == tabuleiro.length) {
+			mascaraX = 0;
+			mascaraO = 0;
 			for (int pos = 0; pos < tabuleiro.length; pos++) {
 				tabuleiro[pos] = from[pos];
+				if      (from[pos] == JOGADOR_X) mascaraX |= 1 << pos;
+				else if (from[pos] == JOGADOR_O) mascaraO |= 1 << pos;
 			}
+			atualizarStatus();
 		}
 	}
 	
@@ -138,7 +381,7 @@ public class VelhaEngine {
 	 * @return True se o jogo terminou, false se nao.
 	 */
 	public boolean isGameOver() {
-		return (isCheio() || isGanhador(JOGADOR_X) || isGanhador(JOGADOR_O));
+		return (isCheio() || ganhador != JOGADOR_VAZIO);
 	}
 	
 	
@@ -148,13 +391,7 @@ public class VelhaEngine {
 	 *   ou @ref JOGADOR_VAZIO se nenhum jogador ganhou.
 	 */
 	public char getGanhador() {
-		int trio[] = getTrioGanhador();
-
-		if (trio == null || trio.length < 3) {
-			return JOGADOR_VAZIO;
-		} else {
-			return tabuleiro[trio[0]];
-		}
+		return ganhador;
 	}
 
 	/**
@@ -163,22 +400,13 @@ public class VelhaEngine {
 	 *   nenhum jogador ganhou.
 	 */
 	public int[] getTrioGanhador() {
-		int retorno[] = null;
-		int  p[] = new int [3];
-		char j[] = new char[3];
+		if (ganhador == JOGADOR_VAZIO) return null;
+		int trio = TRIO_GANHADOR[getMascara(ganhador)];
 		
-		for (int pos = 0; pos < TRIOS.length; pos++) {
-			for (int p1 = 0; p1 < 3; p1++) {
-				p[p1] = TRIOS[pos][p1];
-				j[p1] = tabuleiro[p[p1]];
-			}
-
-			if (j[0] != JOGADOR_VAZIO && j[0] == j[1] && j[1] == j[2]) {
-	        	retorno = new int[3];
-				for (int p1 = 0; p1 < 3; p1++) {
-					retorno[p1] = p[p1];
-				}
-	        }
+		int retorno[] = new int[3];
+		int p1 = 0;
+		for (int pos = 0; pos < tabuleiro.length; pos++) {
+			if ((trio & (1 << pos)) != 0) retorno[p1++] = pos;
 		}
 	    return retorno;
 	}
@@ -190,7 +418,7 @@ public class VelhaEngine {
 	 * @return True se o jogador indicado ganhou, false se nao.
 	 */
 	public boolean isGanhador(char jogador) {
-		return (getGanhador() == jogador);
+		return (ganhador == jogador);
 	}
 	
 	/**
@@ -198,7 +426,7 @@ public class VelhaEngine {
 	 * @return True se houve empate, false se nao.
 	 */
 	public boolean isEmpate() {
-	    return (isCheio() && getGanhador() == JOGADOR_VAZIO);
+	    return (isCheio() && ganhador == JOGADOR_VAZIO);
 	}
 
 	/**
@@ -207,7 +435,7 @@ public class VelhaEngine {
 	 * @return True se tabuleiro esta' vazio, false se nao.
 	 */
 	public boolean isVazio() {
-		return isVazio(0, tabuleiro.length - 1);
+		return (mascaraX | mascaraO) == 0;
 	}
 
 	/**
@@ -223,12 +451,25 @@ public class VelhaEngine {
 	public int getJogada(char jogador) {
 		int jogada = -1;
 
+		if (modo == MODO_TABELA) {
+			return getJogadaTabela(jogador);
+		}
+		if (modo == MODO_BUSCA) {
+			return getJogadaBusca(jogador);
+		}
+		if (modo == MODO_MCTS) {
+			return getJogadaMCTS(jogador);
+		}
+		if (modo == MODO_TABLEBASE) {
+			return getJogadaTablebase(jogador);
+		}
+
 		/* Jogada Perfeita: passo 1 */
 		jogada = getJogadaAtaque(jogador);
 		if (jogada >= 0) return jogada;
 
 		/* Jogada Perfeita: passo 2 */
-		if (new Random().nextInt(10) >= (10 - nivel)) {
+		if (random.nextInt(10) >= (10 - nivel)) {
 			jogada = getJogadaDefesa(jogador);
 			if (jogada >= 0) return jogada;
 		}
@@ -236,7 +477,7 @@ public class VelhaEngine {
 		/* Jogada Perfeita: passo 3 */
 		/* 50%, para que o robot nao tente sempre iniciar pelos cantos,
 		 * ficando o jogo monotono */
-		if (isVazio() && new Random().nextBoolean()) {
+		if (isVazio() && random.nextBoolean()) {
 			jogada = getJogadaCanto(jogador);
 			if (jogada >= 0) return jogada;
 		}
@@ -244,7 +485,7 @@ public class VelhaEngine {
 		if (jogada >= 0) return jogada;
 
 		/* Jogada Perfeita: passo 4 */
-		if (new Random().nextInt(10) >= (10 - nivel)) {
+		if (random.nextInt(10) >= (10 - nivel)) {
 			jogada = getJogadaDefesaTriangulo(jogador);
 			if (jogada >= 0) return jogada;
 		}
@@ -265,6 +506,269 @@ public class VelhaEngine {
 		return -1;
 	}
 
+	/**
+	 * Retorna as posicoes livres do tabuleiro.
+	 * @return Mascara (9 bits) com as posicoes marcadas com
+	 *   @ref JOGADOR_VAZIO.
+	 */
+	public int getJogadasLivres() {
+		return ~(mascaraX | mascaraO) & MASCARA_CHEIO;
+	}
+
+	/**
+	 * Retorna as jogadas de ataque de um jogador, isto e', as posicoes
+	 * livres que completam tres posicoes em linha.
+	 * @param jogador Jogador a ter as jogadas analisadas
+	 * @return Mascara (9 bits) com as jogadas de ataque, ou 0 se nao ha'.
+	 */
+	public int getJogadasAtaque(char jogador) {
+		int proprias  = getMascara(jogador);
+		int oponentes = getMascara(getOponente(jogador));
+		int jogadas = 0;
+
+		for (int t = 0; t < MASCARAS_TRIOS.length; t++) {
+			int trio = MASCARAS_TRIOS[t];
+			if ((trio & oponentes) == 0
+					&& Integer.bitCount(trio & proprias) == 2) {
+				jogadas |= trio & ~proprias;
+			}
+		}
+		return jogadas;
+	}
+
+	/**
+	 * Retorna as jogadas de defesa de um jogador, isto e', as posicoes
+	 * livres que bloqueiam o oponente de completar tres posicoes em linha.
+	 * @param jogador Jogador a ter as jogadas analisadas
+	 * @return Mascara (9 bits) com as jogadas de defesa, ou 0 se nao ha'.
+	 */
+	public int getJogadasDefesa(char jogador) {
+		return getJogadasAtaque(getOponente(jogador));
+	}
+
+	/**
+	 * Preenche um vetor com as posicoes marcadas numa mascara de jogadas,
+	 * em ordem crescente.
+	 * @param jogadas Mascara (9 bits) de jogadas
+	 * @param destino Vetor a ser preenchido (no minimo 9 posicoes)
+	 * @return Numero de posicoes preenchidas no vetor.
+	 */
+	public static int preencherJogadas(int jogadas, int[] destino) {
+		return preencherJogadas(jogadas, destino, 0);
+	}
+
+	/**
+	 * Preenche um vetor a partir de um indice com as posicoes marcadas numa
+	 * mascara de jogadas, em ordem crescente.
+	 * @param jogadas Mascara (9 bits) de jogadas
+	 * @param destino Vetor a ser preenchido
+	 * @param inicio Indice inicial no vetor
+	 * @return Numero de posicoes preenchidas no vetor.
+	 */
+	public static int preencherJogadas(int jogadas, int[] destino,
+	                                   int inicio) {
+		int total = 0;
+		while (jogadas != 0) {
+			destino[inicio + total++] = Integer.numberOfTrailingZeros(jogadas);
+			jogadas &= jogadas - 1;
+		}
+		return total;
+	}
+
+	/**
+	 * Recalcula o status do jogo (numero de jogadas e ganhador) a partir
+	 * dos bitboards e descarta a pilha de @ref unmakeMove.
+	 */
+	private void atualizarStatus() {
+		numJogadas = Integer.bitCount(mascaraX | mascaraO);
+		if      (TRIO_GANHADOR[mascaraX] != 0) ganhador = JOGADOR_X;
+		else if (TRIO_GANHADOR[mascaraO] != 0) ganhador = JOGADOR_O;
+		else                                   ganhador = JOGADOR_VAZIO;
+		topoPilha = 0;
+	}
+
+	/**
+	 * Preenche um vetor com as jogadas livres do jogador da vez, em ordem:
+	 * jogadas de ataque, de defesa e as demais (centro, cantos e bordas).
+	 * @param destino Vetor a ser preenchido (no minimo 9 posicoes)
+	 * @return Numero de jogadas preenchidas no vetor.
+	 */
+	public int preencherJogadasOrdenadas(int[] destino) {
+		int ataque = getJogadasAtaque(vez);
+		int defesa = getJogadasDefesa(vez) & ~ataque;
+		int demais = getJogadasLivres() & ~ataque & ~defesa;
+		
+		int total = preencherJogadas(ataque, destino, 0);
+		total += preencherJogadas(defesa, destino, total);
+		for (int i = 0; i < ORDEM.length; i++) {
+			if ((demais & (1 << ORDEM[i])) != 0) destino[total++] = ORDEM[i];
+		}
+		return total;
+	}
+
+	/**
+	 * Preenche um vetor com as jogadas livres, em ordem crescente.
+	 * @param destino Vetor a ser preenchido (no minimo 9 posicoes)
+	 * @return Numero de jogadas preenchidas no vetor.
+	 */
+	public int preencherJogadasLivres(int[] destino) {
+		return preencherJogadas(getJogadasLivres(), destino, 0);
+	}
+
+	/**
+	 * Retorna uma copia do tabuleiro, com o mesmo jogador da vez, nivel e
+	 * modo. A pilha de jogadas nao e' copiada.
+	 * @return Novo objeto VelhaEngine.
+	 */
+	public VelhaEngine copiar() {
+		VelhaEngine copia = new VelhaEngine();
+		copia.copiarTabuleiro(tabuleiro);
+		copia.vez   = vez;
+		copia.nivel = nivel;
+		copia.modo  = modo;
+		return copia;
+	}
+
+	/**
+	 * Avalia heuristicamente a posicao. O tabuleiro 3x3 e' sempre buscado
+	 * ate' o fim, entao a avaliacao e' neutra.
+	 * @return Sempre 0.
+	 */
+	public int avaliar() {
+		return 0;
+	}
+
+	/**
+	 * Verifica se uma mascara de jogador contem um trio em linha.
+	 * @param mascara Bitboard de um jogador
+	 * @return True se a mascara contem um trio, false se nao.
+	 */
+	static boolean isTrio(int mascara) {
+		return TRIO_GANHADOR[mascara] != 0;
+	}
+
+	/**
+	 * Retorna a proxima jogada para um jogador a partir da tabela de
+	 * jogadas perfeitas. Conforme o nivel, sorteia entre as jogadas
+	 * otimas e as demais jogadas livres.
+	 * @param jogador Jogador a ter a jogada analisada
+	 * @return Posicao da jogada no tabuleiro, ou -1 se nao ha' mais posicoes
+	 *   disponiveis no tabuleiro.
+	 */
+	private int getJogadaTabela(char jogador) {
+		int oponente = getMascara(getOponente(jogador));
+		int livres = ~(mascaraX | mascaraO) & MASCARA_CHEIO;
+		if (livres == 0) return -1;
+
+		int otimas =
+			VelhaTabela.getJogadasOtimas(getMascara(jogador), oponente);
+		int outras = livres & ~otimas;
+
+		if (otimas == 0) {
+			return sortearPosicao(livres);
+		}
+		if (outras != 0 && random.nextInt(10) < (10 - nivel)) {
+			return sortearPosicao(outras);
+		}
+		return sortearPosicao(otimas);
+	}
+
+	/**
+	 * Retorna a proxima jogada para um jogador a partir da busca negamax.
+	 * Conforme o nivel, sorteia uma das demais jogadas livres no lugar da
+	 * melhor jogada.
+	 * @param jogador Jogador a ter a jogada analisada
+	 * @return Posicao da jogada no tabuleiro, ou -1 se nao ha' mais posicoes
+	 *   disponiveis no tabuleiro.
+	 */
+	private int getJogadaBusca(char jogador) {
+		int livres = getJogadasLivres();
+		if (livres == 0) return -1;
+		if (isGameOver() || (jogador != JOGADOR_X && jogador != JOGADOR_O)) {
+			return sortearPosicao(livres);
+		}
+
+		if (busca == null) {
+			busca = new VelhaBusca();
+		}
+		char vezAnterior = vez;
+		vez = jogador;
+		int melhor = busca.buscar(this);
+		vez = vezAnterior;
+
+		int outras = livres & ~(1 << melhor);
+		if (outras != 0 && random.nextInt(10) < (10 - nivel)) {
+			return sortearPosicao(outras);
+		}
+		return melhor;
+	}
+
+	/**
+	 * Retorna a proxima jogada para um jogador a partir do Monte-Carlo Tree
+	 * Search. O nivel define o numero de simulacoes por jogada (ver
+	 * @ref VelhaMCTS.getSimulacoesNivel).
+	 * @param jogador Jogador a ter a jogada analisada
+	 * @return Posicao da jogada no tabuleiro, ou -1 se nao ha' mais posicoes
+	 *   disponiveis no tabuleiro.
+	 */
+	private int getJogadaMCTS(char jogador) {
+		int livres = getJogadasLivres();
+		if (livres == 0) return -1;
+		if (isGameOver() || (jogador != JOGADOR_X && jogador != JOGADOR_O)) {
+			return sortearPosicao(livres);
+		}
+
+		if (mcts == null) {
+			mcts = new VelhaMCTS();
+		}
+		mcts.setSimulacoes(VelhaMCTS.getSimulacoesNivel(nivel));
+		char vezAnterior = vez;
+		vez = jogador;
+		int jogada = mcts.buscar(this);
+		vez = vezAnterior;
+		return jogada;
+	}
+
+	/**
+	 * Retorna a proxima jogada para um jogador a partir da tablebase (uma
+	 * leitura no arquivo mapeado em memoria). Conforme o nivel, sorteia uma
+	 * das demais jogadas livres no lugar da melhor jogada.
+	 * @param jogador Jogador a ter a jogada analisada
+	 * @return Posicao da jogada no tabuleiro, ou -1 se nao ha' mais posicoes
+	 *   disponiveis no tabuleiro.
+	 */
+	private int getJogadaTablebase(char jogador) {
+		int livres = getJogadasLivres();
+		if (livres == 0) return -1;
+
+		int melhor = tablebase.getJogada(getMascara(jogador),
+		                                 getMascara(getOponente(jogador)));
+		if (melhor < 0) {
+			return sortearPosicao(livres);
+		}
+
+		int outras = livres & ~(1 << melhor);
+		if (outras != 0 && random.nextInt(10) < (10 - nivel)) {
+			return sortearPosicao(outras);
+		}
+		return melhor;
+	}
+
+	/**
+	 * Sorteia uma das posicoes marcadas numa mascara.
+	 * @param mascara Mascara (9 bits) das posicoes candidatas
+	 * @return Posicao sorteada, ou -1 se a mascara esta' vazia.
+	 */
+	private int sortearPosicao(int mascara) {
+		int total = Integer.bitCount(mascara);
+		if (total == 0) return -1;
+
+		for (int n = random.nextInt(total); n > 0; n--) {
+			mascara &= mascara - 1;
+		}
+		return Integer.numberOfTrailingZeros(mascara);
+	}
+
 	/**
 	 * Verifica se o trecho especificado do tabuleiro esta' vazio
 	 * 	(as posicoes marcadas com @ref JOGADOR_VAZIO).
@@ -282,10 +786,8 @@ public class VelhaEngine {
 		if (start <  0               ) start = 0;
 		if (end   >= tabuleiro.length) end   = tabuleiro.length - 1;
 		
-		for (int pos = start; pos <= end; pos++) {
-			if (tabuleiro[pos] != JOGADOR_VAZIO) return false; 
-		}
-		return true;
+		int trecho = ((1 << (end + 1)) - 1) & ~((1 << start) - 1);
+		return ((mascaraX | mascaraO) & trecho) == 0;
 	}
 	
 	/**
@@ -294,10 +796,7 @@ public class VelhaEngine {
 	 * @return True se tabuleiro esta' cheio, false se nao.
 	 */
 	private boolean isCheio() {
-		for (int pos = 0; pos < tabuleiro.length; pos++) {
-			if (tabuleiro[pos] == JOGADOR_VAZIO) return false; 
-		}
-		return true;
+		return (numJogadas == tabuleiro.length);
 	}
 	
 	/**
@@ -309,19 +808,8 @@ public class VelhaEngine {
 	 * de ataque possivel.
 	 */
 	private int getJogadaAtaque(char jogador) {
-
-		List<Integer> jogadasPossiveis = new ArrayList<Integer>();
-		for (int i = 0; i < 9; i++) {
-			if (tabuleiro[i] == JOGADOR_VAZIO) { jogadasPossiveis.add(i); }
-		}
-		
-		List<Integer> boasJogadas =
-			getMelhoresJogadas(jogadasPossiveis,
-			      new char[]{JOGADOR_VAZIO,jogador,jogador});
-		
-		if (boasJogadas.size() > 0) { return boasJogadas.get(0); }
-		
-		return -1;
+		int jogadas = getJogadasAtaque(jogador);
+		return (jogadas != 0) ? Integer.numberOfTrailingZeros(jogadas) : -1;
 	}
 	
 	/**
@@ -491,14 +979,8 @@ public class VelhaEngine {
 	 * no canto possivel.
 	 */
 	private int getJogadaCanto(char jogador) {
-		List<Integer> jogadasPossiveis = new ArrayList<Integer>();
-		
-		if (tabuleiro[0] == JOGADOR_VAZIO) jogadasPossiveis.add(0);
-		if (tabuleiro[2] == JOGADOR_VAZIO) jogadasPossiveis.add(2);
-		if (tabuleiro[6] == JOGADOR_VAZIO) jogadasPossiveis.add(6);
-		if (tabuleiro[8] == JOGADOR_VAZIO) jogadasPossiveis.add(8);
-		
-		return escolherMelhorJogada(jogador,jogadasPossiveis);
+		return escolherMelhorJogada(jogador,
+		                            getJogadasLivres() & MASCARA_CANTOS);
 	}
 	
 	/**
@@ -508,99 +990,55 @@ public class VelhaEngine {
 	 * na borda possivel.
 	 */
 	private int getJogadaBorda(char jogador) {
-		List<Integer> jogadasPossiveis = new ArrayList<Integer>();
-		
-		if (tabuleiro[1] == JOGADOR_VAZIO) jogadasPossiveis.add(1);
-		if (tabuleiro[3] == JOGADOR_VAZIO) jogadasPossiveis.add(3);
-		if (tabuleiro[5] == JOGADOR_VAZIO) jogadasPossiveis.add(5);
-		if (tabuleiro[7] == JOGADOR_VAZIO) jogadasPossiveis.add(7);
-		
-		return escolherMelhorJogada(jogador,jogadasPossiveis);
-	}
-
-	/**
-	 * Retorna uma lista com as melhores jogadas de ataque dentre um conjunto
-	 *   especificado de jogadas.
-	 * @param jogadasPossiveis Conjunto de jogadas possiveis
-	 * @param pattern Padrao de trio [3] de tabuleiro para comparar as
-	 *   melhores jogadas
-	 * @return Lista com as melhores jogadas de ataque selecionadas.
-	 */
-	private List<Integer> getMelhoresJogadas(List<Integer> jogadasPossiveis,
-											 char[] pattern) {
-		
-		List<Integer> melhoresJogadas = new ArrayList<Integer>();
-
-		if (pattern.length < 3) { return melhoresJogadas; }
-
-		for (Integer jogada : jogadasPossiveis) {
-				
-			for (int pos = 0; pos < TRIOS.length; pos++) {
-				
-				for (int p1 = 0; p1 < 3; p1++) {
-					
-					if (TRIOS[pos][p1] == jogada) {
-					
-						int p2 = (p1 == 2) ? 0 : (p1 + 1);
-						int p3 = (p2 == 2) ? 0 : (p2 + 1);
-					
-						if (tabuleiro[TRIOS[pos][p1]] == pattern[0] &&
-							tabuleiro[TRIOS[pos][p2]] == pattern[1] &&
-							tabuleiro[TRIOS[pos][p3]] == pattern[2]) {
-						
-							melhoresJogadas.add(TRIOS[pos][p1]);
-						}
-					}
-				}
-			}
-		}
-		return melhoresJogadas;
+		return escolherMelhorJogada(jogador,
+		                            getJogadasLivres() & MASCARA_BORDAS);
 	}
 
 	/**
 	 * Seleciona dentre um conjunto de jogadas de ataque qual e' a melhor.
 	 * Caso nao haja uma melhor, sorteia uma. 
 	 * @param jogador Jogador a ter a jogada analisada
-	 * @param jogadasPossiveis Conjunto de jogadas possiveis
+	 * @param jogadasPossiveis Mascara (9 bits) das jogadas possiveis
 	 * @return Posicao da jogada no tabuleiro, ou -1 se nao ha' uma jogada
 	 *   possivel.
 	 */
-	private int escolherMelhorJogada(char jogador,
-			                         List<Integer> jogadasPossiveis) {
+	private int escolherMelhorJogada(char jogador, int jogadasPossiveis) {
 
 		/* nenhuma jogada possivel */
-		if (jogadasPossiveis.size() < 1) { return -1; }
+		if (jogadasPossiveis == 0) { return -1; }
 		
 		/* so' uma jogada possivel */
-		if (jogadasPossiveis.size() == 1) { return jogadasPossiveis.get(0); }
+		if ((jogadasPossiveis & (jogadasPossiveis - 1)) == 0) {
+			return Integer.numberOfTrailingZeros(jogadasPossiveis);
+		}
 		
 		/* mais de uma jogada possivel */
 		/* verifica quais delas tem chance para formar um trio no futuro */
-		List<Integer> boasJogadas = new ArrayList<Integer>();
+		int proprias  = getMascara(jogador);
+		int oponentes = getMascara(getOponente(jogador));
+		int duplas = 0;
+		int trios  = 0;
 		
-		/* jogadas para formar uma dupla [2] */
-		boasJogadas.addAll(getMelhoresJogadas(jogadasPossiveis,
-   						      new char[]{JOGADOR_VAZIO,JOGADOR_VAZIO,jogador}));
-
-		boasJogadas.addAll(getMelhoresJogadas(jogadasPossiveis,
-		   		              new char[]{JOGADOR_VAZIO,jogador,JOGADOR_VAZIO}));
-		
-		/* se ha' jogadas, sorteia uma */
-		if (boasJogadas.size() > 0) {
-			return boasJogadas.get(new Random().nextInt(boasJogadas.size()));
+		for (int t = 0; t < MASCARAS_TRIOS.length; t++) {
+			int trio = MASCARAS_TRIOS[t];
+			if ((trio & oponentes) != 0) continue;
+			
+			int marcadas = Integer.bitCount(trio & proprias);
+			/* jogadas para formar uma dupla [2] */
+			if (marcadas == 1) duplas |= trio;
+			/* jogadas para iniciar um novo trio [1] */
+			if (marcadas == 0) trios  |= trio;
 		}
 		
-		/* jogadas para iniciar um novo trio [1] */
-		boasJogadas = getMelhoresJogadas(jogadasPossiveis,
-			      new char[]{JOGADOR_VAZIO,JOGADOR_VAZIO,JOGADOR_VAZIO});
-	
 		/* se ha' jogadas, sorteia uma */
-		if (boasJogadas.size() > 0) {
-			return boasJogadas.get(new Random().nextInt(boasJogadas.size()));
+		if ((duplas & jogadasPossiveis) != 0) {
+			return sortearPosicao(duplas & jogadasPossiveis);
+		}
+		if ((trios & jogadasPossiveis) != 0) {
+			return sortearPosicao(trios & jogadasPossiveis);
 		}
 		
 		/* se nao ha' boas jogadas, sorteia qualquer uma das possiveis */
-		return
-			jogadasPossiveis.get(new Random().nextInt(jogadasPossiveis.size()));
+		return sortearPosicao(jogadasPossiveis);
 	}
 }
@@ -0,0 +1,646 @@
+package velha;
+
+/**
+ * Classe que implementa a logica de um Jogo da Velha generalizado (m,n,k):
+ * tabuleiro de largura x altura em que ganha quem marcar k posicoes em
+ * linha (horizontal, vertical ou diagonal). O Jogo da Velha classico e' o
+ * caso 3,3,3 e o gomoku o caso 15,15,5.
+ * As linhas (trechos de k posicoes) sao geradas na construcao; cada jogada
+ * verifica apenas as linhas que passam pela posicao jogada.
+ * Tabuleiros de ate' @ref MAXIMO_BITBOARD posicoes (o classico 3x3, 4x4,
+ * ate' 8x8) sao representados por bitboards, como em @ref VelhaEngine: a
+ * linha completa e' uma comparacao de mascaras e as jogadas livres saem
+ * dos bits vazios. Nos maiores, cada jogada atualiza a contagem de cada
+ * linha e a avaliacao da posicao.
+ */
+public class VelhaEngineMNK implements VelhaTabuleiro {
+
+	/** Direcoes das linhas: horizontal, vertical, diagonal e anti-diagonal
+	 *  (deslocamento de coluna e de linha). */
+	private static final int DIRECOES[][] = {{1,0},{0,1},{1,1},{-1,1}};
+
+	/** Maior numero de posicoes representado por bitboards (um long). */
+	public static final int MAXIMO_BITBOARD = 64;
+	/** Maior numero de posicoes com tabela de linhas completas (8 KB). */
+	private static final int MAXIMO_TABELA = 16;
+
+	/** Largura do tabuleiro (colunas). */
+	private final int largura;
+	/** Altura do tabuleiro (linhas). */
+	private final int altura;
+	/** Numero de posicoes em linha para ganhar. */
+	private final int k;
+
+	/** Posicoes de cada linha: a linha l ocupa [l*k, l*k + k). */
+	private final int posicoesLinha[];
+	/** Numero de linhas do tabuleiro. */
+	private final int numLinhas;
+	/** Linhas que passam por cada posicao: as da posicao p estao em
+	 *  [inicioLinhas[p], inicioLinhas[p+1]) de @ref linhasPosicao. */
+	private final int inicioLinhas[];
+	/** Indice das linhas que passam pelas posicoes. */
+	private final int linhasPosicao[];
+	/** Posicoes em ordem de preferencia (as que estao em mais linhas
+	 *  primeiro). */
+	private final int ordem[];
+	/** Valor de uma linha para o Jogador X, pelas posicoes marcadas:
+	 *  a linha com cx posicoes do X e co do O esta' em cx*(k+1)+co. */
+	private final int valoresLinha[];
+
+	/** Mascara (bitboard) de cada linha, ou null se o tabuleiro tem mais
+	 *  de @ref MAXIMO_BITBOARD posicoes. */
+	private final long mascarasLinha[];
+	/** Mascara (bitboard) com todas as posicoes do tabuleiro. */
+	private final long mascaraCheio;
+	/** Bitboards (de ate' @ref MAXIMO_TABELA posicoes) que contem uma
+	 *  linha completa, um bit por bitboard, ou null em tabuleiros maiores. */
+	private final long completas[];
+
+	/** Tabuleiro (largura x altura posicoes, linha a linha). */
+	private final char tabuleiro[];
+	/** Bitboard do Jogador X (so' com @ref mascarasLinha). */
+	private long mascaraX = 0;
+	/** Bitboard do Jogador O (so' com @ref mascarasLinha). */
+	private long mascaraO = 0;
+	/** Posicoes de cada linha marcadas pelo Jogador X (null com
+	 *  @ref mascarasLinha). */
+	private final int contagemX[];
+	/** Posicoes de cada linha marcadas pelo Jogador O (null com
+	 *  @ref mascarasLinha). */
+	private final int contagemO[];
+
+	/** Jogador da vez. */
+	private char vez = VelhaEngine.JOGADOR_X;
+	/** Numero de posicoes marcadas no tabuleiro. */
+	private int numJogadas = 0;
+	/** Jogador que ganhou, ou @ref VelhaEngine.JOGADOR_VAZIO. */
+	private char ganhador = VelhaEngine.JOGADOR_VAZIO;
+	/** Avaliacao da posicao do ponto de vista do Jogador X (so' sem
+	 *  @ref mascarasLinha; com bitboards e' calculada em @ref avaliar). */
+	private int avaliacaoX = 0;
+
+	/** Pilha de jogadas feitas com @ref makeMove. */
+	private final int pilhaJogadas[];
+	/** Topo da pilha de jogadas. */
+	private int topoPilha = 0;
+
+	/** Marcas usadas ao ordenar as jogadas (evita jogadas repetidas). */
+	private final int marcas[];
+	/** Valor atual das marcas em @ref marcas. */
+	private int marcaAtual = 0;
+
+	/**
+	 * Construtor.
+	 * @param largura Largura do tabuleiro (colunas)
+	 * @param altura Altura do tabuleiro (linhas)
+	 * @param k Numero de posicoes em linha para ganhar
+	 * @throws IllegalArgumentException Se as dimensoes nao sao validas ou k
+	 *   e' maior que a largura e a altura.
+	 */
+	public VelhaEngineMNK(int largura, int altura, int k) {
+		if (largura < 1 || altura < 1 || k < 1
+				|| (k > largura && k > altura)) {
+			throw new IllegalArgumentException("Tabuleiro " + largura + "x"
+					+ altura + " com k=" + k + " nao e' valido.");
+		}
+		this.largura = largura;
+		this.altura  = altura;
+		this.k       = k;
+
+		int posicoes = largura * altura;
+		tabuleiro    = new char[posicoes];
+		pilhaJogadas = new int[posicoes];
+		marcas       = new int[posicoes];
+
+		/* gera as linhas (trechos de k posicoes) em todas as direcoes */
+		int linhas[] = new int[DIRECOES.length * posicoes * k];
+		int total = 0;
+		int porPosicao[] = new int[posicoes];
+		for (int d = 0; d < DIRECOES.length; d++) {
+			int dx = DIRECOES[d][0];
+			int dy = DIRECOES[d][1];
+			if (k == 1 && d > 0) break;
+			for (int y = 0; y < altura; y++) {
+				for (int x = 0; x < largura; x++) {
+					int xf = x + dx * (k - 1);
+					int yf = y + dy * (k - 1);
+					if (xf < 0 || xf >= largura || yf >= altura) continue;
+					for (int i = 0; i < k; i++) {
+						int pos = (y + dy * i) * largura + (x + dx * i);
+						linhas[total * k + i] = pos;
+						porPosicao[pos]++;
+					}
+					total++;
+				}
+			}
+		}
+		numLinhas = total;
+		posicoesLinha = new int[total * k];
+		System.arraycopy(linhas, 0, posicoesLinha, 0, total * k);
+
+		/* indexa as linhas que passam por cada posicao */
+		inicioLinhas = new int[posicoes + 1];
+		for (int pos = 0; pos < posicoes; pos++) {
+			inicioLinhas[pos + 1] = inicioLinhas[pos] + porPosicao[pos];
+		}
+		linhasPosicao = new int[inicioLinhas[posicoes]];
+		int preenchidas[] = new int[posicoes];
+		for (int l = 0; l < total; l++) {
+			for (int i = 0; i < k; i++) {
+				int pos = posicoesLinha[l * k + i];
+				linhasPosicao[inicioLinhas[pos] + preenchidas[pos]++] = l;
+			}
+		}
+
+		/* ordem de preferencia: mais linhas primeiro, depois mais central */
+		ordem = new int[posicoes];
+		for (int pos = 0; pos < posicoes; pos++) ordem[pos] = pos;
+		for (int i = 1; i < posicoes; i++) {
+			int pos = ordem[i];
+			int j = i - 1;
+			while (j >= 0 && compararPreferencia(ordem[j], pos, porPosicao) > 0) {
+				ordem[j + 1] = ordem[j];
+				j--;
+			}
+			ordem[j + 1] = pos;
+		}
+
+		/* linhas com posicoes dos dois jogadores nao valem nada */
+		valoresLinha = new int[(k + 1) * (k + 1)];
+		for (int n = 1; n < k; n++) {
+			int peso = 1 << Math.min(2 * n, 16);
+			valoresLinha[n * (k + 1)] = peso;
+			valoresLinha[n] = -peso;
+		}
+
+		if (posicoes <= MAXIMO_BITBOARD) {
+			mascarasLinha = new long[total];
+			for (int l = 0; l < total; l++) {
+				for (int i = 0; i < k; i++) {
+					mascarasLinha[l] |= 1L << posicoesLinha[l * k + i];
+				}
+			}
+			mascaraCheio = (posicoes == 64) ? -1L : (1L << posicoes) - 1;
+			completas = (posicoes <= MAXIMO_TABELA) ? gerarCompletas(posicoes) : null;
+			contagemX = null;
+			contagemO = null;
+		} else {
+			mascarasLinha = null;
+			mascaraCheio = 0;
+			completas = null;
+			contagemX = new int[total];
+			contagemO = new int[total];
+		}
+		limparTabuleiro();
+	}
+
+	/**
+	 * Construtor de copia: compartilha as tabelas de linhas (imutaveis) e
+	 * copia o estado do jogo.
+	 * @param origem Tabuleiro a ser copiado
+	 */
+	private VelhaEngineMNK(VelhaEngineMNK origem) {
+		largura       = origem.largura;
+		altura        = origem.altura;
+		k             = origem.k;
+		posicoesLinha = origem.posicoesLinha;
+		numLinhas     = origem.numLinhas;
+		inicioLinhas  = origem.inicioLinhas;
+		linhasPosicao = origem.linhasPosicao;
+		ordem         = origem.ordem;
+		valoresLinha  = origem.valoresLinha;
+		mascarasLinha = origem.mascarasLinha;
+		mascaraCheio  = origem.mascaraCheio;
+		completas     = origem.completas;
+
+		tabuleiro    = origem.tabuleiro.clone();
+		mascaraX     = origem.mascaraX;
+		mascaraO     = origem.mascaraO;
+		contagemX    = (origem.contagemX == null) ? null : origem.contagemX.clone();
+		contagemO    = (origem.contagemO == null) ? null : origem.contagemO.clone();
+		pilhaJogadas = new int[tabuleiro.length];
+		marcas       = new int[tabuleiro.length];
+
+		vez        = origem.vez;
+		numJogadas = origem.numJogadas;
+		ganhador   = origem.ganhador;
+		avaliacaoX = origem.avaliacaoX;
+	}
+
+	/**
+	 * Gera a tabela de bitboards com linha completa, como o
+	 * TRIO_GANHADOR do @ref VelhaEngine: uma mascara contem uma linha se
+	 * a mascara sem o bit mais alto contem ou se a linha termina nesse bit.
+	 * @param posicoes Numero de posicoes (no maximo @ref MAXIMO_TABELA)
+	 * @return Um bit por bitboard, ligado se o bitboard contem uma linha.
+	 */
+	private long[] gerarCompletas(int posicoes) {
+		long tabela[] = new long[Math.max(1, (1 << posicoes) >>> 6)];
+		for (int mascara = 1; mascara < (1 << posicoes); mascara++) {
+			int alta = 31 - Integer.numberOfLeadingZeros(mascara);
+			boolean completa = isCompleta(tabela, mascara & ~(1 << alta));
+			for (int i = inicioLinhas[alta];
+					!completa && i < inicioLinhas[alta + 1]; i++) {
+				long linha = mascarasLinha[linhasPosicao[i]];
+				completa = (mascara & linha) == linha;
+			}
+			if (completa) tabela[mascara >>> 6] |= 1L << mascara;
+		}
+		return tabela;
+	}
+
+	/**
+	 * Consulta a tabela de bitboards com linha completa.
+	 * @param tabela Tabela gerada por @ref gerarCompletas
+	 * @param mascara Bitboard
+	 * @return True se o bitboard contem uma linha completa.
+	 */
+	private static boolean isCompleta(long tabela[], long mascara) {
+		return ((tabela[(int) (mascara >>> 6)] >>> mascara) & 1) != 0;
+	}
+
+	/**
+	 * Compara a preferencia de duas posicoes para a ordenacao das jogadas.
+	 * @return Negativo se a posicao a e' preferida, positivo se b e'
+	 *   preferida.
+	 */
+	private int compararPreferencia(int a, int b, int porPosicao[]) {
+		if (porPosicao[a] != porPosicao[b]) return porPosicao[b] - porPosicao[a];
+		return distanciaCentro(a) - distanciaCentro(b);
+	}
+
+	/** Retorna a distancia (x2, Manhattan) de uma posicao ao centro. */
+	private int distanciaCentro(int pos) {
+		int x = pos % largura;
+		int y = pos / largura;
+		return Math.abs(2 * x - (largura - 1)) + Math.abs(2 * y - (altura - 1));
+	}
+
+	/**
+	 * Retorna a largura do tabuleiro.
+	 * @return Numero de colunas.
+	 */
+	public int getLargura() {
+		return largura;
+	}
+
+	/**
+	 * Retorna a altura do tabuleiro.
+	 * @return Numero de linhas.
+	 */
+	public int getAltura() {
+		return altura;
+	}
+
+	/**
+	 * Retorna o numero de posicoes em linha para ganhar.
+	 * @return Valor de k.
+	 */
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * Retorna o numero de linhas (trechos de k posicoes) do tabuleiro.
+	 * @return Numero de linhas.
+	 */
+	public int getNumLinhas() {
+		return numLinhas;
+	}
+
+	/**
+	 * Retorna as posicoes de uma linha.
+	 * @param linha Indice da linha (0 a @ref getNumLinhas - 1)
+	 * @param destino Vetor a ser preenchido (no minimo k posicoes)
+	 */
+	public void getPosicoesLinha(int linha, int[] destino) {
+		System.arraycopy(posicoesLinha, linha * k, destino, 0, k);
+	}
+
+	/**
+	 * Retorna o numero de posicoes do tabuleiro.
+	 * @return Numero de posicoes (largura x altura).
+	 */
+	@Override
+	public int getNumPosicoes() {
+		return tabuleiro.length;
+	}
+
+	/**
+	 * Retorna uma posicao no tabuleiro.
+	 * @param pos Posicao (de 0 a @ref getNumPosicoes - 1)
+	 * @return Jogador marcado na posicao ou @ref VelhaEngine.JOGADOR_VAZIO
+	 *   se nao houver.
+	 */
+	@Override
+	public char getPosicao(int pos) {
+		return tabuleiro[pos];
+	}
+
+	/**
+	 * Retorna o tabuleiro.
+	 * O vetor nao deve ser alterado diretamente.
+	 * @return Vetor que representa o tabuleiro (linha a linha).
+	 */
+	public char[] getTabuleiro() {
+		return tabuleiro;
+	}
+
+	/**
+	 * Retorna o jogador da vez.
+	 * @return Jogador da vez (@ref VelhaEngine.JOGADOR_X ou
+	 *   @ref VelhaEngine.JOGADOR_O).
+	 */
+	@Override
+	public char getVez() {
+		return vez;
+	}
+
+	/**
+	 * Configura o jogador da vez.
+	 * @param jogador Jogador da vez (@ref VelhaEngine.JOGADOR_X ou
+	 *   @ref VelhaEngine.JOGADOR_O).
+	 */
+	public void setVez(char jogador) {
+		if (jogador == VelhaEngine.JOGADOR_X || jogador == VelhaEngine.JOGADOR_O) {
+			vez = jogador;
+		}
+	}
+
+	/**
+	 * Retorna o numero de posicoes marcadas no tabuleiro.
+	 * @return Numero de jogadas.
+	 */
+	@Override
+	public int getNumJogadas() {
+		return numJogadas;
+	}
+
+	/**
+	 * Retorna o jogador ganhador.
+	 * @return Jogador que ganhou, ou @ref VelhaEngine.JOGADOR_VAZIO se
+	 *   nenhum jogador ganhou.
+	 */
+	@Override
+	public char getGanhador() {
+		return ganhador;
+	}
+
+	/**
+	 * Verifica se um jogador ganhou.
+	 * @param jogador Jogador a ser verificado
+	 * @return True se o jogador indicado ganhou, false se nao.
+	 */
+	public boolean isGanhador(char jogador) {
+		return (ganhador == jogador);
+	}
+
+	/**
+	 * Verifica se houve empate.
+	 * @return True se houve empate, false se nao.
+	 */
+	public boolean isEmpate() {
+		return (numJogadas == tabuleiro.length
+				&& ganhador == VelhaEngine.JOGADOR_VAZIO);
+	}
+
+	/**
+	 * Verifica se o jogo terminou (um jogador ganhou ou deu empate).
+	 * @return True se o jogo terminou, false se nao.
+	 */
+	@Override
+	public boolean isGameOver() {
+		return (numJogadas == tabuleiro.length
+				|| ganhador != VelhaEngine.JOGADOR_VAZIO);
+	}
+
+	/**
+	 * Limpa o tabuleiro. A vez passa para o Jogador X.
+	 */
+	public void limparTabuleiro() {
+		for (int pos = 0; pos < tabuleiro.length; pos++) {
+			tabuleiro[pos] = VelhaEngine.JOGADOR_VAZIO;
+		}
+		mascaraX = 0;
+		mascaraO = 0;
+		if (contagemX != null) {
+			for (int l = 0; l < numLinhas; l++) {
+				contagemX[l] = 0;
+				contagemO[l] = 0;
+			}
+		}
+		vez = VelhaEngine.JOGADOR_X;
+		numJogadas = 0;
+		ganhador = VelhaEngine.JOGADOR_VAZIO;
+		avaliacaoX = 0;
+		topoPilha = 0;
+	}
+
+	/**
+	 * Faz uma jogada do jogador da vez. A vez passa para o oponente.
+	 * @param pos Posicao da jogada
+	 * @return True se a jogada foi feita, false se a posicao nao existe,
+	 *   nao esta' livre ou o jogo terminou.
+	 */
+	@Override
+	public boolean makeMove(int pos) {
+		if (pos < 0 || pos >= tabuleiro.length
+				|| tabuleiro[pos] != VelhaEngine.JOGADOR_VAZIO
+				|| ganhador != VelhaEngine.JOGADOR_VAZIO) {
+			return false;
+		}
+
+		boolean x = (vez == VelhaEngine.JOGADOR_X);
+		if (mascarasLinha != null) {
+			long proprias = x ? (mascaraX |= 1L << pos) : (mascaraO |= 1L << pos);
+			if (completas != null) {
+				if (isCompleta(completas, proprias)) ganhador = vez;
+
+			/* com menos de k posicoes nao ha' linha completa */
+			} else if (Long.bitCount(proprias) >= k) {
+				for (int i = inicioLinhas[pos]; i < inicioLinhas[pos + 1]; i++) {
+					long linha = mascarasLinha[linhasPosicao[i]];
+					if ((proprias & linha) == linha) {
+						ganhador = vez;
+						break;
+					}
+				}
+			}
+		} else {
+			int proprias[] = x ? contagemX : contagemO;
+			for (int i = inicioLinhas[pos]; i < inicioLinhas[pos + 1]; i++) {
+				int l = linhasPosicao[i];
+				avaliacaoX -= getValorLinha(l);
+				if (++proprias[l] == k) ganhador = vez;
+				avaliacaoX += getValorLinha(l);
+			}
+		}
+
+		tabuleiro[pos] = vez;
+		numJogadas++;
+		pilhaJogadas[topoPilha++] = pos;
+		vez = VelhaEngine.getOponente(vez);
+		return true;
+	}
+
+	/**
+	 * Desfaz a ultima jogada feita com @ref makeMove. A vez volta para o
+	 * jogador que fez a jogada.
+	 * @return True se a jogada foi desfeita, false se nao ha' jogadas na
+	 *   pilha.
+	 */
+	@Override
+	public boolean unmakeMove() {
+		if (topoPilha == 0) return false;
+
+		int pos = pilhaJogadas[--topoPilha];
+		vez = VelhaEngine.getOponente(vez);
+		if (mascarasLinha != null) {
+			mascaraX &= ~(1L << pos);
+			mascaraO &= ~(1L << pos);
+		} else {
+			int proprias[] = (vez == VelhaEngine.JOGADOR_X) ? contagemX : contagemO;
+			for (int i = inicioLinhas[pos]; i < inicioLinhas[pos + 1]; i++) {
+				int l = linhasPosicao[i];
+				avaliacaoX -= getValorLinha(l);
+				proprias[l]--;
+				avaliacaoX += getValorLinha(l);
+			}
+		}
+
+		tabuleiro[pos] = VelhaEngine.JOGADOR_VAZIO;
+		numJogadas--;
+		/* so' e' possivel jogar com o jogo em andamento */
+		ganhador = VelhaEngine.JOGADOR_VAZIO;
+		return true;
+	}
+
+	/**
+	 * Retorna a contribuicao de uma linha para a avaliacao do Jogador X:
+	 * linhas com posicoes dos dois jogadores nao valem nada.
+	 */
+	private int getValorLinha(int l) {
+		return getValorLinha(contagemX[l], contagemO[l]);
+	}
+
+	/**
+	 * Retorna a contribuicao de uma linha para a avaliacao do Jogador X.
+	 * @param cx Posicoes da linha marcadas pelo Jogador X
+	 * @param co Posicoes da linha marcadas pelo Jogador O
+	 * @return Valor da linha (0 se os dois jogadores marcaram a linha).
+	 */
+	private int getValorLinha(int cx, int co) {
+		return valoresLinha[cx * (k + 1) + co];
+	}
+
+	/**
+	 * Preenche um vetor com as jogadas livres, em ordem crescente.
+	 * @param destino Vetor a ser preenchido (no minimo
+	 *   @ref getNumPosicoes posicoes)
+	 * @return Numero de jogadas preenchidas no vetor.
+	 */
+	@Override
+	public int preencherJogadasLivres(int[] destino) {
+		int total = 0;
+		if (mascarasLinha != null) {
+			long livres = ~(mascaraX | mascaraO) & mascaraCheio;
+			while (livres != 0) {
+				destino[total++] = Long.numberOfTrailingZeros(livres);
+				livres &= livres - 1;
+			}
+			return total;
+		}
+		for (int pos = 0; pos < tabuleiro.length; pos++) {
+			if (tabuleiro[pos] == VelhaEngine.JOGADOR_VAZIO) destino[total++] = pos;
+		}
+		return total;
+	}
+
+	/**
+	 * Retorna uma copia do tabuleiro, com o mesmo jogador da vez. As
+	 * tabelas de linhas sao compartilhadas e a pilha de jogadas nao e'
+	 * copiada.
+	 * @return Novo objeto VelhaEngineMNK.
+	 */
+	@Override
+	public VelhaEngineMNK copiar() {
+		return new VelhaEngineMNK(this);
+	}
+
+	/**
+	 * Avalia a posicao pelas linhas ainda abertas: cada linha com n
+	 * posicoes de um so' jogador vale 4^n (no maximo 4^8) para ele.
+	 * @return Valor da posicao do ponto de vista do jogador da vez.
+	 */
+	@Override
+	public int avaliar() {
+		int valor = avaliacaoX;
+		if (mascarasLinha != null) {
+			valor = 0;
+			for (int l = 0; l < numLinhas; l++) {
+				long linha = mascarasLinha[l];
+				valor += getValorLinha(Long.bitCount(mascaraX & linha),
+				                       Long.bitCount(mascaraO & linha));
+			}
+		}
+		return (vez == VelhaEngine.JOGADOR_X) ? valor : -valor;
+	}
+
+	/**
+	 * Preenche um vetor com as jogadas livres em ordem: jogadas que
+	 * completam uma linha, jogadas que bloqueiam o oponente e as demais na
+	 * ordem de preferencia do tabuleiro.
+	 * @param destino Vetor a ser preenchido (no minimo
+	 *   @ref getNumPosicoes posicoes)
+	 * @return Numero de jogadas preenchidas no vetor.
+	 */
+	@Override
+	public int preencherJogadasOrdenadas(int[] destino) {
+		int total = 0;
+		if (++marcaAtual == 0) {
+			for (int pos = 0; pos < marcas.length; pos++) marcas[pos] = 0;
+			marcaAtual = 1;
+		}
+
+		boolean x = (vez == VelhaEngine.JOGADOR_X);
+		int proprias[]  = x ? contagemX : contagemO;
+		int oponentes[] = x ? contagemO : contagemX;
+		long mascaraPropria  = x ? mascaraX : mascaraO;
+		long mascaraOponente = x ? mascaraO : mascaraX;
+
+		/* jogadas de ataque e depois de defesa */
+		for (int fase = 0; fase < 2; fase++) {
+			int cheias[] = (fase == 0) ? proprias  : oponentes;
+			int vazias[] = (fase == 0) ? oponentes : proprias;
+			long mascaraCheia = (fase == 0) ? mascaraPropria  : mascaraOponente;
+			long mascaraVazia = (fase == 0) ? mascaraOponente : mascaraPropria;
+			for (int l = 0; l < numLinhas; l++) {
+				if (mascarasLinha != null) {
+					long linha = mascarasLinha[l];
+					if ((mascaraVazia & linha) != 0
+							|| Long.bitCount(mascaraCheia & linha) != k - 1) continue;
+				} else if (cheias[l] != k - 1 || vazias[l] != 0) {
+					continue;
+				}
+				for (int i = l * k; i < l * k + k; i++) {
+					int pos = posicoesLinha[i];
+					if (tabuleiro[pos] == VelhaEngine.JOGADOR_VAZIO
+							&& marcas[pos] != marcaAtual) {
+						marcas[pos] = marcaAtual;
+						destino[total++] = pos;
+					}
+				}
+			}
+		}
+
+		/* demais jogadas */
+		for (int i = 0; i < ordem.length; i++) {
+			int pos = ordem[i];
+			if (tabuleiro[pos] == VelhaEngine.JOGADOR_VAZIO
+					&& marcas[pos] != marcaAtual) {
+				destino[total++] = pos;
+			}
+		}
+		return total;
+	}
+}
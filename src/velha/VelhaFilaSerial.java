@@ -0,0 +1,75 @@
+package velha;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fila de tarefas executadas uma de cada vez, na ordem em que chegam
+ * (mailbox de uma @ref VelhaPartida).
+ * Nao usa lock: a thread que coloca uma tarefa na fila vazia passa a ser
+ * a dona da fila e executa as tarefas ate' esvaziar, incluindo as que
+ * chegarem de outras threads nesse meio tempo. Se houver um executor, a
+ * execucao e' feita nele, senao na propria thread que chamou (a thread
+ * de I/O do MINA que recebeu o evento). Filas diferentes executam em
+ * paralelo.
+ * Uma tarefa que coloca outra tarefa na mesma fila nao a executa na hora:
+ * ela e' executada depois que a tarefa atual termina.
+ */
+final class VelhaFilaSerial implements Executor {
+
+	/** Tarefas pendentes. */
+	private final Queue<Runnable> tarefas =
+		new ConcurrentLinkedQueue<Runnable>();
+	/** Numero de tarefas pendentes ou em execucao. */
+	private final AtomicInteger pendentes = new AtomicInteger();
+	/** Executor das tarefas, ou null para executar na thread que chamou. */
+	private final Executor executor;
+	/** Esvazia a fila (submetido ao executor). */
+	private final Runnable esvaziar = new Runnable() {
+		public void run() {
+			esvaziar();
+		}
+	};
+
+	/**
+	 * Construtor.
+	 * @param executor Executor das tarefas (compartilhado entre as filas),
+	 *   ou null para executar na thread que colocou a primeira tarefa
+	 */
+	VelhaFilaSerial(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Coloca uma tarefa na fila.
+	 * @param tarefa Tarefa a executar depois das que ja' estao na fila
+	 */
+	public void execute(Runnable tarefa) {
+		tarefas.offer(tarefa);
+		if (pendentes.getAndIncrement() == 0) {
+			/* fila estava vazia: esta thread passa a ser a dona */
+			if (executor == null) {
+				esvaziar();
+			} else {
+				executor.execute(esvaziar);
+			}
+		}
+	}
+
+	/**
+	 * Executa as tarefas ate' a fila ficar vazia.
+	 */
+	private void esvaziar() {
+		do {
+			Runnable tarefa = tarefas.poll();
+			try {
+				tarefa.run();
+			} catch (RuntimeException e) {
+				/* uma tarefa com erro nao pode parar a fila */
+				if (VelhaLog.isAtivo(VelhaLog.ERRO)) VelhaLog.erro(e);
+			}
+		} while (pendentes.decrementAndGet() != 0);
+	}
+}
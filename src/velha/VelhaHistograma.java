@@ -0,0 +1,217 @@
+package velha;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latencias, em nanossegundos, com faixas log-lineares
+ * (como o HdrHistogram): cada potencia de 2 e' dividida em
+ * @ref SUBFAIXAS faixas iguais, entao o erro de um valor e' no maximo
+ * 1/@ref SUBFAIXAS (3%) em qualquer escala, de nanossegundos a minutos.
+ * A memoria e' fixa (@ref NUM_FAIXAS contadores) e o registro nao usa
+ * lock: e' um incremento atomico da faixa do valor.
+ * Os contadores sao acumulados desde a criacao; os percentis de um
+ * intervalo sao a diferenca entre duas copias (@ref Instantaneo), sem
+ * zerar o histograma nem parar quem registra.
+ */
+public final class VelhaHistograma {
+
+	/** Bits da subdivisao de cada potencia de 2. */
+	private static final int BITS_SUBFAIXAS = 5;
+	/** Faixas em cada potencia de 2. */
+	public static final int SUBFAIXAS = 1 << BITS_SUBFAIXAS;
+	/** Bits do maior valor registrado (2^40 ns, cerca de 18 minutos);
+	 *  valores maiores contam na ultima faixa. */
+	private static final int BITS_MAXIMO = 40;
+	/** Numero de faixas. */
+	public static final int NUM_FAIXAS =
+		(BITS_MAXIMO - BITS_SUBFAIXAS + 1) * SUBFAIXAS;
+
+	/**
+	 * Copia dos contadores de um histograma em um instante (ou da
+	 * diferenca entre duas copias). Nao muda depois de criada.
+	 */
+	public static final class Instantaneo {
+		/** Contadores por faixa. */
+		private final long contagens[];
+		/** Numero de valores. */
+		private final long total;
+		/** Maior valor. */
+		private final long maximo;
+
+		/**
+		 * Construtor.
+		 * @param contagens Contadores por faixa
+		 * @param maximo Maior valor registrado
+		 */
+		private Instantaneo(long contagens[], long maximo) {
+			long soma = 0;
+			int ultima = -1;
+			for (int i = 0; i < contagens.length; i++) {
+				soma += contagens[i];
+				if (contagens[i] > 0) ultima = i;
+			}
+			this.contagens = contagens;
+			this.total = soma;
+			/* o maximo nao pode passar do topo da ultima faixa com valores */
+			this.maximo = (ultima < 0) ? 0
+					: Math.min(maximo, getValorFaixa(ultima));
+		}
+
+		/**
+		 * Retorna o numero de valores.
+		 * @return Numero de valores registrados.
+		 */
+		public long getTotal() {
+			return total;
+		}
+
+		/**
+		 * Retorna o maior valor.
+		 * @return Maior valor registrado, em ns (0 se nao ha' valores).
+		 */
+		public long getMaximo() {
+			return maximo;
+		}
+
+		/**
+		 * Retorna um percentil.
+		 * @param percentil Percentil (de 0 a 100)
+		 * @return Menor valor (topo da faixa) que cobre o percentil dos
+		 *   valores, em ns, ou 0 se nao ha' valores.
+		 */
+		public long getPercentil(double percentil) {
+			if (total == 0) return 0;
+			long posicao = (long) Math.ceil(total * percentil / 100.0);
+			if (posicao < 1) posicao = 1;
+			long acumulado = 0;
+			for (int i = 0; i < contagens.length; i++) {
+				acumulado += contagens[i];
+				if (acumulado >= posicao) {
+					return Math.min(getValorFaixa(i), maximo);
+				}
+			}
+			return maximo;
+		}
+
+		/**
+		 * Retorna os valores registrados depois de uma copia anterior.
+		 * @param anterior Copia anterior do mesmo histograma, ou null
+		 * @return Copia com os valores do intervalo. O maximo e' o topo da
+		 *   ultima faixa com valores no intervalo.
+		 */
+		public Instantaneo subtrair(Instantaneo anterior) {
+			if (anterior == null) return this;
+			long diferenca[] = new long[contagens.length];
+			for (int i = 0; i < contagens.length; i++) {
+				diferenca[i] = contagens[i] - anterior.contagens[i];
+			}
+			return new Instantaneo(diferenca, maximo);
+		}
+
+		/**
+		 * Retorna o resumo.
+		 * @return Texto com o numero de valores, p50, p99, p99.9 e maximo.
+		 */
+		public String getResumo() {
+			return "n=" + total + " p50=" + getPercentil(50) + "ns p99="
+					+ getPercentil(99) + "ns p99.9=" + getPercentil(99.9)
+					+ "ns max=" + maximo + "ns";
+		}
+	}
+
+	/** Nome do histograma. */
+	private final String nome;
+	/** Contadores por faixa. */
+	private final AtomicLongArray contagens = new AtomicLongArray(NUM_FAIXAS);
+	/** Maior valor registrado, em ns. */
+	private final AtomicLong maximo = new AtomicLong();
+
+	/**
+	 * Construtor.
+	 * @param nome Nome do histograma
+	 */
+	public VelhaHistograma(String nome) {
+		this.nome = nome;
+	}
+
+	/**
+	 * Retorna o nome.
+	 * @return Nome do histograma.
+	 */
+	public String getNome() {
+		return nome;
+	}
+
+	/**
+	 * Registra a duracao de uma etapa que comecou em um instante.
+	 * @param inicio Valor de System.nanoTime() no inicio da etapa
+	 */
+	public void registrar(long inicio) {
+		registrarValor(System.nanoTime() - inicio);
+	}
+
+	/**
+	 * Registra um valor.
+	 * @param valor Valor em ns (negativos contam como 0)
+	 */
+	public void registrarValor(long valor) {
+		if (valor < 0) valor = 0;
+		contagens.incrementAndGet(getFaixa(valor));
+		long atual;
+		while (valor > (atual = maximo.get())
+				&& !maximo.compareAndSet(atual, valor)) {
+			/* outra thread trocou o maximo: tenta de novo */
+		}
+	}
+
+	/**
+	 * Retorna uma copia dos contadores. Os valores registrados durante a
+	 * copia podem ficar para a copia seguinte.
+	 * @return Copia do histograma.
+	 */
+	public Instantaneo getInstantaneo() {
+		long maior = maximo.get();
+		long copia[] = new long[NUM_FAIXAS];
+		for (int i = 0; i < NUM_FAIXAS; i++) {
+			copia[i] = contagens.get(i);
+		}
+		return new Instantaneo(copia, Math.max(maior, maximo.get()));
+	}
+
+	/**
+	 * Retorna o resumo de todos os valores registrados.
+	 * @return Texto com o numero de valores, p50, p99, p99.9 e maximo.
+	 */
+	public String getResumo() {
+		return getInstantaneo().getResumo();
+	}
+
+	/**
+	 * Retorna a faixa de um valor.
+	 * @param valor Valor (nao negativo)
+	 * @return Indice da faixa (0 a @ref NUM_FAIXAS - 1).
+	 */
+	static int getFaixa(long valor) {
+		if (valor < SUBFAIXAS) return (int) valor;
+		int expoente = 63 - Long.numberOfLeadingZeros(valor);
+		if (expoente >= BITS_MAXIMO) return NUM_FAIXAS - 1;
+		int deslocamento = expoente - BITS_SUBFAIXAS;
+		/* potencia de 2 (a partir de 1) e subfaixa dentro dela */
+		return ((deslocamento + 1) << BITS_SUBFAIXAS)
+				+ (int) (valor >>> deslocamento) - SUBFAIXAS;
+	}
+
+	/**
+	 * Retorna o maior valor de uma faixa.
+	 * @param faixa Indice da faixa
+	 * @return Topo da faixa, em ns.
+	 */
+	static long getValorFaixa(int faixa) {
+		if (faixa < SUBFAIXAS) return faixa;
+		int deslocamento = (faixa >> BITS_SUBFAIXAS) - 1;
+		long base = (long) (SUBFAIXAS + (faixa & (SUBFAIXAS - 1)))
+				<< deslocamento;
+		return base + (1L << deslocamento) - 1;
+	}
+}
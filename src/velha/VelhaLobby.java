@@ -0,0 +1,186 @@
+package velha;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.mina.core.session.IoSession;
+
+/**
+ * Lobby do servidor do Jogo da Velha: registro das partidas em andamento
+ * e pareamento dos clientes que chegam.
+ * Existe no maximo uma partida aguardando o segundo jogador; o proximo
+ * cliente entra nela e o jogo comeca. Se nao ha' partida aguardando, o
+ * cliente recebe uma nova partida e fica aguardando. Assim o servidor
+ * atende qualquer numero de partidas simultaneas, cada uma com o seu
+ * estado (@ref VelhaPartida). A sessao de cada jogador recebe o seu lugar
+ * (@ref VelhaLugar): o criador da partida e' o jogador 0 e quem a
+ * completa e' o jogador 1.
+ * O pareamento nao usa lock: a partida aguardando e' trocada com
+ * compareAndSet, e cada jogador e' colocado na partida pela fila de
+ * eventos dela.
+ * A partida aguardando tambem pode ser retirada pelo robot
+ * (@ref VelhaRobo), que ocupa o lugar vazio.
+ * Um cliente pode deixar o seu lugar para assistir uma partida pelo
+ * identificador (@ref assistir).
+ */
+public class VelhaLobby {
+
+	/** Limite padrao dos bytes aguardando envio a um espectador. */
+	public static final int LIMITE_ESPECTADOR = 1024;
+
+	/** Partida com um jogador aguardando o oponente, ou null. */
+	private final AtomicReference<VelhaPartida> partidaAguardando =
+		new AtomicReference<VelhaPartida>();
+	/** Partidas em andamento (ou aguardando), pelo identificador. */
+	private final ConcurrentHashMap<Long, VelhaPartida> partidas =
+		new ConcurrentHashMap<Long, VelhaPartida>();
+	/** Ultimo identificador de partida usado. */
+	private final AtomicLong ultimoId = new AtomicLong();
+
+	/** Parser de XML usado nas mensagens recebidas como String. */
+	private final VelhaCodec velhaParser;
+	/** Indica se as sessoes binarias recebem @ref VelhaBean. */
+	private final boolean enviarBeans;
+	/** Cache das mensagens XML de status, compartilhado pelas partidas. */
+	private final VelhaCacheMensagens cacheMensagens;
+	/** Executor dos eventos das partidas, ou null para a thread de I/O. */
+	private final Executor executor;
+	/** Robot das partidas, ou null se o servidor so' pareia clientes. */
+	private final VelhaRobo robo;
+	/** Bytes aguardando envio a partir dos quais um espectador deixa de
+	 *  receber as mensagens intermediarias. */
+	private final int limiteEspectador;
+
+	/**
+	 * Construtor.
+	 * @param velhaParser Parser de XML usado nas mensagens recebidas como
+	 *   String
+	 * @param enviarBeans True se as sessoes binarias recebem
+	 *   @ref VelhaBean (codec @ref VelhaCodecFactory)
+	 * @param cacheMensagens Cache das mensagens XML de status
+	 * @param executor Executor dos eventos das partidas (cada partida
+	 *   executa os seus eventos em serie), ou null para executar na thread
+	 *   de I/O que recebeu o evento
+	 * @param robo Robot que ocupa o lugar vazio das partidas aguardando,
+	 *   ou null para so' parear clientes
+	 * @param limiteEspectador Bytes aguardando envio a partir dos quais
+	 *   um espectador deixa de receber as mensagens intermediarias
+	 */
+	public VelhaLobby(VelhaCodec velhaParser, boolean enviarBeans,
+			VelhaCacheMensagens cacheMensagens, Executor executor,
+			VelhaRobo robo, int limiteEspectador) {
+		this.velhaParser = velhaParser;
+		this.enviarBeans = enviarBeans;
+		this.cacheMensagens = cacheMensagens;
+		this.executor = executor;
+		this.robo = robo;
+		this.limiteEspectador = limiteEspectador;
+	}
+
+	/**
+	 * Coloca um cliente em uma partida: na partida aguardando, se houver,
+	 * ou em uma nova partida, que passa a aguardar o oponente.
+	 * A sessao recebe o lugar na hora, para que os proximos eventos dela
+	 * entrem na fila da partida depois da entrada.
+	 * @param session Sessao do cliente
+	 * @return Partida em que o cliente vai entrar.
+	 */
+	public VelhaPartida entrar(IoSession session) {
+		while (true) {
+			VelhaPartida partida = partidaAguardando.get();
+
+			if (partida == null) {
+				/* ninguem aguardando: cria uma partida e aguarda */
+				partida = new VelhaPartida(ultimoId.incrementAndGet(), this,
+						velhaParser, enviarBeans, cacheMensagens, executor,
+						robo, limiteEspectador);
+				partidas.put(partida.getId(), partida);
+				if (partidaAguardando.compareAndSet(null, partida)) {
+					VelhaMetricas.partidaCriada();
+					session.setAttribute(VelhaLugar.ATRIBUTO,
+							new VelhaLugar(partida, 0));
+					partida.entrar(session, 0);
+					return partida;
+				}
+				/* outro cliente criou uma partida antes */
+				partidas.remove(partida.getId());
+
+			} else if (partidaAguardando.compareAndSet(partida, null)) {
+				/* completa a partida aguardando (se o jogador dela ja'
+				 * saiu, a partida devolve este cliente ao lobby) */
+				session.setAttribute(VelhaLugar.ATRIBUTO,
+						new VelhaLugar(partida, 1));
+				partida.entrar(session, 1);
+				return partida;
+			}
+		}
+	}
+
+	/**
+	 * Tira um cliente do seu lugar (ou da partida que ele ja' assiste) e
+	 * o coloca como espectador de uma partida.
+	 * @param session Sessao do cliente
+	 * @param idPartida Identificador da partida
+	 * @return True se o cliente vai assistir a partida, false se ela nao
+	 *   existe (o cliente fica sem partida).
+	 */
+	public boolean assistir(IoSession session, long idPartida) {
+		/* sem o lugar, os proximos eventos da sessao nao vao mais para a
+		 * partida em que ela estava */
+		VelhaLugar lugar =
+			(VelhaLugar) session.removeAttribute(VelhaLugar.ATRIBUTO);
+		if (lugar != null) {
+			lugar.getPartida().liberar(session, lugar.getIndice());
+		}
+		/* um espectador deixa a partida anterior, que senao continuaria
+		 * enviando cada mudanca para ele */
+		VelhaPartida anterior = (VelhaPartida)
+			session.removeAttribute(VelhaPartida.ATRIBUTO_ASSISTINDO);
+		if (anterior != null) anterior.deixarDeAssistir(session);
+		VelhaPartida partida = partidas.get(idPartida);
+		if (partida == null) return false;
+		session.setAttribute(VelhaPartida.ATRIBUTO_ASSISTINDO, partida);
+		partida.assistir(session);
+		return true;
+	}
+
+	/**
+	 * Retira uma partida do lugar de partida aguardando, para o robot
+	 * ocupar o lugar vazio.
+	 * @param partida Partida aguardando
+	 * @return True se retirou, false se um cliente ja' pegou a partida
+	 *   (ou ela nao esta' aguardando).
+	 */
+	boolean retirarAguardando(VelhaPartida partida) {
+		return partidaAguardando.compareAndSet(partida, null);
+	}
+
+	/**
+	 * Retira do lobby uma partida encerrada.
+	 * @param partida Partida encerrada
+	 */
+	void remover(VelhaPartida partida) {
+		partidaAguardando.compareAndSet(partida, null);
+		partidas.remove(partida.getId());
+	}
+
+	/**
+	 * Retorna uma partida pelo identificador.
+	 * @param id Identificador da partida
+	 * @return Partida, ou null se nao existe ou ja' encerrou.
+	 */
+	public VelhaPartida getPartida(long id) {
+		return partidas.get(id);
+	}
+
+	/**
+	 * Retorna o numero de partidas em andamento (incluindo a que aguarda
+	 * o segundo jogador).
+	 * @return Numero de partidas.
+	 */
+	public int getNumPartidas() {
+		return partidas.size();
+	}
+}
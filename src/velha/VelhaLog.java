@@ -0,0 +1,391 @@
+package velha;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * Log assincrono dos eventos do servidor do Jogo da Velha.
+ * Cada evento e' um registro estruturado (tipo, partida, jogador, valor e
+ * um dado opcional) gravado em um buffer circular pre-alocado; uma thread
+ * de fundo esvazia o buffer e escreve as linhas no arquivo. Quem registra
+ * o evento nao formata texto, nao faz I/O e nao espera: se o buffer esta'
+ * cheio, o evento e' descartado (e contado).
+ * O nivel pode ser trocado a qualquer momento (@ref setNivel). Com o log
+ * desligado (o padrao, ate' @ref iniciar) o custo de cada ponto de log e'
+ * a leitura de um campo volatile em @ref isAtivo:
+ *
+ *     if (VelhaLog.isAtivo(VelhaLog.DEBUG)) {
+ *         VelhaLog.evento(VelhaLog.DEBUG, VelhaLog.JOGADA, id, jogador,
+ *                 posicao, null);
+ *     }
+ *
+ * Formato da linha (campos ausentes sao omitidos):
+ * "2026-01-31T12:00:00.000Z INFO conectou partida=1 jogador=X valor=0 dado"
+ */
+public final class VelhaLog {
+
+	/** Nivel: log desligado. */
+	public static final int DESLIGADO = 0;
+	/** Nivel: erros. */
+	public static final int ERRO = 1;
+	/** Nivel: conexoes, inicio e fim das partidas. */
+	public static final int INFO = 2;
+	/** Nivel: jogadas e mensagens rejeitadas. */
+	public static final int DEBUG = 3;
+	/** Nivel: conteudo das mensagens recebidas e enviadas. */
+	public static final int TRACE = 4;
+	/** Nomes dos niveis, pelo valor. */
+	private static final String NIVEIS[] = {
+			"DESLIGADO", "ERRO", "INFO", "DEBUG", "TRACE"
+	};
+
+	/* tipos de evento */
+	/** Mensagem livre (dado). */
+	public static final int MENSAGEM = 0;
+	/** Excecao (dado com o Throwable). */
+	public static final int EXCECAO = 1;
+	/** Jogador entrou na partida. */
+	public static final int CONECTOU = 2;
+	/** Jogador saiu da partida. */
+	public static final int DESCONECTOU = 3;
+	/** Jogo comecou (jogador que inicia). */
+	public static final int INICIO = 4;
+	/** Jogada (valor = posicao). */
+	public static final int JOGADA = 5;
+	/** Mensagem invalida do jogador da vez. */
+	public static final int MENSAGEM_INVALIDA = 6;
+	/** Jogada fora da vez. */
+	public static final int VEZ_ERRADA = 7;
+	/** Fim de jogo (dado = status do jogador). */
+	public static final int FIM = 8;
+	/** Mensagem recebida (dado = mensagem). */
+	public static final int RECEBIDA = 9;
+	/** Mensagem enviada (dado = mensagem). */
+	public static final int ENVIADA = 10;
+	/** Sessao ociosa fechada. */
+	public static final int OCIOSA = 11;
+	/** Nomes dos tipos de evento, pelo valor. */
+	private static final String TIPOS[] = {
+			"mensagem", "excecao", "conectou", "desconectou", "inicio",
+			"jogada", "mensagem_invalida", "vez_errada", "fim", "recebida",
+			"enviada", "ociosa"
+	};
+
+	/** Registro de um evento no buffer circular. */
+	private static final class Registro {
+		/** Sequencia do evento gravado (publicado para a thread de
+		 *  escrita), ou -1 se ainda nao houve evento nesta posicao. */
+		private volatile long sequencia = -1;
+		private long tempo;
+		private int nivel;
+		private int tipo;
+		private long partida;
+		private char jogador;
+		private int valor;
+		private Object dado;
+	}
+
+	/** Valor de partida/valor/jogador ausente. */
+	public static final int NENHUM = -1;
+
+	/** Nivel atual. */
+	private static volatile int nivel = DESLIGADO;
+	/** Log em uso, ou null antes de @ref iniciar. */
+	private static volatile VelhaLog log = null;
+
+	/** Buffer circular (tamanho potencia de 2). */
+	private final Registro registros[];
+	/** Mascara do indice no buffer. */
+	private final int mascara;
+	/** Proxima sequencia a ser gravada. */
+	private final AtomicLong proxima = new AtomicLong();
+	/** Proxima sequencia a ser escrita pela thread de escrita. */
+	private volatile long escrita = 0;
+	/** Numero de eventos descartados com o buffer cheio. */
+	private final AtomicLong descartados = new AtomicLong();
+	/** Arquivo de saida. */
+	private final Writer saida;
+	/** Thread de escrita. */
+	private final Thread thread;
+	/** Indica que a thread de escrita deve terminar. */
+	private volatile boolean parar = false;
+
+	/**
+	 * Construtor.
+	 * @param saida Arquivo de saida
+	 * @param capacidade Numero de eventos no buffer (arredondado para a
+	 *   potencia de 2 seguinte)
+	 */
+	private VelhaLog(Writer saida, int capacidade) {
+		int tamanho = Integer.highestOneBit(Math.max(capacidade, 2) - 1) << 1;
+		registros = new Registro[tamanho];
+		for (int i = 0; i < tamanho; i++) {
+			registros[i] = new Registro();
+		}
+		mascara = tamanho - 1;
+		this.saida = saida;
+		thread = new Thread(new Runnable() {
+			public void run() {
+				escrever();
+			}
+		}, "velha-log");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Inicia o log em um arquivo (acrescenta ao fim).
+	 * @param arquivo Caminho do arquivo
+	 * @param capacidade Numero de eventos no buffer circular
+	 * @param nivelInicial Nivel do log (@ref DESLIGADO a @ref TRACE)
+	 * @throws IOException Se o arquivo nao pode ser aberto.
+	 */
+	public static synchronized void iniciar(String arquivo, int capacidade,
+			int nivelInicial) throws IOException {
+		parar();
+		Writer saida = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(arquivo, true), Charset.forName("UTF-8")),
+				1 << 16);
+		VelhaLog novo = new VelhaLog(saida, capacidade);
+		novo.thread.start();
+		log = novo;
+		setNivel(nivelInicial);
+	}
+
+	/**
+	 * Para o log: escreve os eventos pendentes e fecha o arquivo.
+	 */
+	public static synchronized void parar() {
+		VelhaLog atual = log;
+		if (atual == null) return;
+		nivel = DESLIGADO;
+		log = null;
+		atual.parar = true;
+		LockSupport.unpark(atual.thread);
+		try {
+			atual.thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Troca o nivel do log. Sem @ref iniciar, o log fica desligado.
+	 * @param novoNivel Nivel (@ref DESLIGADO a @ref TRACE)
+	 * @throws IllegalArgumentException Se o nivel e' invalido.
+	 */
+	public static void setNivel(int novoNivel) {
+		if (novoNivel < DESLIGADO || novoNivel > TRACE) {
+			throw new IllegalArgumentException("Nivel invalido: " + novoNivel);
+		}
+		nivel = (log != null) ? novoNivel : DESLIGADO;
+	}
+
+	/**
+	 * Retorna o nivel atual.
+	 * @return Nivel (@ref DESLIGADO a @ref TRACE).
+	 */
+	public static int getNivel() {
+		return nivel;
+	}
+
+	/**
+	 * Retorna o valor de um nivel pelo nome.
+	 * @param nome Nome do nivel ("desligado", "erro", "info", "debug" ou
+	 *   "trace")
+	 * @return Nivel, ou -1 se o nome nao e' conhecido.
+	 */
+	public static int getNivel(String nome) {
+		for (int i = 0; i < NIVEIS.length; i++) {
+			if (NIVEIS[i].equalsIgnoreCase(nome)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Retorna o nome de um nivel.
+	 * @param nivelLog Nivel (@ref DESLIGADO a @ref TRACE)
+	 * @return Nome do nivel, em minusculas.
+	 */
+	public static String getNomeNivel(int nivelLog) {
+		return NIVEIS[nivelLog].toLowerCase();
+	}
+
+	/**
+	 * Verifica se um nivel esta' ativo. Deve ser chamado antes de montar
+	 * os argumentos de @ref evento.
+	 * @param nivelEvento Nivel do evento
+	 * @return True se eventos deste nivel sao registrados.
+	 */
+	public static boolean isAtivo(int nivelEvento) {
+		return nivelEvento <= nivel;
+	}
+
+	/**
+	 * Retorna o numero de eventos descartados com o buffer cheio.
+	 * @return Eventos descartados desde @ref iniciar.
+	 */
+	public static long getDescartados() {
+		VelhaLog atual = log;
+		return (atual != null) ? atual.descartados.get() : 0;
+	}
+
+	/**
+	 * Registra um evento, sem bloquear.
+	 * @param nivelEvento Nivel do evento
+	 * @param tipo Tipo do evento (@ref MENSAGEM, @ref CONECTOU, ...)
+	 * @param partida Identificador da partida, ou @ref NENHUM
+	 * @param jogador Id do jogador, ou @ref VelhaEngine.JOGADOR_VAZIO
+	 * @param valor Valor do evento (posicao, indice...), ou @ref NENHUM
+	 * @param dado Dado do evento, convertido em texto pela thread de
+	 *   escrita (nao pode ser alterado depois), ou null
+	 */
+	public static void evento(int nivelEvento, int tipo, long partida,
+			char jogador, int valor, Object dado) {
+		VelhaLog atual = log;
+		if (atual == null || nivelEvento > nivel) return;
+		atual.gravar(nivelEvento, tipo, partida, jogador, valor, dado);
+	}
+
+	/**
+	 * Registra uma mensagem livre.
+	 * @param nivelEvento Nivel do evento
+	 * @param mensagem Mensagem
+	 */
+	public static void mensagem(int nivelEvento, String mensagem) {
+		evento(nivelEvento, MENSAGEM, NENHUM, VelhaEngine.JOGADOR_VAZIO,
+				NENHUM, mensagem);
+	}
+
+	/**
+	 * Registra uma excecao (nivel @ref ERRO).
+	 * @param erro Excecao
+	 */
+	public static void erro(Throwable erro) {
+		evento(ERRO, EXCECAO, NENHUM, VelhaEngine.JOGADOR_VAZIO, NENHUM,
+				erro);
+	}
+
+	/**
+	 * Grava um evento no buffer circular.
+	 */
+	private void gravar(int nivelEvento, int tipo, long partida,
+			char jogador, int valor, Object dado) {
+		/* reserva uma posicao, se houver */
+		long sequencia;
+		do {
+			sequencia = proxima.get();
+			if (sequencia - escrita >= registros.length) {
+				descartados.incrementAndGet();
+				return;
+			}
+		} while (!proxima.compareAndSet(sequencia, sequencia + 1));
+
+		Registro registro = registros[(int) sequencia & mascara];
+		registro.tempo = System.currentTimeMillis();
+		registro.nivel = nivelEvento;
+		registro.tipo = tipo;
+		registro.partida = partida;
+		registro.jogador = jogador;
+		registro.valor = valor;
+		registro.dado = dado;
+		/* publica o registro para a thread de escrita */
+		registro.sequencia = sequencia;
+	}
+
+	/**
+	 * Laco da thread de escrita: esvazia o buffer e escreve no arquivo;
+	 * com o buffer vazio, descarrega o arquivo e dorme um pouco.
+	 */
+	private void escrever() {
+		SimpleDateFormat formato =
+			new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		formato.setTimeZone(TimeZone.getTimeZone("UTC"));
+		Date data = new Date();
+		StringBuilder linha = new StringBuilder(256);
+		boolean pendente = false;
+
+		while (true) {
+			long sequencia = escrita;
+			Registro registro = registros[(int) sequencia & mascara];
+			if (registro.sequencia != sequencia) {
+				/* buffer vazio */
+				try {
+					if (pendente) {
+						saida.flush();
+						pendente = false;
+					}
+					if (parar && proxima.get() == sequencia) {
+						saida.close();
+						return;
+					}
+				} catch (IOException e) {
+					/* sem onde registrar: o evento se perde */
+				}
+				LockSupport.parkNanos(1000000L);
+				continue;
+			}
+
+			/* copia o registro e libera a posicao */
+			data.setTime(registro.tempo);
+			int nivelEvento = registro.nivel;
+			int tipo = registro.tipo;
+			long partida = registro.partida;
+			char jogador = registro.jogador;
+			int valor = registro.valor;
+			Object dado = registro.dado;
+			registro.dado = null;
+			escrita = sequencia + 1;
+
+			linha.setLength(0);
+			linha.append(formato.format(data)).append(' ')
+				.append(NIVEIS[nivelEvento]).append(' ').append(TIPOS[tipo]);
+			if (partida != NENHUM) linha.append(" partida=").append(partida);
+			if (jogador != VelhaEngine.JOGADOR_VAZIO) {
+				linha.append(" jogador=").append(jogador);
+			}
+			if (valor != NENHUM) linha.append(" valor=").append(valor);
+			try {
+				if (dado != null) linha.append(' ').append(getTexto(dado));
+				linha.append('\n');
+				saida.write(linha.toString());
+				if (dado instanceof Throwable) {
+					PrintWriter pilha = new PrintWriter(saida);
+					((Throwable) dado).printStackTrace(pilha);
+					pilha.flush();
+				}
+				pendente = true;
+			} catch (IOException e) {
+				/* sem onde registrar: o evento se perde */
+			} catch (RuntimeException e) {
+				/* toString do dado falhou: segue com os proximos */
+			}
+		}
+	}
+
+	/**
+	 * Converte o dado de um evento em texto.
+	 * @param dado Dado (mensagem em IoBuffer e' decodificada como UTF-8)
+	 * @return Texto.
+	 */
+	private static String getTexto(Object dado) {
+		if (dado instanceof IoBuffer) {
+			IoBuffer buffer = ((IoBuffer) dado).duplicate();
+			byte bytes[] = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			return new String(bytes, Charset.forName("UTF-8")).trim();
+		}
+		return dado.toString();
+	}
+}
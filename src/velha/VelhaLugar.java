@@ -0,0 +1,58 @@
+package velha;
+
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+
+/**
+ * Lugar de um jogador em uma partida: a partida e o indice do jogador
+ * nela (0 ou 1). Guardado na sessao do jogador (atributo @ref ATRIBUTO),
+ * para que cada evento encontre a partida e o jogador sem pesquisar em
+ * listas. Objetos desta classe sao imutaveis.
+ */
+public final class VelhaLugar {
+
+	/** Atributo da sessao com o lugar do jogador. */
+	static final AttributeKey ATRIBUTO =
+		new AttributeKey(VelhaLugar.class, "lugar");
+
+	/** Partida do jogador. */
+	private final VelhaPartida partida;
+	/** Indice do jogador na partida (0 ou 1). */
+	private final int indice;
+
+	/**
+	 * Construtor.
+	 * @param partida Partida do jogador
+	 * @param indice Indice do jogador na partida (0 ou 1)
+	 */
+	VelhaLugar(VelhaPartida partida, int indice) {
+		this.partida = partida;
+		this.indice = indice;
+	}
+
+	/**
+	 * Retorna a partida do jogador.
+	 * @return Partida.
+	 */
+	public VelhaPartida getPartida() {
+		return partida;
+	}
+
+	/**
+	 * Retorna o indice do jogador na partida.
+	 * @return 0 ou 1.
+	 */
+	public int getIndice() {
+		return indice;
+	}
+
+	/**
+	 * Retorna o lugar de uma sessao.
+	 * @param session Sessao do cliente
+	 * @return Lugar do jogador, ou null se a sessao nao esta' em nenhuma
+	 *   partida.
+	 */
+	public static VelhaLugar getLugar(IoSession session) {
+		return (VelhaLugar) session.getAttribute(ATRIBUTO);
+	}
+}
@@ -0,0 +1,358 @@
+package velha;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Classe que implementa a busca de jogadas por Monte-Carlo Tree Search
+ * (selecao UCT e simulacoes aleatorias), para tabuleiros em que a busca
+ * exaustiva (@ref VelhaBusca) e' cara demais.
+ * A busca e' paralelizada na raiz: cada tarefa do ForkJoinPool monta a sua
+ * propria arvore sobre uma copia do tabuleiro e, ao final, as visitas de
+ * cada jogada da raiz sao somadas. O orcamento de cada jogada e' dado em
+ * simulacoes e, opcionalmente, em tempo.
+ */
+public class VelhaMCTS {
+
+	/** Constante de exploracao do UCT (raiz de 2). */
+	public static final double CONSTANTE_UCT = 1.41;
+
+	/** Simulacoes por jogada no nivel 0 (dobram a cada nivel). */
+	private static final int SIMULACOES_NIVEL_0 = 16;
+
+	/** Pool onde as arvores sao montadas. */
+	private final ForkJoinPool pool;
+
+	/** Simulacoes por jogada (somando todas as arvores). */
+	private int simulacoes = getSimulacoesNivel(10);
+	/** Tempo limite por jogada, em milissegundos (0 = sem limite). */
+	private long tempoLimite = 0;
+
+	/** Gerador das sementes de cada arvore. */
+	private final Random random = new Random();
+
+	/** Simulacoes feitas na ultima busca. */
+	private long ultimasSimulacoes = 0;
+	/** Total de simulacoes desde a criacao. */
+	private long simulacoesTotal = 0;
+	/** Tempo total de busca desde a criacao, em nanossegundos. */
+	private long tempoTotal = 0;
+
+	/** Construtor default, usando o pool comum da JVM. */
+	public VelhaMCTS() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Construtor.
+	 * @param pool Pool onde as arvores serao montadas (uma por thread).
+	 */
+	public VelhaMCTS(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Retorna o numero de simulacoes por jogada de um nivel de inteligencia.
+	 * @param nivel Nivel de inteligencia (0 a 10)
+	 * @return Simulacoes por jogada (16 no nivel 0, dobrando a cada nivel).
+	 */
+	public static int getSimulacoesNivel(int nivel) {
+		return SIMULACOES_NIVEL_0 << Math.max(0, Math.min(nivel, 10));
+	}
+
+	/**
+	 * Retorna o numero de simulacoes por jogada.
+	 * @return Simulacoes por jogada.
+	 */
+	public int getSimulacoes() {
+		return simulacoes;
+	}
+
+	/**
+	 * Configura o numero de simulacoes por jogada.
+	 * @param simulacoes Simulacoes por jogada (somando todas as arvores).
+	 */
+	public void setSimulacoes(int simulacoes) {
+		if (simulacoes > 0) {
+			this.simulacoes = simulacoes;
+		}
+	}
+
+	/**
+	 * Retorna o tempo limite por jogada.
+	 * @return Tempo limite em milissegundos, ou 0 se nao ha' limite.
+	 */
+	public long getTempoLimite() {
+		return tempoLimite;
+	}
+
+	/**
+	 * Configura o tempo limite por jogada. A busca termina no que acontecer
+	 * primeiro: fim das simulacoes ou do tempo.
+	 * @param tempoLimite Tempo limite em milissegundos (0 = sem limite).
+	 */
+	public void setTempoLimite(long tempoLimite) {
+		if (tempoLimite >= 0) {
+			this.tempoLimite = tempoLimite;
+		}
+	}
+
+	/**
+	 * Retorna o numero de simulacoes feitas na ultima busca.
+	 * @return Numero de simulacoes.
+	 */
+	public long getUltimasSimulacoes() {
+		return ultimasSimulacoes;
+	}
+
+	/**
+	 * Retorna a taxa media de simulacoes por segundo, desde a criacao.
+	 * @return Simulacoes por segundo, ou 0 se nenhuma busca foi feita.
+	 */
+	public long getSimulacoesPorSegundo() {
+		return (tempoTotal > 0) ? (simulacoesTotal * 1000000000L / tempoTotal) : 0;
+	}
+
+	/**
+	 * Busca a melhor jogada para o jogador da vez. O tabuleiro nao e'
+	 * alterado: cada arvore trabalha sobre uma copia.
+	 * @param tabuleiro Tabuleiro a ser analisado, com o jogador da vez
+	 *   configurado
+	 * @return Posicao da jogada mais visitada, ou -1 se o jogo terminou.
+	 */
+	public int buscar(VelhaTabuleiro tabuleiro) {
+		if (tabuleiro.isGameOver()) return -1;
+
+		long inicio = System.nanoTime();
+		long prazo = (tempoLimite > 0)
+			? inicio + tempoLimite * 1000000L : Long.MAX_VALUE;
+
+		int arvores = Math.max(1, Math.min(pool.getParallelism(), simulacoes));
+		Arvore tarefas[] = new Arvore[arvores];
+		for (int i = 0; i < arvores; i++) {
+			int cota = simulacoes / arvores + ((i < simulacoes % arvores) ? 1 : 0);
+			tarefas[i] = new Arvore(tabuleiro.copiar(), cota, prazo,
+			                        random.nextLong());
+		}
+		long visitas[] = pool.invoke(new Raiz(tarefas));
+
+		int posicoes = tabuleiro.getNumPosicoes();
+		int melhor = -1;
+		for (int pos = 0; pos < posicoes; pos++) {
+			if (visitas[pos] > 0 && (melhor < 0 || visitas[pos] > visitas[melhor])) {
+				melhor = pos;
+			}
+		}
+
+		ultimasSimulacoes = visitas[posicoes];
+		simulacoesTotal += ultimasSimulacoes;
+		tempoTotal += System.nanoTime() - inicio;
+		return melhor;
+	}
+
+	/**
+	 * Tarefa que dispara as arvores em paralelo e soma as visitas de cada
+	 * jogada da raiz.
+	 */
+	private static final class Raiz extends RecursiveTask<long[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		/** Arvores a serem montadas. */
+		private final Arvore arvores[];
+
+		Raiz(Arvore arvores[]) {
+			this.arvores = arvores;
+		}
+
+		@Override
+		protected long[] compute() {
+			invokeAll(arvores);
+			long soma[] = null;
+			for (int i = 0; i < arvores.length; i++) {
+				long visitas[] = arvores[i].join();
+				if (soma == null) {
+					soma = visitas;
+				} else {
+					for (int pos = 0; pos < soma.length; pos++) soma[pos] += visitas[pos];
+				}
+			}
+			return soma;
+		}
+	}
+
+	/** No da arvore de busca. */
+	private static final class No {
+		/** No pai, ou null na raiz. */
+		final No pai;
+		/** Jogada que leva do pai a este no. */
+		final int jogada;
+		/** Jogador que fez a jogada. */
+		final char jogador;
+		/** Jogadas ainda nao expandidas. */
+		final int naoExpandidas[];
+		/** Numero de jogadas ainda nao expandidas. */
+		int numNaoExpandidas;
+		/** Filhos ja' expandidos. */
+		final No filhos[];
+		/** Numero de filhos expandidos. */
+		int numFilhos = 0;
+		/** Visitas ao no. */
+		int visitas = 0;
+		/** Vitorias (empate vale meia) do jogador que fez a jogada. */
+		double vitorias = 0;
+
+		No(No pai, int jogada, char jogador, int jogadas[], int total) {
+			this.pai = pai;
+			this.jogada = jogada;
+			this.jogador = jogador;
+			naoExpandidas = new int[total];
+			System.arraycopy(jogadas, 0, naoExpandidas, 0, total);
+			numNaoExpandidas = total;
+			filhos = new No[total];
+		}
+	}
+
+	/**
+	 * Tarefa que monta uma arvore de busca sobre a sua copia do tabuleiro.
+	 * Resulta nas visitas de cada jogada da raiz e, na ultima posicao do
+	 * vetor, no numero de simulacoes feitas.
+	 */
+	private static final class Arvore extends RecursiveTask<long[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		/** Copia do tabuleiro, exclusiva desta arvore. */
+		private final VelhaTabuleiro tabuleiro;
+		/** Simulacoes a serem feitas. */
+		private final int simulacoes;
+		/** Prazo (System.nanoTime) para terminar a busca. */
+		private final long prazo;
+		/** Semente do gerador de numeros aleatorios. */
+		private final long semente;
+
+		Arvore(VelhaTabuleiro tabuleiro, int simulacoes, long prazo,
+		       long semente) {
+			this.tabuleiro = tabuleiro;
+			this.simulacoes = simulacoes;
+			this.prazo = prazo;
+			this.semente = semente;
+		}
+
+		@Override
+		protected long[] compute() {
+			Random random = new Random(semente);
+			int jogadas[] = new int[tabuleiro.getNumPosicoes()];
+			No raiz = novoNo(null, -1, VelhaEngine.JOGADOR_VAZIO, jogadas);
+
+			int feitas = 0;
+			while (feitas < simulacoes
+					&& ((feitas & 0xF) != 0 || System.nanoTime() < prazo)) {
+				No no = raiz;
+				int profundidade = 0;
+
+				/* selecao */
+				while (no.numNaoExpandidas == 0 && no.numFilhos > 0) {
+					no = selecionar(no);
+					tabuleiro.makeMove(no.jogada);
+					profundidade++;
+				}
+
+				/* expansao */
+				if (no.numNaoExpandidas > 0) {
+					int i = random.nextInt(no.numNaoExpandidas);
+					int jogada = no.naoExpandidas[i];
+					no.naoExpandidas[i] = no.naoExpandidas[--no.numNaoExpandidas];
+					char jogador = tabuleiro.getVez();
+					tabuleiro.makeMove(jogada);
+					profundidade++;
+					No filho = novoNo(no, jogada, jogador, jogadas);
+					no.filhos[no.numFilhos++] = filho;
+					no = filho;
+				}
+
+				/* simulacao */
+				char ganhador = simular(random, jogadas);
+
+				/* retropropagacao */
+				for (; no != null; no = no.pai) {
+					no.visitas++;
+					if      (ganhador == no.jogador            ) no.vitorias += 1;
+					else if (ganhador == VelhaEngine.JOGADOR_VAZIO) no.vitorias += 0.5;
+				}
+
+				while (profundidade-- > 0) tabuleiro.unmakeMove();
+				feitas++;
+			}
+
+			long visitas[] = new long[jogadas.length + 1];
+			for (int i = 0; i < raiz.numFilhos; i++) {
+				visitas[raiz.filhos[i].jogada] = raiz.filhos[i].visitas;
+			}
+			visitas[jogadas.length] = feitas;
+			return visitas;
+		}
+
+		/**
+		 * Cria um no para a posicao atual do tabuleiro.
+		 * @param pai No pai
+		 * @param jogada Jogada que leva do pai ao no
+		 * @param jogador Jogador que fez a jogada
+		 * @param buffer Buffer de trabalho para as jogadas livres
+		 * @return Novo no.
+		 */
+		private No novoNo(No pai, int jogada, char jogador, int buffer[]) {
+			int total = tabuleiro.isGameOver()
+				? 0 : tabuleiro.preencherJogadasLivres(buffer);
+			return new No(pai, jogada, jogador, buffer, total);
+		}
+
+		/**
+		 * Seleciona o filho de maior valor UCT.
+		 * @param no No com todos os filhos expandidos
+		 * @return Filho selecionado.
+		 */
+		private No selecionar(No no) {
+			double logVisitas = Math.log(no.visitas);
+			No melhor = null;
+			double melhorValor = -1;
+			for (int i = 0; i < no.numFilhos; i++) {
+				No filho = no.filhos[i];
+				double valor = filho.vitorias / filho.visitas
+					+ CONSTANTE_UCT * Math.sqrt(logVisitas / filho.visitas);
+				if (valor > melhorValor) {
+					melhorValor = valor;
+					melhor = filho;
+				}
+			}
+			return melhor;
+		}
+
+		/**
+		 * Joga aleatoriamente a partir da posicao atual ate' o fim do jogo e
+		 * desfaz as jogadas. Nao aloca memoria.
+		 * @param random Gerador de numeros aleatorios
+		 * @param livres Buffer de trabalho para as jogadas livres
+		 * @return Jogador que ganhou, ou @ref VelhaEngine.JOGADOR_VAZIO se
+		 *   houve empate.
+		 */
+		private char simular(Random random, int livres[]) {
+			int total = tabuleiro.isGameOver()
+				? 0 : tabuleiro.preencherJogadasLivres(livres);
+			int feitas = 0;
+
+			while (!tabuleiro.isGameOver() && total > 0) {
+				int i = random.nextInt(total);
+				int jogada = livres[i];
+				livres[i] = livres[--total];
+				tabuleiro.makeMove(jogada);
+				feitas++;
+			}
+
+			char ganhador = tabuleiro.getGanhador();
+			while (feitas-- > 0) tabuleiro.unmakeMove();
+			return ganhador;
+		}
+	}
+}
@@ -0,0 +1,298 @@
+package velha;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metricas do servidor do Jogo da Velha: sessoes, partidas, jogadas,
+ * mensagens rejeitadas por motivo, abandonos e latencias de cada etapa
+ * do tratamento das mensagens (@ref VelhaHistograma).
+ * Os contadores sao LongAdder (uma celula por thread em disputa), entao
+ * as threads de I/O registram sem disputar a mesma linha de cache; a
+ * soma so' e' feita na leitura. A leitura e' feita pelo JMX
+ * (@ref VelhaMetricasMBean, ver @ref registrar) ou em texto
+ * (@ref getTexto); os percentis de cada intervalo podem ser gravados
+ * em arquivo (@ref gravarIntervalo).
+ */
+public class VelhaMetricas implements VelhaMetricasMBean {
+
+	/** Nome JMX das metricas. */
+	public static final String NOME_JMX = "velha:type=Metricas";
+
+	/* motivos de rejeicao de mensagens */
+	/** XML invalido (nao convertido em @ref VelhaBean). */
+	public static final int REJEICAO_XML_INVALIDO = 0;
+	/** Id do jogador diferente do jogador da vez. */
+	public static final int REJEICAO_ID_ERRADO = 1;
+	/** Jogada ausente ou fora do tabuleiro. */
+	public static final int REJEICAO_JOGADA_INVALIDA = 2;
+	/** Posicao ja' ocupada. */
+	public static final int REJEICAO_POSICAO_OCUPADA = 3;
+	/** Jogada fora da vez. */
+	public static final int REJEICAO_VEZ_ERRADA = 4;
+	/** Nomes dos motivos de rejeicao, pelo valor. */
+	private static final String REJEICOES[] = {
+			"xml_invalido", "id_errado", "jogada_invalida",
+			"posicao_ocupada", "vez_errada"
+	};
+
+	/** Latencia da decodificacao das mensagens recebidas (codec
+	 *  @ref VelhaDecoder). */
+	public static final VelhaHistograma DECODIFICACAO =
+		new VelhaHistograma("decodificacao");
+	/** Latencia da conversao do XML recebido em @ref VelhaBean. */
+	public static final VelhaHistograma PARSE = new VelhaHistograma("parse");
+	/** Latencia de uma mensagem recebida na partida, da chegada ao
+	 *  handler ao fim do processamento (inclui a espera na fila). */
+	public static final VelhaHistograma PROCESSAMENTO =
+		new VelhaHistograma("processamento");
+	/** Latencia do engine na jogada (registro e verificacao do fim). */
+	public static final VelhaHistograma ENGINE =
+		new VelhaHistograma("engine");
+	/** Latencia da geracao do XML de status (@ref VelhaCodec.getVelhaXML). */
+	public static final VelhaHistograma XML = new VelhaHistograma("xml");
+	/** Latencia da codificacao das mensagens enviadas. */
+	public static final VelhaHistograma CODIFICACAO =
+		new VelhaHistograma("codificacao");
+	/** Tempo entre o session.write e a mensagem ser escrita no socket. */
+	public static final VelhaHistograma ESCRITA =
+		new VelhaHistograma("escrita");
+	/** Todos os histogramas, na ordem do pipeline. */
+	private static final VelhaHistograma HISTOGRAMAS[] = {
+			DECODIFICACAO, PARSE, PROCESSAMENTO, ENGINE, XML, CODIFICACAO,
+			ESCRITA
+	};
+
+	/* contadores */
+	private static final LongAdder sessoesAbertas = new LongAdder();
+	private static final LongAdder sessoesFechadas = new LongAdder();
+	private static final LongAdder partidasCriadas = new LongAdder();
+	private static final LongAdder partidasEncerradas = new LongAdder();
+	private static final LongAdder jogadas = new LongAdder();
+	private static final LongAdder abandonos = new LongAdder();
+	private static final LongAdder rejeicoes[] =
+		new LongAdder[REJEICOES.length];
+
+	static {
+		for (int i = 0; i < rejeicoes.length; i++) {
+			rejeicoes[i] = new LongAdder();
+		}
+	}
+
+	/* ultima medicao de jogadas por segundo (protegida pelo objeto) */
+	private long jogadasAnterior = 0;
+	private long tempoAnterior = System.nanoTime();
+	private double jogadasPorSegundo = 0;
+
+	/* gravacao dos intervalos dos histogramas (protegida pelo objeto) */
+	private final VelhaHistograma.Instantaneo anteriores[] =
+		new VelhaHistograma.Instantaneo[HISTOGRAMAS.length];
+	private SimpleDateFormat formatoData = null;
+
+	/** Registra uma sessao aberta. */
+	public static void sessaoAberta() {
+		sessoesAbertas.increment();
+	}
+
+	/** Registra uma sessao fechada. */
+	public static void sessaoFechada() {
+		sessoesFechadas.increment();
+	}
+
+	/** Registra uma partida criada. */
+	public static void partidaCriada() {
+		partidasCriadas.increment();
+	}
+
+	/** Registra uma partida encerrada. */
+	public static void partidaEncerrada() {
+		partidasEncerradas.increment();
+	}
+
+	/** Registra uma jogada aceita. */
+	public static void jogada() {
+		jogadas.increment();
+	}
+
+	/** Registra uma partida abandonada (WO). */
+	public static void abandono() {
+		abandonos.increment();
+	}
+
+	/**
+	 * Registra uma mensagem rejeitada.
+	 * @param motivo Motivo (@ref REJEICAO_XML_INVALIDO, ...)
+	 */
+	public static void rejeicao(int motivo) {
+		rejeicoes[motivo].increment();
+	}
+
+	/**
+	 * Registra as metricas no servidor JMX da plataforma (uma vez).
+	 * @return True se registrou, false se ja' estava registrado ou houve
+	 *   erro.
+	 */
+	public static boolean registrar() {
+		try {
+			MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+			ObjectName nome = new ObjectName(NOME_JMX);
+			if (servidor.isRegistered(nome)) return false;
+			servidor.registerMBean(new VelhaMetricas(), nome);
+			return true;
+		} catch (Exception e) {
+			if (VelhaLog.isAtivo(VelhaLog.ERRO)) VelhaLog.erro(e);
+			return false;
+		}
+	}
+
+	public long getSessoesAtivas() {
+		/* le as fechadas antes, para nao ficar negativo */
+		long fechadas = sessoesFechadas.sum();
+		return sessoesAbertas.sum() - fechadas;
+	}
+
+	public long getPartidasAtivas() {
+		long encerradas = partidasEncerradas.sum();
+		return partidasCriadas.sum() - encerradas;
+	}
+
+	public long getPartidasCriadas() {
+		return partidasCriadas.sum();
+	}
+
+	public long getJogadas() {
+		return jogadas.sum();
+	}
+
+	public synchronized double getJogadasPorSegundo() {
+		long agora = System.nanoTime();
+		long intervalo = agora - tempoAnterior;
+		if (intervalo >= 1000000000L) {
+			long total = jogadas.sum();
+			jogadasPorSegundo =
+				(total - jogadasAnterior) * 1e9 / intervalo;
+			jogadasAnterior = total;
+			tempoAnterior = agora;
+		}
+		return jogadasPorSegundo;
+	}
+
+	public long getRejeicoesXmlInvalido() {
+		return rejeicoes[REJEICAO_XML_INVALIDO].sum();
+	}
+
+	public long getRejeicoesIdErrado() {
+		return rejeicoes[REJEICAO_ID_ERRADO].sum();
+	}
+
+	public long getRejeicoesJogadaInvalida() {
+		return rejeicoes[REJEICAO_JOGADA_INVALIDA].sum();
+	}
+
+	public long getRejeicoesPosicaoOcupada() {
+		return rejeicoes[REJEICAO_POSICAO_OCUPADA].sum();
+	}
+
+	public long getRejeicoesVezErrada() {
+		return rejeicoes[REJEICAO_VEZ_ERRADA].sum();
+	}
+
+	public long getAbandonos() {
+		return abandonos.sum();
+	}
+
+	public String getLatenciaDecodificacao() {
+		return DECODIFICACAO.getResumo();
+	}
+
+	public String getLatenciaParse() {
+		return PARSE.getResumo();
+	}
+
+	public String getLatenciaProcessamento() {
+		return PROCESSAMENTO.getResumo();
+	}
+
+	public String getLatenciaEngine() {
+		return ENGINE.getResumo();
+	}
+
+	public String getLatenciaXml() {
+		return XML.getResumo();
+	}
+
+	public String getLatenciaCodificacao() {
+		return CODIFICACAO.getResumo();
+	}
+
+	public String getLatenciaEscrita() {
+		return ESCRITA.getResumo();
+	}
+
+	public String getNivelLog() {
+		return VelhaLog.getNomeNivel(VelhaLog.getNivel());
+	}
+
+	public void setNivelLog(String nivel) {
+		int valor = VelhaLog.getNivel(nivel);
+		if (valor < 0) {
+			throw new IllegalArgumentException("Nivel invalido: " + nivel);
+		}
+		VelhaLog.setNivel(valor);
+	}
+
+	public String getTexto() {
+		StringBuilder texto = new StringBuilder(1024);
+		texto.append("sessoes.ativas ").append(getSessoesAtivas()).append('\n')
+			.append("partidas.ativas ").append(getPartidasAtivas()).append('\n')
+			.append("partidas.criadas ").append(getPartidasCriadas())
+			.append('\n')
+			.append("jogadas ").append(getJogadas()).append('\n')
+			.append("jogadas.por_segundo ")
+			.append(String.format("%.1f", getJogadasPorSegundo()))
+			.append('\n')
+			.append("abandonos ").append(getAbandonos()).append('\n');
+		for (int i = 0; i < REJEICOES.length; i++) {
+			texto.append("rejeicoes.").append(REJEICOES[i]).append(' ')
+				.append(rejeicoes[i].sum()).append('\n');
+		}
+		for (VelhaHistograma histograma : HISTOGRAMAS) {
+			texto.append("latencia.").append(histograma.getNome()).append(' ')
+				.append(histograma.getResumo()).append('\n');
+		}
+		return texto.toString();
+	}
+
+	/**
+	 * Grava os percentis de cada histograma no intervalo desde a gravacao
+	 * anterior deste objeto (ou desde o inicio), uma linha por histograma:
+	 * "2026-01-31T12:00:00.000Z parse n=10 p50=..ns p99=..ns p99.9=..ns
+	 * max=..ns".
+	 * @param saida Saida (o flush e' feito no fim)
+	 * @throws IOException Se houve erro na escrita.
+	 */
+	public synchronized void gravarIntervalo(Writer saida)
+			throws IOException {
+		if (formatoData == null) {
+			formatoData = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+			formatoData.setTimeZone(TimeZone.getTimeZone("UTC"));
+		}
+		String data = formatoData.format(new Date());
+		for (int i = 0; i < HISTOGRAMAS.length; i++) {
+			VelhaHistograma.Instantaneo atual =
+				HISTOGRAMAS[i].getInstantaneo();
+			saida.write(data + " " + HISTOGRAMAS[i].getNome() + " "
+					+ atual.subtrair(anteriores[i]).getResumo() + "\n");
+			anteriores[i] = atual;
+		}
+		saida.flush();
+	}
+}
@@ -0,0 +1,75 @@
+package velha;
+
+/**
+ * Interface JMX das metricas do servidor do Jogo da Velha
+ * (@ref VelhaMetricas), registrada como "velha:type=Metricas".
+ */
+public interface VelhaMetricasMBean {
+
+	/** @return Sessoes abertas. */
+	long getSessoesAtivas();
+
+	/** @return Partidas em andamento (incluindo a que aguarda oponente). */
+	long getPartidasAtivas();
+
+	/** @return Partidas criadas desde o inicio. */
+	long getPartidasCriadas();
+
+	/** @return Jogadas aceitas desde o inicio. */
+	long getJogadas();
+
+	/** @return Jogadas por segundo, desde a leitura anterior (no maximo
+	 *  uma medicao por segundo). */
+	double getJogadasPorSegundo();
+
+	/** @return Mensagens rejeitadas: XML invalido. */
+	long getRejeicoesXmlInvalido();
+
+	/** @return Mensagens rejeitadas: Id do jogador errado. */
+	long getRejeicoesIdErrado();
+
+	/** @return Mensagens rejeitadas: jogada ausente ou fora do tabuleiro. */
+	long getRejeicoesJogadaInvalida();
+
+	/** @return Mensagens rejeitadas: posicao ocupada. */
+	long getRejeicoesPosicaoOcupada();
+
+	/** @return Mensagens rejeitadas: jogada fora da vez. */
+	long getRejeicoesVezErrada();
+
+	/** @return Partidas abandonadas (WO). */
+	long getAbandonos();
+
+	/** @return Percentis da decodificacao das mensagens recebidas. */
+	String getLatenciaDecodificacao();
+
+	/** @return Percentis da conversao do XML recebido. */
+	String getLatenciaParse();
+
+	/** @return Percentis do processamento das mensagens na partida. */
+	String getLatenciaProcessamento();
+
+	/** @return Percentis do engine na jogada. */
+	String getLatenciaEngine();
+
+	/** @return Percentis da geracao do XML de status. */
+	String getLatenciaXml();
+
+	/** @return Percentis da codificacao das mensagens enviadas. */
+	String getLatenciaCodificacao();
+
+	/** @return Percentis do tempo ate' a escrita no socket. */
+	String getLatenciaEscrita();
+
+	/** @return Nivel do log (@ref VelhaLog). */
+	String getNivelLog();
+
+	/**
+	 * Troca o nivel do log.
+	 * @param nivel desligado, erro, info, debug ou trace
+	 */
+	void setNivelLog(String nivel);
+
+	/** @return Todas as metricas em texto, uma por linha. */
+	String getTexto();
+}
@@ -3,6 +3,7 @@ package velha;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.net.URL;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
@@ -24,8 +25,12 @@ import org.w3c.dom.Text;
 
 /**
  * Classe que implementa o parser de XML do Jogo da Velha.
+ * O schema e' compilado uma unica vez, e cada thread reusa o seu proprio
+ * DocumentBuilder, Validator e Transformer (que nao sao thread-safe), de
+ * modo que o parser pode ser usado por varias threads de I/O ao mesmo
+ * tempo.
  */
-public class VelhaParser {
+public class VelhaParser implements VelhaCodec {
 
 	/** Indica se o Modo Debug esta' ativado. */
 	private static final boolean DEBUG_ENABLED = false;
@@ -43,6 +48,65 @@ public class VelhaParser {
 			"p0", "p1", "p2", "p3", "p4", "p5", "p6", "p7", "p8"
 	};
 	
+	/** Schema que valida o XML, compilado uma unica vez (null se o
+	 *  arquivo nao foi encontrado ou tem erros). */
+	private static final Schema SCHEMA = compilarSchema(SCHEMA_FILENAME);
+
+	/** Fabrica de DocumentBuilder, compartilhada pelas threads. */
+	private static final DocumentBuilderFactory DOC_BUILDER_FACTORY =
+		DocumentBuilderFactory.newInstance();
+	
+	/** Fabrica de Transformer, compartilhada pelas threads. */
+	private static final TransformerFactory TRANSFORMER_FACTORY =
+		TransformerFactory.newInstance();
+
+	/** DocumentBuilder de cada thread (null se houve erro). */
+	private static final ThreadLocal<DocumentBuilder> DOC_BUILDER =
+		new ThreadLocal<DocumentBuilder>() {
+			@Override
+			protected DocumentBuilder initialValue() {
+				try {
+					/* a fabrica nao e' thread-safe */
+					synchronized (DOC_BUILDER_FACTORY) {
+						return DOC_BUILDER_FACTORY.newDocumentBuilder();
+					}
+				} catch (Exception e) {
+					if (DEBUG_ENABLED) e.printStackTrace(); 
+					return null;
+				}
+			}
+		};
+
+	/** Validator de cada thread (null se nao ha' schema). */
+	private static final ThreadLocal<Validator> VALIDATOR =
+		new ThreadLocal<Validator>() {
+			@Override
+			protected Validator initialValue() {
+				return (SCHEMA != null) ? SCHEMA.newValidator() : null;
+			}
+		};
+
+	/** Transformer de cada thread (null se houve erro). */
+	private static final ThreadLocal<Transformer> TRANSFORMER =
+		new ThreadLocal<Transformer>() {
+			@Override
+			protected Transformer initialValue() {
+				try {
+					Transformer trans;
+					/* a fabrica nao e' thread-safe */
+					synchronized (TRANSFORMER_FACTORY) {
+						trans = TRANSFORMER_FACTORY.newTransformer();
+					}
+					trans.setOutputProperty(OutputKeys.INDENT, "no");
+					trans.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+					return trans;
+				} catch (Exception e) {
+					if (DEBUG_ENABLED) e.printStackTrace(); 
+					return null;
+				}
+			}
+		};
+	
 	/**
 	 * Retorna um objeto @ref VelhaBean a partir de uma string contendo XML.
 	 * @param xmlContent String com o conteudo do XML
@@ -57,9 +121,9 @@ public class VelhaParser {
 			InputStream iStream =
 				new ByteArrayInputStream(xmlContent.getBytes("UTF-8"));
 			
-	        /* instancia um DocumentBuilder e cria um documento */
-			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-	        DocumentBuilder docBuilder = dbf.newDocumentBuilder();
+	        /* usa o DocumentBuilder da thread e cria um documento */
+	        DocumentBuilder docBuilder = getDocumentBuilder();
+	        if (docBuilder == null) return null;
 			doc = docBuilder.parse(iStream);
 
 		} catch (Exception e) {
@@ -68,7 +132,7 @@ public class VelhaParser {
 		}
 		
 		/* valida o XML na arvore DOM */
-		if (!validateXML(doc, SCHEMA_FILENAME)) {
+		if (!validateXML(doc)) {
 			return null;
 		}
 		
@@ -131,9 +195,9 @@ public class VelhaParser {
 
 		Document doc = null;
 		try {
-			/* instancia um DocumentBuilder e cria um documento */
-			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-			DocumentBuilder docBuilder = dbf.newDocumentBuilder();
+			/* usa o DocumentBuilder da thread e cria um documento */
+			DocumentBuilder docBuilder = getDocumentBuilder();
+			if (docBuilder == null) return null;
 			doc = docBuilder.newDocument();
 
 		} catch (Exception e) {
@@ -180,7 +244,7 @@ public class VelhaParser {
         }
 
 		/* valida o XML na arvore DOM */
-		if (!validateXML(doc, SCHEMA_FILENAME)) {
+		if (!validateXML(doc)) {
 			return null;
 		}
         
@@ -215,19 +279,16 @@ public class VelhaParser {
 	}
 
 	/**
-	 * Valida um XML contido numa arvore DOM a partir de um arquivo de schema.
+	 * Valida um XML contido numa arvore DOM com o schema @ref SCHEMA.
 	 * @param doc Objeto Document contendo a arvore DOM
-	 * @param schemaFileName Nome do arquivo de schema (XSD)
 	 * @return True se validado, false se houve erro de validacao.
 	 */
-	private boolean validateXML(Document doc, String schemaFileName) {
+	private boolean validateXML(Document doc) {
+		Validator validator = VALIDATOR.get();
+		if (validator == null) return false;
 		try {
 			/* faz validacao do XML com base no schema */
-			String language = XMLConstants.W3C_XML_SCHEMA_NS_URI;
-			SchemaFactory factory = SchemaFactory.newInstance(language);
-			Schema schema =
-				factory.newSchema(getClass().getResource(schemaFileName));
-			Validator validator = schema.newValidator();
+			validator.reset();
 			validator.validate(new DOMSource(doc));
 			return true;
 			
@@ -244,11 +305,9 @@ public class VelhaParser {
 	 */
 	private String domToString(Document doc) {
 		try {
-			/* instancia um transformer */
-	        TransformerFactory transfac = TransformerFactory.newInstance();
-	        Transformer trans = transfac.newTransformer();
-	        trans.setOutputProperty(OutputKeys.INDENT, "no");
-	        trans.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+			/* usa o transformer da thread */
+	        Transformer trans = TRANSFORMER.get();
+	        if (trans == null) return null;
 
 	        /* cria uma string a partir da arvore DOM */
 	        StringWriter strWriter = new StringWriter();
@@ -262,4 +321,36 @@ public class VelhaParser {
 			return null;
 		}
 	}
+
+	/**
+	 * Retorna o DocumentBuilder da thread, pronto para ser usado.
+	 * @return DocumentBuilder, ou null se houve erro na sua criacao.
+	 */
+	private DocumentBuilder getDocumentBuilder() {
+		DocumentBuilder docBuilder = DOC_BUILDER.get();
+		if (docBuilder != null) {
+			/* descarta o estado deixado por um parse anterior com erro */
+			docBuilder.reset();
+		}
+		return docBuilder;
+	}
+
+	/**
+	 * Compila o schema que valida o XML.
+	 * @param schemaFileName Nome do arquivo de schema (XSD) no classpath
+	 * @return Schema compilado, ou null se houve erro.
+	 */
+	private static Schema compilarSchema(String schemaFileName) {
+		try {
+			URL url = VelhaParser.class.getResource(schemaFileName);
+			if (url == null) return null;
+			String language = XMLConstants.W3C_XML_SCHEMA_NS_URI;
+			SchemaFactory factory = SchemaFactory.newInstance(language);
+			return factory.newSchema(url);
+			
+		} catch (Exception e) {
+			if (DEBUG_ENABLED) e.printStackTrace(); 
+			return null;
+		}
+	}
 }
@@ -0,0 +1,825 @@
+package velha;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.IoFutureListener;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+
+/**
+ * Classe que representa uma partida do Jogo da Velha entre dois clientes.
+ * Cada partida tem o seu tabuleiro, os seus jogadores e o jogador da vez,
+ * independentes das demais partidas do servidor. As partidas sao criadas
+ * e pareadas pelo @ref VelhaLobby; a sessao de cada jogador guarda o seu
+ * lugar na partida (@ref VelhaLugar), e cada evento ja' chega com o indice
+ * do jogador (0 ou 1).
+ * Os eventos de uma partida (entrada, saida e mensagens dos jogadores)
+ * sao executados um de cada vez, na ordem de chegada, na fila da partida
+ * (@ref VelhaFilaSerial); so' as tarefas da fila acessam o estado da
+ * partida. Partidas diferentes executam em paralelo, sem lock global.
+ * O lugar vazio de uma partida aguardando pode ser ocupado pelo robot
+ * (@ref VelhaRobo): depois do tempo de espera, ou quando o jogador
+ * sozinho faz o pedido binario @ref VelhaProtocolo.TIPO_ROBO. Outras
+ * mensagens do jogador sozinho sao ignoradas. O lugar do robot nao tem
+ * sessao; as
+ * jogadas dele sao calculadas no executor do robot e voltam para a fila
+ * da partida como os eventos dos jogadores.
+ * A partida tambem pode ter espectadores (sessoes binarias que pediram
+ * @ref VelhaProtocolo.TIPO_ESPECTADOR). Cada mudanca do jogo e'
+ * codificada uma unica vez em um buffer somente leitura, escrito em
+ * todos os espectadores (um duplicate por sessao, sem copiar os bytes).
+ * Um espectador lento (com mais de @ref limiteEspectador bytes
+ * aguardando envio) deixa de receber as mensagens intermediarias: como
+ * cada mensagem e' o estado completo, ele volta a ficar em dia na
+ * primeira mensagem depois de esvaziar a fila. Um espectador que nao
+ * esvazia a fila e' desconectado; assim os espectadores nunca atrasam
+ * os jogadores.
+ */
+public class VelhaPartida {
+
+	/** Atributo da sessao de um espectador com a partida assistida. */
+	static final AttributeKey ATRIBUTO_ASSISTINDO =
+		new AttributeKey(VelhaPartida.class, "assistindo");
+	/** Multiplo de @ref limiteEspectador a partir do qual o espectador
+	 *  e' desconectado. */
+	private static final int DESCARTE_ESPECTADOR = 16;
+
+	/** Identificador da partida no @ref VelhaLobby. */
+	private final long id;
+	/** Lobby que criou a partida. */
+	private final VelhaLobby lobby;
+	/** Fila dos eventos da partida. */
+	private final VelhaFilaSerial fila;
+
+	/** Sessoes dos jogadores, por indice (null se o lugar esta' vazio) */
+	private final IoSession sessoes[] = new IoSession[2];
+	/** Ids dos jogadores, por indice */
+	private final char ids[] = {
+			VelhaEngine.JOGADOR_VAZIO, VelhaEngine.JOGADOR_VAZIO
+	};
+	/** Numero de jogadores conectados - 0, 1 ou 2 */
+	private int numJogadores = 0;
+
+	/** Indice do jogador da vez - -1, 0 ou 1 */
+	private int jogadorDaVez = -1;
+
+	/** Ultima jogada feita no tabuleiro, ou -1 se nenhuma. */
+	private int ultimaJogada = -1;
+
+	/** Indica se a partida acabou (game over ou saida de um jogador);
+	 *  uma partida encerrada nao recebe mais jogadores. */
+	private boolean encerrada = false;
+
+	/** Robot do servidor, ou null se o servidor nao tem robot. */
+	private final VelhaRobo robo;
+	/** Indice do lugar ocupado pelo robot, ou -1 se nenhum. */
+	private int indiceRobo = -1;
+	/** Engine do robot (usado pelo executor do robot durante o calculo
+	 *  de uma jogada), ou null se o robot nao esta' na partida. */
+	private VelhaEngine engineRobo = null;
+	/** Espera pelo oponente antes de chamar o robot, ou null. */
+	private ScheduledFuture<?> esperaRobo = null;
+
+	/** Sessoes dos espectadores. */
+	private final List<IoSession> espectadores = new ArrayList<IoSession>();
+	/** Bytes aguardando envio a partir dos quais o espectador deixa de
+	 *  receber as mensagens intermediarias. */
+	private final int limiteEspectador;
+
+	/** Logica do Jogo da Velha. */
+	private VelhaEngine velhaEngine = new VelhaEngine();
+	/** Parser de XML do Jogo da Velha. */
+	private final VelhaCodec velhaParser;
+	/** Indica se as sessoes binarias recebem @ref VelhaBean (codec
+	 *  @ref VelhaCodecFactory). */
+	private final boolean enviarBeans;
+	/** Cache das mensagens XML de status. */
+	private final VelhaCacheMensagens cacheMensagens;
+	/** Bean (POJO) com a representacao do XML do Jogo da Velha. */
+	private VelhaBean   velhaBean   = new VelhaBean();
+	/** Sorteio do Id e do jogador que inicia. */
+	private final Random random = new Random();
+
+	/**
+	 * Construtor.
+	 * @param id Identificador da partida
+	 * @param lobby Lobby que criou a partida (avisado quando ela encerra)
+	 * @param velhaParser Parser de XML usado nas mensagens recebidas como
+	 *   String
+	 * @param enviarBeans True se as sessoes binarias recebem
+	 *   @ref VelhaBean
+	 * @param cacheMensagens Cache das mensagens XML de status
+	 * @param executor Executor dos eventos (compartilhado entre as
+	 *   partidas), ou null para executar na thread de I/O
+	 * @param robo Robot que ocupa o lugar vazio, ou null para so' parear
+	 *   clientes
+	 * @param limiteEspectador Bytes aguardando envio a partir dos quais
+	 *   um espectador deixa de receber as mensagens intermediarias
+	 */
+	VelhaPartida(long id, VelhaLobby lobby, VelhaCodec velhaParser,
+			boolean enviarBeans, VelhaCacheMensagens cacheMensagens,
+			Executor executor, VelhaRobo robo, int limiteEspectador) {
+		this.id = id;
+		this.robo = robo;
+		this.limiteEspectador = limiteEspectador;
+		this.lobby = lobby;
+		this.fila = new VelhaFilaSerial(executor);
+		this.velhaParser = velhaParser;
+		this.enviarBeans = enviarBeans;
+		this.cacheMensagens = cacheMensagens;
+	}
+
+	/**
+	 * Retorna o identificador da partida.
+	 * @return Identificador unico no @ref VelhaLobby.
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Coloca um jogador na partida (evento executado na fila). Se a
+	 * partida encerrou antes (o outro jogador ja' saiu), o jogador volta
+	 * ao lobby.
+	 * @param session Sessao do cliente, com o atributo
+	 *   @ref VelhaLugar.ATRIBUTO apontando para esta partida
+	 * @param indice Indice do jogador (0 ou 1)
+	 */
+	void entrar(final IoSession session, final int indice) {
+		fila.execute(new Runnable() {
+			public void run() {
+				/* a sessao pode ter virado espectador antes de sentar */
+				if (VelhaLugar.getLugar(session) == null) return;
+				if (!sentar(session, indice) && session.isConnected()) {
+					lobby.entrar(session);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Retira um jogador que desconectou (evento executado na fila).
+	 * @param session Sessao do cliente
+	 * @param indice Indice do jogador (0 ou 1)
+	 */
+	void sair(final IoSession session, final int indice) {
+		fila.execute(new Runnable() {
+			public void run() {
+				if (!retirar(session, indice)) {
+					/* o jogador nao sentou aqui e voltou ao lobby: avisa
+					 * a partida em que ele esta' agora */
+					VelhaLugar lugar = VelhaLugar.getLugar(session);
+					if (lugar != null
+							&& lugar.getPartida() != VelhaPartida.this) {
+						lugar.getPartida().sair(session, lugar.getIndice());
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Processa uma mensagem recebida (evento executado na fila).
+	 * @param session Sessao do cliente que enviou a mensagem
+	 * @param indice Indice do jogador (0 ou 1)
+	 * @param message Mensagem em formato texto ou @ref VelhaBean
+	 */
+	void processarMensagem(final IoSession session, final int indice,
+			final Object message) {
+		final long inicio = System.nanoTime();
+		fila.execute(new Runnable() {
+			public void run() {
+				processar(session, indice, message);
+				VelhaMetricas.PROCESSAMENTO.registrar(inicio);
+			}
+		});
+	}
+
+	/**
+	 * Reenvia ao cliente o status atual do jogo (evento executado na
+	 * fila). Usado depois do handshake do protocolo binario, pois o status
+	 * ja' enviado foi em XML, e nos pedidos de reenvio do modo delta.
+	 * @param session Sessao do cliente
+	 * @param indice Indice do jogador (0 ou 1)
+	 */
+	void reenviarStatusJogo(final IoSession session, final int indice) {
+		fila.execute(new Runnable() {
+			public void run() {
+				if (sessoes[indice] != session) return;
+				enviarStatusJogo(indice, (jogadorDaVez == indice)
+						? VelhaEngine.STATUS_JOGUE : VelhaEngine.STATUS_AGUARDE);
+			}
+		});
+	}
+
+	/**
+	 * Pede o robot como oponente (evento executado na fila). So' tem
+	 * efeito se o jogador esta' sozinho na partida aguardando.
+	 * @param session Sessao do cliente
+	 * @param indice Indice do jogador (0 ou 1)
+	 * @param nivel Nivel do robot (0 a 10)
+	 */
+	void pedirRobo(final IoSession session, final int indice,
+			final int nivel) {
+		fila.execute(new Runnable() {
+			public void run() {
+				if (sessoes[indice] == session) sentarRobo(nivel);
+			}
+		});
+	}
+
+	/**
+	 * Deixa o lugar na partida para assistir outra (evento executado na
+	 * fila). Se o jogo ainda nao teve jogadas, o oponente volta ao lobby
+	 * em vez de ganhar por WO, e os espectadores recebem como ultima
+	 * mensagem o oponente aguardando antes de serem desconectados.
+	 * @param session Sessao do cliente
+	 * @param indice Indice do jogador (0 ou 1)
+	 */
+	void liberar(final IoSession session, final int indice) {
+		fila.execute(new Runnable() {
+			public void run() {
+				if (sessoes[indice] != session) return;
+				IoSession oponente = sessoes[1 - indice];
+				if (numJogadores == 2 && !encerrada && ultimaJogada < 0
+						&& oponente != null) {
+					transmitir(ids[1 - indice], VelhaEngine.STATUS_AGUARDE,
+							true);
+					sessoes[0] = null;
+					sessoes[1] = null;
+					numJogadores = 0;
+					encerrar();
+					if (oponente.isConnected()) {
+						/* na nova partida o Id pode mudar, e o delta nao
+						 * leva o Id: a primeira mensagem deve ser o estado
+						 * completo */
+						oponente.setAttribute(VelhaProtocolo.ATRIBUTO_REENVIO,
+								Boolean.TRUE);
+						lobby.entrar(oponente);
+					}
+				} else {
+					retirar(session, indice);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Coloca um espectador na partida (evento executado na fila). O
+	 * espectador recebe o estado atual e depois cada mudanca. Se a
+	 * partida ja' encerrou, a conexao e' fechada.
+	 * @param session Sessao do cliente, com o atributo
+	 *   @ref ATRIBUTO_ASSISTINDO apontando para esta partida
+	 */
+	void assistir(final IoSession session) {
+		fila.execute(new Runnable() {
+			public void run() {
+				if (encerrada || numJogadores == 0) {
+					session.close(true);
+					return;
+				}
+				espectadores.add(session);
+				/* estado atual, so' para o novo espectador */
+				int vez = (jogadorDaVez >= 0) ? jogadorDaVez
+						: (sessoes[0] != null) ? 0 : 1;
+				session.write(criarMensagemEspectador(ids[vez],
+						(jogadorDaVez >= 0) ? VelhaEngine.STATUS_JOGUE
+								: VelhaEngine.STATUS_AGUARDE));
+			}
+		});
+	}
+
+	/**
+	 * Retira um espectador que desconectou ou foi assistir outra partida
+	 * (evento executado na fila).
+	 * @param session Sessao do espectador
+	 */
+	void deixarDeAssistir(final IoSession session) {
+		fila.execute(new Runnable() {
+			public void run() {
+				espectadores.remove(session);
+			}
+		});
+	}
+
+	/**
+	 * Coloca um jogador na partida. O primeiro jogador recebe um Id
+	 * sorteado e aguarda; o segundo recebe o outro Id e o jogo comeca.
+	 * @param session Sessao do cliente
+	 * @param indice Indice do jogador (0 ou 1)
+	 * @return True se o jogador entrou, false se a partida esta' encerrada
+	 *   ou o lugar esta' ocupado pelo robot.
+	 */
+	private boolean sentar(IoSession session, int indice) {
+
+		if (encerrada || sessoes[indice] != null || indice == indiceRobo) {
+			return false;
+		}
+
+		/* guarda a referencia da sessao */
+		sessoes[indice] = session;
+		configurarId(indice);
+
+		if (VelhaLog.isAtivo(VelhaLog.INFO)) {
+			VelhaLog.evento(VelhaLog.INFO, VelhaLog.CONECTOU, id, ids[indice],
+					indice, session.getRemoteAddress());
+		}
+
+		/* envia um XML ao cliente, com status AGUARDE */
+		enviarStatusJogo(indice, VelhaEngine.STATUS_AGUARDE);
+
+		if (numJogadores == 1 && robo != null) {
+			/* aguarda o oponente; sem oponente, chama o robot */
+			esperaRobo = robo.agendarEspera(new Runnable() {
+				public void run() {
+					fila.execute(new Runnable() {
+						public void run() {
+							sentarRobo(robo.getNivel());
+						}
+					});
+				}
+			});
+		}
+		iniciarJogo();
+		return true;
+	}
+
+	/**
+	 * Coloca o robot no lugar vazio da partida aguardando, retirando a
+	 * partida do @ref VelhaLobby.
+	 * @param nivel Nivel do robot (0 a 10)
+	 * @return True se o robot entrou, false se a partida nao esta'
+	 *   aguardando (o oponente ja' chegou ou a partida encerrou).
+	 */
+	private boolean sentarRobo(int nivel) {
+
+		if (robo == null || encerrada || numJogadores != 1
+				|| indiceRobo >= 0) {
+			return false;
+		}
+		/* um cliente que ja' pegou a partida no lobby tem prioridade */
+		if (!lobby.retirarAguardando(this)) return false;
+
+		indiceRobo = (sessoes[0] == null) ? 0 : 1;
+		engineRobo = new VelhaEngine();
+		engineRobo.setNivel(nivel);
+		configurarId(indiceRobo);
+
+		if (VelhaLog.isAtivo(VelhaLog.INFO)) {
+			VelhaLog.evento(VelhaLog.INFO, VelhaLog.CONECTOU, id,
+					ids[indiceRobo], indiceRobo, "robo nivel " + nivel);
+		}
+		iniciarJogo();
+		return true;
+	}
+
+	/**
+	 * Configura o Id de um jogador que entrou: sorteado para o primeiro,
+	 * o oposto do oponente para o segundo.
+	 * @param indice Indice do jogador (0 ou 1)
+	 */
+	private void configurarId(int indice) {
+		char idOponente = ids[1 - indice];
+		if (idOponente == VelhaEngine.JOGADOR_VAZIO) {
+			/* sorteia um Id de jogador (X ou O) */
+			ids[indice] = (random.nextInt(2) == 0)
+					? VelhaEngine.JOGADOR_X : VelhaEngine.JOGADOR_O;
+		} else {
+			ids[indice] = VelhaEngine.getOponente(idOponente);
+		}
+		numJogadores++;
+	}
+
+	/**
+	 * Comeca o jogo, se os dois lugares estao ocupados.
+	 */
+	private void iniciarJogo() {
+
+		if (numJogadores == 2) { /* entrou o segundo jogador */
+			cancelarEsperaRobo();
+
+			/* sorteia quem comeca o jogo */
+			jogadorDaVez = random.nextInt(2);
+
+			if (VelhaLog.isAtivo(VelhaLog.INFO)) {
+				VelhaLog.evento(VelhaLog.INFO, VelhaLog.INICIO, id,
+						ids[jogadorDaVez], VelhaLog.NENHUM, null);
+			}
+
+			/* envia um XML ao cliente, com status JOGUE */
+			enviarStatusJogo(jogadorDaVez, VelhaEngine.STATUS_JOGUE);
+			transmitir(ids[jogadorDaVez], VelhaEngine.STATUS_JOGUE, false);
+		}
+	}
+
+	/**
+	 * Cancela a espera pelo oponente, se houver.
+	 */
+	private void cancelarEsperaRobo() {
+		if (esperaRobo != null) {
+			esperaRobo.cancel(false);
+			esperaRobo = null;
+		}
+	}
+
+	/**
+	 * Retira um jogador que desconectou. Se o outro jogador ainda esta'
+	 * no jogo, ele ganha por WO e e' desconectado. A partida e' encerrada.
+	 * @param session Sessao do cliente
+	 * @param indice Indice do jogador (0 ou 1)
+	 * @return True se o jogador estava na partida, false se nao.
+	 */
+	private boolean retirar(IoSession session, int indice) {
+
+		if (sessoes[indice] != session) return false;
+
+		sessoes[indice] = null;
+		numJogadores--;
+
+		if (VelhaLog.isAtivo(VelhaLog.INFO)) {
+			VelhaLog.evento(VelhaLog.INFO, VelhaLog.DESCONECTOU, id,
+					ids[indice], indice, session.getRemoteAddress());
+		}
+
+		/* um jogador saiu mas ficou o outro, com o jogo em andamento */
+		int outro = 1 - indice;
+		if (numJogadores == 1 && !encerrada) {
+			VelhaMetricas.abandono();
+			if (VelhaLog.isAtivo(VelhaLog.INFO)) {
+				VelhaLog.evento(VelhaLog.INFO, VelhaLog.FIM, id, ids[outro],
+						VelhaLog.NENHUM, VelhaEngine.STATUS_WO);
+			}
+			/* envia um XML ao cliente, com status WO */
+			enviarStatusJogo(outro, VelhaEngine.STATUS_WO);
+			transmitir(ids[outro], VelhaEngine.STATUS_WO, true);
+			/* fecha a conexao */
+			fechar(outro);
+		}
+
+		encerrar();
+		return true;
+	}
+
+	/**
+	 * Marca a partida como encerrada e a retira do @ref VelhaLobby.
+	 */
+	private void encerrar() {
+		if (!encerrada) {
+			encerrada = true;
+			jogadorDaVez = -1;
+			lobby.remover(this);
+			cancelarEsperaRobo();
+			/* os espectadores saem depois de receber o que ja' foi escrito */
+			for (IoSession espectador : espectadores) {
+				espectador.close(false);
+			}
+			espectadores.clear();
+			VelhaMetricas.partidaEncerrada();
+		}
+	}
+
+	/**
+	 * Fecha a conexao de um jogador (o robot nao tem conexao).
+	 * @param indice Indice do jogador (0 ou 1)
+	 */
+	private void fechar(int indice) {
+		if (sessoes[indice] != null) sessoes[indice].close(true);
+	}
+
+	/**
+	 * Processa uma mensagem recebida, realizando as acoes correspondentes.
+	 * @param session Sessao do cliente que enviou a mensagem
+	 * @param indice Indice do jogador (0 ou 1)
+	 * @param message Mensagem em formato texto ou @ref VelhaBean
+	 */
+	private void processar(IoSession session, int indice, Object message) {
+
+		/* se nao tem 2 jogadores conectados, ignora mensagem */
+		if (numJogadores != 2) { return; }
+		/* se e' a vez de nenhum jogador, ignora mensagem */
+		if (jogadorDaVez != 0 && jogadorDaVez != 1) { return; }
+		/* se o jogador nao esta' sentado neste lugar, ignora mensagem */
+		if (sessoes[indice] != session) { return; }
+
+		if (VelhaLog.isAtivo(VelhaLog.TRACE)) {
+			VelhaLog.evento(VelhaLog.TRACE, VelhaLog.RECEBIDA, id, ids[indice],
+					VelhaLog.NENHUM, message);
+		}
+
+		/* verifica se jogador esta' na vez certa */
+		if (jogadorDaVez == indice) {
+			/* ok, jogador na vez certa */
+
+			/* converte o XML da mensagem para um objeto VelhaBean */
+			VelhaBean tempBean;
+			if (message instanceof VelhaBean) {
+				tempBean = (VelhaBean) message;
+			} else {
+				long inicio = System.nanoTime();
+				tempBean = velhaParser.getVelhaBean(message.toString());
+				VelhaMetricas.PARSE.registrar(inicio);
+			}
+
+			/* verifica objeto VelhaBean gerado a partir do XML */
+			if (verificarVelhaBean(tempBean)) {
+				/* se nao houve erros, executa as acoes */
+				executarAcaoJogada(tempBean);
+
+			} else {
+				/* se houve erro, reenvia o XML ao cliente */
+				if (VelhaLog.isAtivo(VelhaLog.DEBUG)) {
+					VelhaLog.evento(VelhaLog.DEBUG, VelhaLog.MENSAGEM_INVALIDA,
+							id, ids[indice], VelhaLog.NENHUM, null);
+				}
+
+				/* envia um XML ao cliente, com status JOGUE */
+				enviarStatusJogo(indice, VelhaEngine.STATUS_JOGUE);
+			}
+
+		} else {
+			/* errado! nao e' a vez desse jogador */
+			VelhaMetricas.rejeicao(VelhaMetricas.REJEICAO_VEZ_ERRADA);
+			/* reenvia o XML ao cliente */
+			if (VelhaLog.isAtivo(VelhaLog.DEBUG)) {
+				VelhaLog.evento(VelhaLog.DEBUG, VelhaLog.VEZ_ERRADA, id,
+						ids[indice], VelhaLog.NENHUM, null);
+			}
+
+			/* envia um XML ao cliente, com status AGUARDE */
+			enviarStatusJogo(indice, VelhaEngine.STATUS_AGUARDE);
+		}
+	}
+
+	/**
+	 * Envia um XML ao cliente, com o status especificado.
+	 * @param indice Indice do jogador (0 ou 1)
+	 * @param status Status a ser preenchido no XML
+	 */
+	private void enviarStatusJogo(int indice, String status) {
+
+		if (indice == indiceRobo) {
+			/* o robot nao recebe mensagens: na vez dele, calcula a jogada */
+			if (VelhaEngine.STATUS_JOGUE.equals(status)) calcularJogadaRobo();
+			return;
+		}
+
+		IoSession session = sessoes[indice];
+		char idJogador = ids[indice];
+
+		/* configura o bean que representa o XML */
+		velhaBean.setId(idJogador);
+		velhaBean.setStatus(status);
+		velhaBean.setJogada(-1);
+		velhaBean.copiarTabuleiro(velhaEngine.getTabuleiro());
+
+		Object mensagem;
+		VelhaProtocolo protocolo = enviarBeans
+				? VelhaProtocolo.getProtocolo(session) : null;
+		if (protocolo != null) {
+			/* sessao binaria: o codec recebe uma copia do bean, pois o
+			 * bean da partida e' reaproveitado */
+			VelhaBean bean = new VelhaBean();
+			bean.setId(idJogador);
+			bean.setStatus(status);
+			bean.copiarTabuleiro(velhaBean.getTabuleiro());
+			if (protocolo.isCapacidade(VelhaProtocolo.CAPACIDADE_DELTA)) {
+				/* no modo delta o cliente recebe so' a ultima jogada */
+				bean.setJogada(ultimaJogada);
+			}
+			mensagem = bean;
+		} else {
+			/* sessao XML: mensagem pronta do cache */
+			mensagem = cacheMensagens.getMensagem(
+					velhaEngine.getMascara(VelhaEngine.JOGADOR_X),
+					velhaEngine.getMascara(VelhaEngine.JOGADOR_O),
+					idJogador, status);
+		}
+
+		/* envia a mensagem ao cliente */
+		if (mensagem != null && session.isConnected()) {
+
+			if (VelhaLog.isAtivo(VelhaLog.TRACE)) {
+				/* o log le uma copia do buffer, que o MINA consome */
+				VelhaLog.evento(VelhaLog.TRACE, VelhaLog.ENVIADA, id,
+						idJogador, VelhaLog.NENHUM,
+						(mensagem instanceof IoBuffer)
+							? ((IoBuffer) mensagem).duplicate() : mensagem);
+			}
+
+			final long inicio = System.nanoTime();
+			session.write(mensagem).addListener(
+					new IoFutureListener<WriteFuture>() {
+				public void operationComplete(WriteFuture future) {
+					if (future.isWritten()) {
+						VelhaMetricas.ESCRITA.registrar(inicio);
+					}
+				}
+			});
+		}
+
+	}
+
+	/**
+	 * Executa as acoes da jogada.
+	 * @param velha Objeto VelhaBean
+	 */
+	private void executarAcaoJogada(VelhaBean velha) {
+
+		/* indices dos jogadores */
+		int jogadorVez     = jogadorDaVez;
+		int jogadorProximo = 1 - jogadorDaVez;
+
+		/* status dos jogadores */
+		String statusVez  = VelhaEngine.STATUS_AGUARDE;
+		String statusProx = VelhaEngine.STATUS_JOGUE;
+
+		/* registra jogada */
+		long inicio = System.nanoTime();
+		velhaEngine.setPosicao(velha.getJogada(), velha.getId());
+		ultimaJogada = velha.getJogada();
+		VelhaMetricas.jogada();
+
+		if (VelhaLog.isAtivo(VelhaLog.DEBUG)) {
+			VelhaLog.evento(VelhaLog.DEBUG, VelhaLog.JOGADA, id,
+					ids[jogadorVez], velha.getJogada(), null);
+		}
+
+		/* verifica se houve empate */
+		if (velhaEngine.isEmpate()) {
+			/* status dos jogadores */
+			statusVez  = VelhaEngine.STATUS_EMPATE;
+			statusProx = VelhaEngine.STATUS_EMPATE;
+
+		/* verifica se jogador da vez ganhou */
+		} else if (velhaEngine.isGanhador(ids[jogadorVez])) {
+			/* status dos jogadores */
+			statusVez  = VelhaEngine.STATUS_GANHOU;
+			statusProx = VelhaEngine.STATUS_PERDEU;
+		}
+		VelhaMetricas.ENGINE.registrar(inicio);
+
+		/* configura proximo jogador */
+		jogadorDaVez = jogadorProximo;
+
+		/* envia um XML ao cliente (jogador da vez) */
+		enviarStatusJogo(jogadorVez, statusVez);
+		/* envia um XML ao cliente (proximo jogador) */
+		enviarStatusJogo(jogadorProximo, statusProx);
+		/* envia o estado aos espectadores: o proximo jogador, ou o
+		 * resultado do jogador que fez a ultima jogada */
+		if (velhaEngine.isGameOver()) {
+			transmitir(ids[jogadorVez], statusVez, true);
+		} else {
+			transmitir(ids[jogadorProximo], statusProx, false);
+		}
+
+		/* verifica se jogo encerrou (game over) */
+		if (velhaEngine.isGameOver()) {
+			/* o jogo acabou: ninguem ganha por WO ao desconectar */
+			encerrar();
+			/* fecha conexoes dos clientes */
+			fechar(jogadorVez);
+			fechar(jogadorProximo);
+
+			if (VelhaLog.isAtivo(VelhaLog.INFO)) {
+				VelhaLog.evento(VelhaLog.INFO, VelhaLog.FIM, id,
+						ids[jogadorVez], VelhaLog.NENHUM, statusVez);
+			}
+		}
+	}
+
+	/**
+	 * Cria a mensagem dos espectadores com o estado atual do tabuleiro.
+	 * @param idJogador Id do jogador da mensagem
+	 * @param status Status do jogador
+	 * @return Buffer somente leitura com a mensagem
+	 *   @ref VelhaProtocolo.TIPO_ESTADO.
+	 */
+	private IoBuffer criarMensagemEspectador(char idJogador, String status) {
+		VelhaBean estado = new VelhaBean();
+		estado.setId(idJogador);
+		estado.setStatus(status);
+		estado.setJogada(ultimaJogada);
+		estado.copiarTabuleiro(velhaEngine.getTabuleiro());
+		return VelhaProtocolo.criarMensagemEstado(
+				VelhaProtocolo.codificarEstado(estado)).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Envia o estado atual a todos os espectadores. A mensagem e'
+	 * codificada uma vez; cada espectador recebe um duplicate do mesmo
+	 * buffer. Os espectadores lentos sao pulados ou desconectados.
+	 * @param idJogador Id do jogador da mensagem
+	 * @param status Status do jogador
+	 * @param fim True se e' a ultima mensagem da partida (enviada mesmo
+	 *   aos espectadores lentos)
+	 */
+	private void transmitir(char idJogador, String status, boolean fim) {
+		if (espectadores.isEmpty()) return;
+		IoBuffer mensagem = criarMensagemEspectador(idJogador, status);
+		Iterator<IoSession> it = espectadores.iterator();
+		while (it.hasNext()) {
+			IoSession espectador = it.next();
+			long pendentes = espectador.getScheduledWriteBytes();
+			if (pendentes > (long) limiteEspectador * DESCARTE_ESPECTADOR) {
+				/* nao esvazia a fila: desconecta */
+				it.remove();
+				espectador.close(true);
+				continue;
+			}
+			if (pendentes > limiteEspectador && !fim) {
+				/* atrasado: recebe o proximo estado completo */
+				continue;
+			}
+			espectador.write(mensagem.duplicate());
+		}
+	}
+
+	/**
+	 * Calcula a jogada do robot no executor do robot. A jogada volta para
+	 * a fila da partida (@ref jogarRobo). Com o executor cheio, o robot
+	 * joga na primeira posicao livre, sem calculo.
+	 */
+	private void calcularJogadaRobo() {
+		/* so' ha' um calculo por vez: o robot so' joga na sua vez */
+		engineRobo.copiarTabuleiro(velhaEngine.getTabuleiro());
+		final VelhaEngine engine = engineRobo;
+		final char idRobo = ids[indiceRobo];
+		try {
+			robo.calcular(new Runnable() {
+				public void run() {
+					jogarRoboNaFila(engine.getJogada(idRobo));
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			jogarRoboNaFila(Integer.numberOfTrailingZeros(
+					velhaEngine.getJogadasLivres()));
+		}
+	}
+
+	/**
+	 * Coloca a jogada do robot na fila da partida.
+	 * @param jogada Posicao da jogada
+	 */
+	private void jogarRoboNaFila(final int jogada) {
+		fila.execute(new Runnable() {
+			public void run() {
+				jogarRobo(jogada);
+			}
+		});
+	}
+
+	/**
+	 * Executa a jogada do robot, se ainda e' a vez dele.
+	 * @param jogada Posicao da jogada
+	 */
+	private void jogarRobo(int jogada) {
+		if (encerrada || jogadorDaVez != indiceRobo) return;
+		VelhaBean jogadaRobo = new VelhaBean();
+		jogadaRobo.setId(ids[indiceRobo]);
+		jogadaRobo.setJogada(jogada);
+		if (verificarVelhaBean(jogadaRobo)) {
+			executarAcaoJogada(jogadaRobo);
+		}
+	}
+
+	/**
+	 * Verifica se um objeto VelhaBean e' valido.
+	 * @param velha Objeto VelhaBean
+	 * @return True se objeto e' valido, false se nao.
+	 */
+	private boolean verificarVelhaBean(VelhaBean velha) {
+
+		/* problema de conversao do XML */
+		if (velha == null) {
+			VelhaMetricas.rejeicao(VelhaMetricas.REJEICAO_XML_INVALIDO);
+			return false;
+		}
+
+		/* verifica se Id do jogador esta' certo no XML */
+		if (velha.getId() != ids[jogadorDaVez]) {
+			VelhaMetricas.rejeicao(VelhaMetricas.REJEICAO_ID_ERRADO);
+			return false;
+		}
+
+		/* verifica se jogada e' valida */
+		int jogada = velha.getJogada();
+		if (jogada < 0 || jogada > 8) {
+			VelhaMetricas.rejeicao(VelhaMetricas.REJEICAO_JOGADA_INVALIDA);
+			return false;
+		}
+		if (velhaEngine.getPosicao(jogada) != VelhaEngine.JOGADOR_VAZIO) {
+			VelhaMetricas.rejeicao(VelhaMetricas.REJEICAO_POSICAO_OCUPADA);
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,296 @@
+package velha;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+
+/**
+ * Protocolo binario do Jogo da Velha, negociado por sessao.
+ * Um cliente binario comeca a conexao com o handshake
+ * (@ref TAMANHO_HANDSHAKE bytes): @ref MAGICO, versao e capacidades. O
+ * servidor responde com o mesmo formato, com a versao e as capacidades
+ * aceitas, e a partir dai' troca mensagens binarias. Sem o handshake a
+ * sessao continua no protocolo XML (uma mensagem por linha).
+ * O servidor pode ter enviado linhas XML antes da resposta do handshake;
+ * o cliente descarta tudo o que receber antes do @ref MAGICO, e o servidor
+ * reenvia o status atual em binario logo depois da resposta.
+ * Cada mensagem binaria e' um byte de tipo seguido de um conteudo de
+ * tamanho fixo para o tipo (inteiros em big-endian):
+ * - @ref TIPO_ESTADO: inteiro de 32 bits com o estado
+ *   (@ref codificarEstado).
+ * - @ref TIPO_SINCRONIA (servidor, modo delta): inteiro de 32 bits com o
+ *   numero de sequencia e inteiro de 32 bits com o estado.
+ * - @ref TIPO_DELTA (servidor, modo delta): inteiro de 32 bits com o
+ *   numero de sequencia e um byte com a ultima jogada + 1 (bits 0-3,
+ *   0 = nenhuma) e o status (bits 4-6).
+ * - @ref TIPO_REENVIO (cliente, modo delta): inteiro de 32 bits com o
+ *   ultimo numero de sequencia recebido.
+ * - @ref TIPO_ROBO (cliente): um byte com o nivel do robot (0 a 10)
+ *   pedido como oponente enquanto o cliente aguarda.
+ * - @ref TIPO_ESPECTADOR (cliente): inteiro de 64 bits com o
+ *   identificador da partida que o cliente quer assistir. O cliente
+ *   deixa o seu lugar e passa a receber so' mensagens @ref TIPO_ESTADO
+ *   (mesmo no modo delta), com o Id e o status do jogador da vez (ou
+ *   do resultado, no fim do jogo).
+ * No modo delta (@ref CAPACIDADE_DELTA) o servidor envia o tabuleiro
+ * completo (@ref TIPO_SINCRONIA) so' na primeira mensagem e depois de um
+ * pedido de reenvio; nas demais envia so' a ultima jogada feita no
+ * tabuleiro e o status (@ref TIPO_DELTA). O numero de sequencia cresce
+ * de 1 em 1 a cada mensagem do servidor; se o cliente perceber um salto,
+ * pede o reenvio e recebe o estado completo.
+ * Objetos desta classe sao imutaveis e representam o protocolo negociado
+ * de uma sessao (atributo @ref ATRIBUTO).
+ */
+public final class VelhaProtocolo {
+
+	/** Bytes iniciais do handshake (o primeiro nao pode iniciar XML). */
+	static final byte MAGICO[] = {0x00, 'V', 'B', 'P'};
+	/** Tamanho do handshake, em bytes (magico, versao e capacidades). */
+	public static final int TAMANHO_HANDSHAKE = MAGICO.length + 2;
+	/** Versao do protocolo binario implementada pelo servidor. */
+	public static final int VERSAO = 1;
+	/** Capacidade: modo delta (so' a ultima jogada a cada mensagem). */
+	public static final int CAPACIDADE_DELTA = 0x01;
+	/** Capacidades opcionais implementadas pelo servidor (mascara). */
+	public static final int CAPACIDADES = CAPACIDADE_DELTA;
+
+	/** Tipo da mensagem com o estado completo do jogo. */
+	public static final int TIPO_ESTADO = 1;
+	/** Tamanho da mensagem @ref TIPO_ESTADO, em bytes (com o tipo). */
+	public static final int TAMANHO_ESTADO = 5;
+	/** Tipo da mensagem com a ultima jogada e o status (modo delta). */
+	public static final int TIPO_DELTA = 2;
+	/** Tamanho da mensagem @ref TIPO_DELTA, em bytes (com o tipo). */
+	public static final int TAMANHO_DELTA = 6;
+	/** Tipo da mensagem com o estado completo e a sequencia (modo delta). */
+	public static final int TIPO_SINCRONIA = 3;
+	/** Tamanho da mensagem @ref TIPO_SINCRONIA, em bytes (com o tipo). */
+	public static final int TAMANHO_SINCRONIA = 9;
+	/** Tipo da mensagem de pedido de reenvio do estado (modo delta). */
+	public static final int TIPO_REENVIO = 4;
+	/** Tamanho da mensagem @ref TIPO_REENVIO, em bytes (com o tipo). */
+	public static final int TAMANHO_REENVIO = 5;
+	/** Tipo da mensagem de pedido do robot como oponente. */
+	public static final int TIPO_ROBO = 5;
+	/** Tamanho da mensagem @ref TIPO_ROBO, em bytes (com o tipo). */
+	public static final int TAMANHO_ROBO = 2;
+	/** Tipo da mensagem de pedido para assistir uma partida. */
+	public static final int TIPO_ESPECTADOR = 6;
+	/** Tamanho da mensagem @ref TIPO_ESPECTADOR, em bytes (com o tipo). */
+	public static final int TAMANHO_ESPECTADOR = 9;
+
+	/** Atributo da sessao com o protocolo negociado (ausente no XML). */
+	static final AttributeKey ATRIBUTO =
+		new AttributeKey(VelhaProtocolo.class, "protocolo");
+	/** Atributo da sessao presente quando o proximo estado deve ser
+	 *  enviado completo (modo delta): o cliente pediu o reenvio ou voltou
+	 *  ao lobby para uma nova partida. */
+	static final AttributeKey ATRIBUTO_REENVIO =
+		new AttributeKey(VelhaProtocolo.class, "reenvio");
+	/** Atributo da sessao com o nivel do robot pedido pelo cliente
+	 *  (Integer), presente ate' o handler tratar o pedido. */
+	static final AttributeKey ATRIBUTO_ROBO =
+		new AttributeKey(VelhaProtocolo.class, "robo");
+	/** Atributo da sessao com o identificador da partida que o cliente
+	 *  pediu para assistir (Long), presente ate' o handler tratar o
+	 *  pedido. */
+	static final AttributeKey ATRIBUTO_ESPECTADOR =
+		new AttributeKey(VelhaProtocolo.class, "espectador");
+
+	/** Status na ordem dos codigos binarios. */
+	static final String STATUS[] = {
+			VelhaEngine.STATUS_AGUARDE, VelhaEngine.STATUS_JOGUE,
+			VelhaEngine.STATUS_GANHOU, VelhaEngine.STATUS_PERDEU,
+			VelhaEngine.STATUS_EMPATE, VelhaEngine.STATUS_WO
+	};
+	/** Codigos binarios dos jogadores (vazio, X, O). */
+	private static final char JOGADORES[] = {
+			VelhaEngine.JOGADOR_VAZIO, VelhaEngine.JOGADOR_X,
+			VelhaEngine.JOGADOR_O
+	};
+
+	/** Versao negociada. */
+	private final int versao;
+	/** Capacidades negociadas (mascara). */
+	private final int capacidades;
+
+	/**
+	 * Construtor.
+	 * @param versao Versao negociada
+	 * @param capacidades Capacidades negociadas (mascara)
+	 */
+	VelhaProtocolo(int versao, int capacidades) {
+		this.versao = versao;
+		this.capacidades = capacidades;
+	}
+
+	/**
+	 * Retorna a versao negociada.
+	 * @return Versao do protocolo binario.
+	 */
+	public int getVersao() {
+		return versao;
+	}
+
+	/**
+	 * Retorna as capacidades negociadas.
+	 * @return Mascara de capacidades.
+	 */
+	public int getCapacidades() {
+		return capacidades;
+	}
+
+	/**
+	 * Verifica se uma capacidade foi negociada.
+	 * @param capacidade Capacidade (bit da mascara)
+	 * @return True se a capacidade foi aceita pelos dois lados.
+	 */
+	public boolean isCapacidade(int capacidade) {
+		return (capacidades & capacidade) != 0;
+	}
+
+	/**
+	 * Retorna o protocolo binario negociado de uma sessao.
+	 * @param session Sessao do cliente
+	 * @return Protocolo negociado, ou null se a sessao usa XML.
+	 */
+	public static VelhaProtocolo getProtocolo(IoSession session) {
+		return (VelhaProtocolo) session.getAttribute(ATRIBUTO);
+	}
+
+	/**
+	 * Negocia o protocolo a partir do handshake do cliente.
+	 * @param versaoCliente Versao pedida pelo cliente
+	 * @param capacidadesCliente Capacidades pedidas pelo cliente
+	 * @return Protocolo negociado, ou null se a versao nao e' suportada.
+	 */
+	static VelhaProtocolo negociar(int versaoCliente, int capacidadesCliente) {
+		if (versaoCliente < 1) return null;
+		return new VelhaProtocolo(Math.min(versaoCliente, VERSAO),
+				capacidadesCliente & CAPACIDADES);
+	}
+
+	/**
+	 * Cria o buffer do handshake com a versao e as capacidades deste
+	 * protocolo.
+	 * @return Buffer pronto para leitura.
+	 */
+	IoBuffer getHandshake() {
+		IoBuffer buffer = IoBuffer.allocate(TAMANHO_HANDSHAKE);
+		buffer.put(MAGICO);
+		buffer.put((byte) versao);
+		buffer.put((byte) capacidades);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Cria a mensagem @ref TIPO_ESTADO.
+	 * @param estado Estado codificado (@ref codificarEstado)
+	 * @return Buffer pronto para leitura.
+	 */
+	static IoBuffer criarMensagemEstado(int estado) {
+		IoBuffer buffer = IoBuffer.allocate(TAMANHO_ESTADO);
+		buffer.put((byte) TIPO_ESTADO);
+		buffer.putInt(estado);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Codifica o estado de um @ref VelhaBean em 27 bits:
+	 * bits 0-17 tabuleiro (2 bits por posicao: 0 vazio, 1 X, 2 O),
+	 * bits 18-21 jogada + 1 (0 = nenhuma), bits 22-24 status (na ordem
+	 * aguarde, jogue, ganhou, perdeu, empate, wo) e bits 25-26 Id
+	 * (1 X, 2 O).
+	 * @param velhaBean Objeto @ref VelhaBean
+	 * @return Estado codificado, ou -1 se o bean tem valores invalidos.
+	 */
+	public static int codificarEstado(VelhaBean velhaBean) {
+		int estado = 0;
+		for (int pos = 0; pos < 9; pos++) {
+			int jogador = getCodigoJogador(velhaBean.getPosicao(pos));
+			if (jogador < 0) return -1;
+			estado |= jogador << (2 * pos);
+		}
+		int jogada = velhaBean.getJogada();
+		if (jogada < -1 || jogada > 8) return -1;
+		estado |= (jogada + 1) << 18;
+
+		int status = getCodigoStatus(velhaBean.getStatus());
+		if (status < 0) return -1;
+		estado |= status << 22;
+
+		int id = getCodigoJogador(velhaBean.getId());
+		if (id <= 0) return -1;
+		estado |= id << 25;
+		return estado;
+	}
+
+	/**
+	 * Codifica a ultima jogada e o status de um @ref VelhaBean no byte da
+	 * mensagem @ref TIPO_DELTA.
+	 * @param velhaBean Objeto @ref VelhaBean (jogada com a ultima jogada
+	 *   feita no tabuleiro, ou -1)
+	 * @return Byte do delta, ou -1 se o bean tem valores invalidos.
+	 */
+	public static int codificarDelta(VelhaBean velhaBean) {
+		int jogada = velhaBean.getJogada();
+		if (jogada < -1 || jogada > 8) return -1;
+		int status = getCodigoStatus(velhaBean.getStatus());
+		if (status < 0) return -1;
+		return (jogada + 1) | (status << 4);
+	}
+
+	/**
+	 * Decodifica um estado gerado por @ref codificarEstado.
+	 * @param estado Estado codificado
+	 * @return Objeto @ref VelhaBean, ou null se o estado e' invalido.
+	 */
+	public static VelhaBean decodificarEstado(int estado) {
+		if ((estado >>> 27) != 0) return null;
+		VelhaBean velhaBean = new VelhaBean();
+		for (int pos = 0; pos < 9; pos++) {
+			int jogador = (estado >>> (2 * pos)) & 3;
+			if (jogador >= JOGADORES.length) return null;
+			velhaBean.setPosicao(pos, JOGADORES[jogador]);
+		}
+		int jogada = (estado >>> 18) & 0xF;
+		if (jogada > 9) return null;
+		velhaBean.setJogada(jogada - 1);
+
+		int status = (estado >>> 22) & 7;
+		if (status >= STATUS.length) return null;
+		velhaBean.setStatus(STATUS[status]);
+
+		int id = (estado >>> 25) & 3;
+		if (id == 0 || id >= JOGADORES.length) return null;
+		velhaBean.setId(JOGADORES[id]);
+		return velhaBean;
+	}
+
+	/**
+	 * Retorna o codigo binario de um status.
+	 * @param status Status do jogo (uma das constantes STATUS_ de
+	 *   @ref VelhaEngine)
+	 * @return Codigo de 0 a 5, ou -1 se o status e' invalido.
+	 */
+	static int getCodigoStatus(String status) {
+		for (int i = 0; i < STATUS.length; i++) {
+			if (STATUS[i].equals(status)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Retorna o codigo binario de um jogador.
+	 * @param jogador Jogador
+	 * @return 0 (vazio), 1 (X), 2 (O) ou -1 se invalido.
+	 */
+	private static int getCodigoJogador(char jogador) {
+		for (int i = 0; i < JOGADORES.length; i++) {
+			if (JOGADORES[i] == jogador) return i;
+		}
+		return -1;
+	}
+}
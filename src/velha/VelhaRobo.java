@@ -0,0 +1,121 @@
+package velha;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Robot do servidor do Jogo da Velha: ocupa o lugar vazio de uma partida
+ * quando o oponente nao chega a tempo ou quando o jogador pede
+ * (ver @ref VelhaPartida). As jogadas do robot
+ * (@ref VelhaEngine.getJogada) sao calculadas em um executor proprio,
+ * com numero de threads e fila limitados, e nunca nas threads de I/O nem
+ * na fila da partida; a partida so' guarda um @ref VelhaEngine para o
+ * robot, entao milhares de partidas contra o robot custam apenas as
+ * jogadas em calculo.
+ * Um objeto desta classe e' compartilhado por todas as partidas.
+ */
+public class VelhaRobo {
+
+	/** Nivel do robot quando o jogador nao escolhe. */
+	private final int nivel;
+	/** Tempo de espera pelo oponente, em segundos (0 = nunca). */
+	private final int espera;
+	/** Executor que calcula as jogadas. */
+	private final ThreadPoolExecutor executor;
+	/** Agendador das esperas pelo oponente. */
+	private final ScheduledThreadPoolExecutor agendador;
+
+	/**
+	 * Construtor.
+	 * @param threads Numero de threads que calculam as jogadas
+	 * @param capacidade Numero maximo de jogadas aguardando calculo
+	 * @param nivel Nivel do robot quando o jogador nao escolhe (0 a 10)
+	 * @param espera Tempo de espera pelo oponente, em segundos, antes de o
+	 *   robot ocupar o lugar; 0 = so' quando o jogador pede
+	 * @throws IllegalArgumentException Se algum valor e' invalido.
+	 */
+	public VelhaRobo(int threads, int capacidade, int nivel, int espera) {
+		if (nivel < 0 || nivel > 10) {
+			throw new IllegalArgumentException("Nivel invalido: " + nivel);
+		}
+		this.nivel = nivel;
+		this.espera = espera;
+		executor = new ThreadPoolExecutor(threads, threads, 0L,
+				TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(capacidade),
+				new Fabrica("velha-robo-"));
+		agendador = new ScheduledThreadPoolExecutor(1,
+				new Fabrica("velha-robo-espera-"));
+		/* as esperas canceladas saem da fila na hora */
+		agendador.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * Retorna o nivel padrao.
+	 * @return Nivel do robot quando o jogador nao escolhe (0 a 10).
+	 */
+	public int getNivel() {
+		return nivel;
+	}
+
+	/**
+	 * Agenda a espera pelo oponente.
+	 * @param tarefa Tarefa executada no fim da espera (deve apenas
+	 *   colocar um evento na fila da partida)
+	 * @return Espera agendada (pode ser cancelada), ou null se o robot
+	 *   nao ocupa lugares por tempo.
+	 */
+	ScheduledFuture<?> agendarEspera(Runnable tarefa) {
+		if (espera <= 0) return null;
+		return agendador.schedule(tarefa, espera, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Calcula uma jogada no executor do robot.
+	 * @param tarefa Calculo da jogada (deve devolver o resultado para a
+	 *   fila da partida)
+	 * @throws RejectedExecutionException Se a fila do executor esta'
+	 *   cheia.
+	 */
+	void calcular(Runnable tarefa) {
+		executor.execute(tarefa);
+	}
+
+	/**
+	 * Para o executor e o agendador. Jogadas e esperas pendentes sao
+	 * descartadas.
+	 */
+	public void parar() {
+		agendador.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	/** Fabrica de threads (daemon) com nome numerado. */
+	private static final class Fabrica implements ThreadFactory {
+		/** Prefixo do nome das threads. */
+		private final String prefixo;
+		/** Numero da ultima thread criada. */
+		private final AtomicInteger numero = new AtomicInteger();
+
+		/**
+		 * Construtor.
+		 * @param prefixo Prefixo do nome das threads
+		 */
+		private Fabrica(String prefixo) {
+			this.prefixo = prefixo;
+		}
+
+		public Thread newThread(Runnable tarefa) {
+			Thread thread = new Thread(tarefa,
+					prefixo + numero.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
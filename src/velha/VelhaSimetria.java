@@ -0,0 +1,165 @@
+package velha;
+
+/**
+ * Classe que implementa a canonizacao de posicoes do Jogo da Velha pelas
+ * 8 simetrias do tabuleiro (4 rotacoes e 4 reflexoes).
+ * Posicoes simetricas tem o mesmo indice canonico, o que permite guardar
+ * uma unica entrada por posicao em tabelas e caches.
+ * O resultado da canonizacao e' um inteiro com o indice canonico nos bits
+ * altos e a transformacao aplicada nos 3 bits baixos (ver @ref getIndice
+ * e @ref getTransformacao).
+ */
+public final class VelhaSimetria {
+
+	/** Transformacao: identidade. */
+	public static final int IDENTIDADE = 0;
+	/** Numero de transformacoes (simetrias) do tabuleiro. */
+	public static final int TOTAL_TRANSFORMACOES = 8;
+
+	/** Numero de posicoes do tabuleiro. */
+	private static final int POSICOES = 9;
+
+	/** Destino de cada posicao em cada transformacao, na ordem:
+	 *  identidade, rotacoes de 90, 180 e 270 graus, reflexoes horizontal,
+	 *  vertical, na diagonal principal e na diagonal secundaria. */
+	private static final int DESTINO[][] = {
+			{0,1,2,3,4,5,6,7,8},
+			{2,5,8,1,4,7,0,3,6},
+			{8,7,6,5,4,3,2,1,0},
+			{6,3,0,7,4,1,8,5,2},
+			{2,1,0,5,4,3,8,7,6},
+			{6,7,8,3,4,5,0,1,2},
+			{0,3,6,1,4,7,2,5,8},
+			{8,5,2,7,4,1,6,3,0}
+	};
+
+	/** Transformacao inversa de cada transformacao. */
+	private static final int INVERSA[] = new int[TOTAL_TRANSFORMACOES];
+
+	/** Mascara (9 bits) transformada, para cada transformacao e mascara. */
+	private static final short MASCARAS[][] =
+		new short[TOTAL_TRANSFORMACOES][1 << POSICOES];
+
+	static {
+		for (int t = 0; t < TOTAL_TRANSFORMACOES; t++) {
+			for (int inv = 0; inv < TOTAL_TRANSFORMACOES; inv++) {
+				boolean identidade = true;
+				for (int pos = 0; pos < POSICOES; pos++) {
+					if (DESTINO[inv][DESTINO[t][pos]] != pos) {
+						identidade = false;
+						break;
+					}
+				}
+				if (identidade) INVERSA[t] = inv;
+			}
+
+			for (int mascara = 1; mascara < (1 << POSICOES); mascara++) {
+				int pos = Integer.numberOfTrailingZeros(mascara);
+				MASCARAS[t][mascara] = (short)
+					(MASCARAS[t][mascara & (mascara - 1)] | (1 << DESTINO[t][pos]));
+			}
+		}
+	}
+
+	/** Classe utilitaria, nao instanciavel. */
+	private VelhaSimetria() {
+	}
+
+	/**
+	 * Canoniza uma posicao representada por bitboards.
+	 * @param jogador Bitboard do jogador da vez
+	 * @param oponente Bitboard do oponente
+	 * @return Indice canonico e transformacao aplicada, empacotados num
+	 *   inteiro (ver @ref getIndice e @ref getTransformacao).
+	 */
+	public static int canonizar(int jogador, int oponente) {
+		int melhor = VelhaTabela.getIndice(jogador, oponente);
+		int transformacao = IDENTIDADE;
+
+		for (int t = 1; t < TOTAL_TRANSFORMACOES; t++) {
+			int indice = VelhaTabela.getIndice(MASCARAS[t][jogador],
+			                                   MASCARAS[t][oponente]);
+			if (indice < melhor) {
+				melhor = indice;
+				transformacao = t;
+			}
+		}
+		return (melhor << 3) | transformacao;
+	}
+
+	/**
+	 * Canoniza uma posicao representada por um vetor de tabuleiro.
+	 * O Jogador X ocupa o lugar do jogador da vez na canonizacao.
+	 * @param tabuleiro Vetor com a representacao de um tabuleiro
+	 *   (9 posicoes)
+	 * @return Indice canonico e transformacao aplicada, empacotados num
+	 *   inteiro (ver @ref getIndice e @ref getTransformacao).
+	 */
+	public static int canonizar(char[] tabuleiro) {
+		int mascaraX = 0;
+		int mascaraO = 0;
+		for (int pos = 0; pos < POSICOES; pos++) {
+			if      (tabuleiro[pos] == VelhaEngine.JOGADOR_X) mascaraX |= 1 << pos;
+			else if (tabuleiro[pos] == VelhaEngine.JOGADOR_O) mascaraO |= 1 << pos;
+		}
+		return canonizar(mascaraX, mascaraO);
+	}
+
+	/**
+	 * Retorna o indice canonico de um resultado de @ref canonizar.
+	 * @param canonico Resultado de @ref canonizar
+	 * @return Indice canonico (ver @ref VelhaTabela.getIndice).
+	 */
+	public static int getIndice(int canonico) {
+		return canonico >>> 3;
+	}
+
+	/**
+	 * Retorna a transformacao de um resultado de @ref canonizar.
+	 * @param canonico Resultado de @ref canonizar
+	 * @return Transformacao aplicada (0 a 7).
+	 */
+	public static int getTransformacao(int canonico) {
+		return canonico & 7;
+	}
+
+	/**
+	 * Aplica uma transformacao a uma posicao do tabuleiro original.
+	 * @param transformacao Transformacao (0 a 7)
+	 * @param pos Posicao no tabuleiro original (0 a 8)
+	 * @return Posicao correspondente no tabuleiro canonico.
+	 */
+	public static int transformarPosicao(int transformacao, int pos) {
+		return DESTINO[transformacao][pos];
+	}
+
+	/**
+	 * Converte uma posicao do tabuleiro canonico para o tabuleiro original.
+	 * @param transformacao Transformacao retornada por @ref getTransformacao
+	 * @param pos Posicao no tabuleiro canonico (0 a 8)
+	 * @return Posicao correspondente no tabuleiro original.
+	 */
+	public static int destransformarPosicao(int transformacao, int pos) {
+		return DESTINO[INVERSA[transformacao]][pos];
+	}
+
+	/**
+	 * Aplica uma transformacao a um bitboard.
+	 * @param transformacao Transformacao (0 a 7)
+	 * @param mascara Bitboard (9 bits)
+	 * @return Bitboard transformado.
+	 */
+	public static int transformarMascara(int transformacao, int mascara) {
+		return MASCARAS[transformacao][mascara];
+	}
+
+	/**
+	 * Converte um bitboard do tabuleiro canonico para o tabuleiro original.
+	 * @param transformacao Transformacao retornada por @ref getTransformacao
+	 * @param mascara Bitboard (9 bits) no tabuleiro canonico
+	 * @return Bitboard correspondente no tabuleiro original.
+	 */
+	public static int destransformarMascara(int transformacao, int mascara) {
+		return MASCARAS[INVERSA[transformacao]][mascara];
+	}
+}
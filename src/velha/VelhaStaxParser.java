@@ -0,0 +1,341 @@
+package velha;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Classe que implementa o parser de XML do Jogo da Velha em uma unica
+ * passada (StAX), sem montar a arvore DOM.
+ * As restricoes do schema (velha.xsd) sao verificadas no proprio codigo:
+ * elementos na ordem do schema, Id X ou O, status conhecido, jogada de
+ * 0 a 8 (ou vazia) e posicoes do tabuleiro X, O ou vazias.
+ */
+public class VelhaStaxParser implements VelhaCodec {
+
+	/** Indica se o Modo Debug esta' ativado. */
+	private static final boolean DEBUG_ENABLED = false;
+
+	/* contantes que representam as tags do arquivo XML */
+	private static final String NODE_JOGODAVELHA = "JogoDaVelha";
+	private static final String NODE_ID = "id";
+	private static final String NODE_STATUS = "status";
+	private static final String NODE_JOGADA = "jogada";
+	private static final String NODE_TABULEIRO = "tabuleiro";
+	private static final String NODE_TAB_POS[] = {
+			"p0", "p1", "p2", "p3", "p4", "p5", "p6", "p7", "p8"
+	};
+
+	/** Status aceitos no XML. */
+	private static final String STATUS[] = {
+			VelhaEngine.STATUS_AGUARDE, VelhaEngine.STATUS_JOGUE,
+			VelhaEngine.STATUS_GANHOU, VelhaEngine.STATUS_PERDEU,
+			VelhaEngine.STATUS_EMPATE, VelhaEngine.STATUS_WO
+	};
+
+	/** Fabrica de leitores StAX de cada thread. */
+	private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY =
+		new ThreadLocal<XMLInputFactory>() {
+			@Override
+			protected XMLInputFactory initialValue() {
+				XMLInputFactory factory = XMLInputFactory.newInstance();
+				/* mensagens do jogo nao tem DTD nem entidades externas */
+				factory.setProperty(XMLInputFactory.SUPPORT_DTD,
+						Boolean.FALSE);
+				factory.setProperty(
+						XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+						Boolean.FALSE);
+				return factory;
+			}
+		};
+
+	/** Fabrica de escritores StAX de cada thread. */
+	private static final ThreadLocal<XMLOutputFactory> OUTPUT_FACTORY =
+		new ThreadLocal<XMLOutputFactory>() {
+			@Override
+			protected XMLOutputFactory initialValue() {
+				return XMLOutputFactory.newInstance();
+			}
+		};
+
+	/**
+	 * Retorna um objeto @ref VelhaBean a partir de uma string contendo XML.
+	 * @param xmlContent String com o conteudo do XML
+	 * @return Objeto da classe @ref VelhaBean, ou null se houve erro.
+	 */
+	public VelhaBean getVelhaBean(String xmlContent) {
+
+		XMLStreamReader reader = null;
+		try {
+			reader = INPUT_FACTORY.get().createXMLStreamReader(
+					new StringReader(xmlContent));
+
+			VelhaBean velhaBean = new VelhaBean();
+
+			abrirElemento(reader, NODE_JOGODAVELHA);
+
+			velhaBean.setId(
+					getJogador(lerValor(reader, NODE_ID), false));
+			velhaBean.setStatus(
+					getStatus(lerValor(reader, NODE_STATUS)));
+			velhaBean.setJogada(
+					getJogada(lerValor(reader, NODE_JOGADA)));
+
+			abrirElemento(reader, NODE_TABULEIRO);
+			for (int pos = 0; pos < NODE_TAB_POS.length; pos++) {
+				velhaBean.setPosicao(pos,
+						getJogador(lerValor(reader, NODE_TAB_POS[pos]), true));
+			}
+			fecharElemento(reader, NODE_TABULEIRO);
+
+			fecharElemento(reader, NODE_JOGODAVELHA);
+
+			/* depois do elemento raiz so' podem vir comentarios */
+			while (reader.hasNext()) {
+				int evento = reader.next();
+				if (evento == XMLStreamConstants.START_ELEMENT
+						|| (evento == XMLStreamConstants.CHARACTERS
+								&& !reader.isWhiteSpace())) {
+					throw new XMLStreamException(
+							"Conteudo apos o elemento raiz",
+							reader.getLocation());
+				}
+			}
+			return velhaBean;
+
+		} catch (Exception e) {
+			if (DEBUG_ENABLED) e.printStackTrace();
+			return null;
+
+		} finally {
+			fechar(reader);
+		}
+	}
+
+	/**
+	 * Retorna uma string contendo XML a partir de um objeto @ref VelhaBean.
+	 * @param velhaBean Objeto da classe @ref VelhaBean
+	 * @return String com o conteudo do XML, ou null se houve erro.
+	 */
+	public String getVelhaXML(VelhaBean velhaBean) {
+
+		/* valida o bean com as mesmas regras da leitura */
+		if (!isJogadorValido(velhaBean.getId(), false)
+				|| !isStatusValido(velhaBean.getStatus())
+				|| velhaBean.getJogada() > 8) {
+			return null;
+		}
+		for (int pos = 0; pos < NODE_TAB_POS.length; pos++) {
+			if (!isJogadorValido(velhaBean.getPosicao(pos), true)) {
+				return null;
+			}
+		}
+
+		StringWriter strWriter = new StringWriter(256);
+		XMLStreamWriter writer = null;
+		try {
+			writer = OUTPUT_FACTORY.get().createXMLStreamWriter(strWriter);
+
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement(NODE_JOGODAVELHA);
+
+			escreverValor(writer, NODE_ID, String.valueOf(velhaBean.getId()));
+			escreverValor(writer, NODE_STATUS, velhaBean.getStatus());
+			escreverValor(writer, NODE_JOGADA, (velhaBean.getJogada() >= 0)
+					? String.valueOf(velhaBean.getJogada()) : null);
+
+			writer.writeStartElement(NODE_TABULEIRO);
+			for (int pos = 0; pos < NODE_TAB_POS.length; pos++) {
+				char jogador = velhaBean.getPosicao(pos);
+				escreverValor(writer, NODE_TAB_POS[pos],
+						(jogador != VelhaEngine.JOGADOR_VAZIO)
+							? String.valueOf(jogador) : null);
+			}
+			writer.writeEndElement();
+
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.flush();
+			return strWriter.toString();
+
+		} catch (Exception e) {
+			if (DEBUG_ENABLED) e.printStackTrace();
+			return null;
+
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (XMLStreamException e) {
+					if (DEBUG_ENABLED) e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Avanca o leitor ate' a abertura de um elemento, ignorando espacos
+	 * em branco e comentarios.
+	 * @param reader Leitor StAX
+	 * @param nome Nome do elemento esperado
+	 * @throws XMLStreamException Se o proximo elemento nao e' o esperado.
+	 */
+	private static void abrirElemento(XMLStreamReader reader, String nome)
+			throws XMLStreamException {
+		if (reader.nextTag() != XMLStreamConstants.START_ELEMENT
+				|| !nome.equals(reader.getLocalName())) {
+			throw new XMLStreamException("Esperado <" + nome + ">",
+					reader.getLocation());
+		}
+	}
+
+	/**
+	 * Avanca o leitor ate' o fechamento de um elemento, ignorando espacos
+	 * em branco e comentarios.
+	 * @param reader Leitor StAX
+	 * @param nome Nome do elemento esperado
+	 * @throws XMLStreamException Se o proximo elemento nao e' o esperado.
+	 */
+	private static void fecharElemento(XMLStreamReader reader, String nome)
+			throws XMLStreamException {
+		if (reader.nextTag() != XMLStreamConstants.END_ELEMENT
+				|| !nome.equals(reader.getLocalName())) {
+			throw new XMLStreamException("Esperado </" + nome + ">",
+					reader.getLocation());
+		}
+	}
+
+	/**
+	 * Le um elemento que contem apenas texto.
+	 * @param reader Leitor StAX
+	 * @param nome Nome do elemento esperado
+	 * @return Texto do elemento (vazio se nao ha' texto).
+	 * @throws XMLStreamException Se o proximo elemento nao e' o esperado
+	 *   ou se contem outros elementos.
+	 */
+	private static String lerValor(XMLStreamReader reader, String nome)
+			throws XMLStreamException {
+		abrirElemento(reader, nome);
+		/* posiciona o leitor no fechamento do elemento */
+		return reader.getElementText();
+	}
+
+	/**
+	 * Escreve um elemento que contem apenas texto.
+	 * @param writer Escritor StAX
+	 * @param nome Nome do elemento
+	 * @param valor Texto do elemento, ou null para um elemento vazio
+	 * @throws XMLStreamException Se houve erro na escrita.
+	 */
+	private static void escreverValor(XMLStreamWriter writer, String nome,
+			String valor) throws XMLStreamException {
+		if (valor == null) {
+			writer.writeEmptyElement(nome);
+		} else {
+			writer.writeStartElement(nome);
+			writer.writeCharacters(valor);
+			writer.writeEndElement();
+		}
+	}
+
+	/**
+	 * Converte o texto de um elemento em um jogador.
+	 * @param valor Texto do elemento
+	 * @param vazioPermitido True se o elemento pode ser vazio
+	 * @return @ref VelhaEngine.JOGADOR_X, @ref VelhaEngine.JOGADOR_O ou
+	 *   @ref VelhaEngine.JOGADOR_VAZIO.
+	 * @throws XMLStreamException Se o texto nao e' um jogador valido.
+	 */
+	private static char getJogador(String valor, boolean vazioPermitido)
+			throws XMLStreamException {
+		if (valor.length() == 0 && vazioPermitido) {
+			return VelhaEngine.JOGADOR_VAZIO;
+		}
+		if (valor.length() == 1) {
+			char jogador = Character.toUpperCase(valor.charAt(0));
+			if (jogador == VelhaEngine.JOGADOR_X
+					|| jogador == VelhaEngine.JOGADOR_O) {
+				return jogador;
+			}
+		}
+		throw new XMLStreamException("Jogador invalido: " + valor);
+	}
+
+	/**
+	 * Converte o texto de um elemento em um status.
+	 * @param valor Texto do elemento
+	 * @return Status do jogo (uma das constantes STATUS_ de
+	 *   @ref VelhaEngine).
+	 * @throws XMLStreamException Se o texto nao e' um status valido.
+	 */
+	private static String getStatus(String valor) throws XMLStreamException {
+		for (int i = 0; i < STATUS.length; i++) {
+			if (STATUS[i].equalsIgnoreCase(valor)) {
+				return STATUS[i];
+			}
+		}
+		throw new XMLStreamException("Status invalido: " + valor);
+	}
+
+	/**
+	 * Converte o texto de um elemento em uma jogada.
+	 * @param valor Texto do elemento
+	 * @return Posicao da jogada (0..8) ou -1 se o elemento e' vazio.
+	 * @throws XMLStreamException Se o texto nao e' uma jogada valida.
+	 */
+	private static int getJogada(String valor) throws XMLStreamException {
+		if (valor.length() == 0) {
+			return -1;
+		}
+		if (valor.length() == 1
+				&& valor.charAt(0) >= '0' && valor.charAt(0) <= '8') {
+			return valor.charAt(0) - '0';
+		}
+		throw new XMLStreamException("Jogada invalida: " + valor);
+	}
+
+	/**
+	 * Verifica se um jogador pode ser escrito no XML.
+	 * @param jogador Jogador
+	 * @param vazioPermitido True se @ref VelhaEngine.JOGADOR_VAZIO e' aceito
+	 * @return True se o jogador e' valido, false se nao.
+	 */
+	private static boolean isJogadorValido(char jogador,
+			boolean vazioPermitido) {
+		return jogador == VelhaEngine.JOGADOR_X
+				|| jogador == VelhaEngine.JOGADOR_O
+				|| (vazioPermitido && jogador == VelhaEngine.JOGADOR_VAZIO);
+	}
+
+	/**
+	 * Verifica se um status pode ser escrito no XML.
+	 * @param status Status
+	 * @return True se o status e' valido, false se nao.
+	 */
+	private static boolean isStatusValido(String status) {
+		for (int i = 0; i < STATUS.length; i++) {
+			if (STATUS[i].equals(status)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Fecha um leitor StAX, ignorando erros.
+	 * @param reader Leitor StAX (pode ser null)
+	 */
+	private static void fechar(XMLStreamReader reader) {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+				if (DEBUG_ENABLED) e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package velha;
+
+import java.util.Arrays;
+
+/**
+ * Classe que implementa a tabela de jogadas perfeitas do Jogo da Velha.
+ * Todas as posicoes do tabuleiro sao resolvidas (minimax) uma unica vez,
+ * na carga da classe, e para cada posicao e' guardada a mascara das
+ * jogadas otimas para o jogador da vez.
+ * So' as posicoes canonicas (ver @ref VelhaSimetria) ficam na tabela: uma
+ * posicao e' consultada pela sua forma canonica e as jogadas voltam pela
+ * transformacao inversa, o que reduz a tabela de 3^9 entradas para as
+ * poucas centenas de posicoes alcancaveis distintas.
+ */
+public final class VelhaTabela {
+
+	/** Numero de posicoes do tabuleiro. */
+	private static final int POSICOES = 9;
+
+	/** Numero de tabuleiros possiveis (3^9). */
+	public static final int TOTAL_INDICES = 19683;
+
+	/** Valor ternario de cada mascara de 9 bits (bit n vale 3^n). */
+	private static final int TERNARIO[] = new int[1 << POSICOES];
+
+	/** Marca de posicao ainda nao resolvida na resolucao. */
+	private static final byte NAO_RESOLVIDO = Byte.MIN_VALUE;
+
+	/** Indices (em ordem crescente) das posicoes canonicas alcancaveis. */
+	private static final int CANONICOS[];
+
+	/** Mascara (9 bits) das jogadas otimas de cada posicao de
+	 *  @ref CANONICOS, no tabuleiro canonico. */
+	private static final short JOGADAS_OTIMAS[];
+
+	static {
+		for (int mascara = 1; mascara < TERNARIO.length; mascara++) {
+			int bit = Integer.numberOfTrailingZeros(mascara);
+			int pot = 1;
+			for (int i = 0; i < bit; i++) pot *= 3;
+			TERNARIO[mascara] = TERNARIO[mascara & (mascara - 1)] + pot;
+		}
+
+		/* resolve todas as posicoes a partir do tabuleiro vazio; a tabela
+		 * completa so' existe durante a carga */
+		byte valores[] = new byte[TOTAL_INDICES];
+		short otimas[] = new short[TOTAL_INDICES];
+		Arrays.fill(valores, NAO_RESOLVIDO);
+		resolver(0, 0, valores, otimas);
+
+		/* VelhaSimetria usa getIndice, que ja' funciona neste ponto */
+		boolean canonico[] = new boolean[TOTAL_INDICES];
+		int total = 0;
+		for (int jogador = 0; jogador < (1 << POSICOES); jogador++) {
+			int livres = ~jogador & ((1 << POSICOES) - 1);
+			for (int oponente = livres; ; oponente = (oponente - 1) & livres) {
+				int indice = getIndice(jogador, oponente);
+				if (valores[indice] != NAO_RESOLVIDO
+						&& VelhaSimetria.getIndice(
+							VelhaSimetria.canonizar(jogador, oponente)) == indice) {
+					canonico[indice] = true;
+					total++;
+				}
+				if (oponente == 0) break;
+			}
+		}
+
+		CANONICOS = new int[total];
+		JOGADAS_OTIMAS = new short[total];
+		int n = 0;
+		for (int indice = 0; indice < TOTAL_INDICES; indice++) {
+			if (!canonico[indice]) continue;
+			CANONICOS[n] = indice;
+			JOGADAS_OTIMAS[n] = otimas[indice];
+			n++;
+		}
+	}
+
+	/** Classe utilitaria, nao instanciavel. */
+	private VelhaTabela() {
+	}
+
+	/**
+	 * Retorna o indice de uma posicao na tabela.
+	 * @param jogador Bitboard do jogador da vez
+	 * @param oponente Bitboard do oponente
+	 * @return Indice da posicao (0 a @ref TOTAL_INDICES - 1).
+	 */
+	public static int getIndice(int jogador, int oponente) {
+		return TERNARIO[jogador] + 2 * TERNARIO[oponente];
+	}
+
+	/**
+	 * Retorna o numero de posicoes guardadas.
+	 * @return Numero de posicoes canonicas alcancaveis na tabela.
+	 */
+	public static int getNumPosicoes() {
+		return CANONICOS.length;
+	}
+
+	/**
+	 * Retorna as jogadas otimas para o jogador da vez.
+	 * @param jogador Bitboard do jogador da vez
+	 * @param oponente Bitboard do oponente
+	 * @return Mascara (9 bits) com as jogadas otimas, ou 0 se o jogo
+	 *   terminou ou a posicao nao e' alcancavel numa partida.
+	 */
+	public static int getJogadasOtimas(int jogador, int oponente) {
+		int canonico = VelhaSimetria.canonizar(jogador, oponente);
+		int entrada = Arrays.binarySearch(CANONICOS,
+				VelhaSimetria.getIndice(canonico));
+		if (entrada < 0) return 0;
+		return VelhaSimetria.destransformarMascara(
+				VelhaSimetria.getTransformacao(canonico), JOGADAS_OTIMAS[entrada]);
+	}
+
+	/**
+	 * Resolve uma posicao (negamax), preenchendo a tabela para ela e para
+	 * todas as posicoes alcancaveis a partir dela.
+	 * @param jogador Bitboard do jogador da vez
+	 * @param oponente Bitboard do oponente
+	 * @param valores Valor minimax de cada posicao, do ponto de vista do
+	 *   jogador da vez: positivo ganha (quanto antes, maior), zero empata,
+	 *   negativo perde
+	 * @param otimas Mascara (9 bits) das jogadas otimas de cada posicao
+	 * @return Valor da posicao do ponto de vista do jogador da vez.
+	 */
+	private static int resolver(int jogador, int oponente,
+	                            byte valores[], short otimas[]) {
+		int indice = getIndice(jogador, oponente);
+		if (valores[indice] != NAO_RESOLVIDO) {
+			return valores[indice];
+		}
+
+		int ocupadas = jogador | oponente;
+		int pecas = Integer.bitCount(ocupadas);
+		int valor;
+		int jogadas = 0;
+
+		if (VelhaEngine.isTrio(oponente)) {
+			/* oponente fez trio na ultima jogada */
+			valor = -(POSICOES + 1 - pecas);
+
+		} else if (VelhaEngine.isTrio(jogador)) {
+			valor = POSICOES + 1 - pecas;
+
+		} else if (pecas == POSICOES) {
+			valor = 0;
+
+		} else {
+			valor = -POSICOES - 1;
+			for (int pos = 0; pos < POSICOES; pos++) {
+				int bit = 1 << pos;
+				if ((ocupadas & bit) != 0) continue;
+
+				int v = -resolver(oponente, jogador | bit, valores, otimas);
+				if (v > valor) {
+					valor = v;
+					jogadas = bit;
+				} else if (v == valor) {
+					jogadas |= bit;
+				}
+			}
+		}
+
+		valores[indice] = (byte) valor;
+		otimas[indice] = (short) jogadas;
+		return valor;
+	}
+}
@@ -0,0 +1,416 @@
+package velha;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Classe que implementa a tablebase de um Jogo da Velha (m,n,k): o
+ * resultado (vitoria, empate ou derrota), a distancia ate' o fim do jogo
+ * e a melhor jogada de todas as posicoes legais, gravados num arquivo
+ * binario e lidos por memory-map.
+ * A tablebase e' gerada por analise retrograda, das posicoes finais para o
+ * tabuleiro vazio, uma camada (numero de posicoes marcadas) por vez, com
+ * as posicoes de cada camada resolvidas em paralelo.
+ * Limitada a tabuleiros de ate' 16 posicoes (3^16 entradas).
+ *
+ * Formato do arquivo: cabecalho de @ref TAMANHO_CABECALHO bytes (magico,
+ * largura, altura, k, versao) seguido de uma entrada de 2 bytes por
+ * indice de posicao (ver @ref VelhaTabela.getIndice): bits 0-1 resultado
+ * para o jogador da vez, bits 2-7 distancia (em jogadas) e bits 8-15 a
+ * melhor jogada + 1 (0 se nao ha').
+ */
+public class VelhaTablebase {
+
+	/** Resultado: posicao ilegal ou nao alcancavel. */
+	public static final int RESULTADO_ILEGAL  = 0;
+	/** Resultado: o jogador da vez perde. */
+	public static final int RESULTADO_DERROTA = 1;
+	/** Resultado: empate. */
+	public static final int RESULTADO_EMPATE  = 2;
+	/** Resultado: o jogador da vez ganha. */
+	public static final int RESULTADO_VITORIA = 3;
+
+	/** Maior numero de posicoes suportado. */
+	public static final int POSICOES_MAXIMO = 16;
+	/** Tamanho do cabecalho do arquivo, em bytes. */
+	public static final int TAMANHO_CABECALHO = 16;
+
+	/** Numero magico do arquivo ("VTB" + versao). */
+	private static final int MAGICO = 0x56544201;
+	/** Mascaras por tarefa na geracao paralela. */
+	private static final int LIMITE_TAREFA = 256;
+
+	/** Largura do tabuleiro. */
+	private final int largura;
+	/** Altura do tabuleiro. */
+	private final int altura;
+	/** Numero de posicoes em linha para ganhar. */
+	private final int k;
+	/** Valor ternario de cada mascara (bit n vale 3^n). */
+	private final int ternario[];
+	/** Conteudo do arquivo mapeado em memoria. */
+	private final MappedByteBuffer entradas;
+
+	/**
+	 * Construtor: usar @ref abrir.
+	 */
+	private VelhaTablebase(int largura, int altura, int k,
+	                       MappedByteBuffer entradas) {
+		this.largura = largura;
+		this.altura = altura;
+		this.k = k;
+		this.ternario = criarTernario(largura * altura);
+		this.entradas = entradas;
+	}
+
+	/**
+	 * Abre uma tablebase gerada por @ref gerar, mapeando o arquivo em
+	 * memoria (somente leitura).
+	 * @param arquivo Arquivo da tablebase
+	 * @return Tablebase aberta.
+	 * @throws IOException Se o arquivo nao pode ser lido ou nao e' uma
+	 *   tablebase valida.
+	 */
+	public static VelhaTablebase abrir(File arquivo) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(arquivo, "r");
+		try {
+			FileChannel canal = raf.getChannel();
+			MappedByteBuffer buffer =
+				canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			if (canal.size() < TAMANHO_CABECALHO || buffer.getInt(0) != MAGICO) {
+				throw new IOException(arquivo + " nao e' uma tablebase valida.");
+			}
+			int largura = buffer.get(4);
+			int altura  = buffer.get(5);
+			int k       = buffer.get(6);
+			int posicoes = largura * altura;
+			if (posicoes < 1 || posicoes > POSICOES_MAXIMO
+					|| canal.size() != getTamanhoArquivo(posicoes)) {
+				throw new IOException(arquivo + " esta' corrompido.");
+			}
+			return new VelhaTablebase(largura, altura, k, buffer);
+		} finally {
+			/* o mapeamento continua valido depois de fechar o arquivo */
+			raf.close();
+		}
+	}
+
+	/**
+	 * Retorna a largura do tabuleiro.
+	 * @return Numero de colunas.
+	 */
+	public int getLargura() {
+		return largura;
+	}
+
+	/**
+	 * Retorna a altura do tabuleiro.
+	 * @return Numero de linhas.
+	 */
+	public int getAltura() {
+		return altura;
+	}
+
+	/**
+	 * Retorna o numero de posicoes em linha para ganhar.
+	 * @return Valor de k.
+	 */
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * Retorna a entrada de uma posicao.
+	 * @param jogador Bitboard do jogador da vez
+	 * @param oponente Bitboard do oponente
+	 * @return Entrada de 16 bits (ver formato na descricao da classe).
+	 */
+	public int getEntrada(int jogador, int oponente) {
+		int indice = ternario[jogador] + 2 * ternario[oponente];
+		return entradas.getShort(TAMANHO_CABECALHO + 2 * indice) & 0xFFFF;
+	}
+
+	/**
+	 * Retorna o resultado de uma posicao para o jogador da vez.
+	 * @param jogador Bitboard do jogador da vez
+	 * @param oponente Bitboard do oponente
+	 * @return @ref RESULTADO_VITORIA, @ref RESULTADO_EMPATE,
+	 *   @ref RESULTADO_DERROTA ou @ref RESULTADO_ILEGAL.
+	 */
+	public int getResultado(int jogador, int oponente) {
+		return getEntrada(jogador, oponente) & 0x3;
+	}
+
+	/**
+	 * Retorna a distancia ate' o fim do jogo, com jogo perfeito.
+	 * @param jogador Bitboard do jogador da vez
+	 * @param oponente Bitboard do oponente
+	 * @return Numero de jogadas ate' o fim do jogo.
+	 */
+	public int getDistancia(int jogador, int oponente) {
+		return (getEntrada(jogador, oponente) >>> 2) & 0x3F;
+	}
+
+	/**
+	 * Retorna a melhor jogada de uma posicao (uma leitura no arquivo).
+	 * @param jogador Bitboard do jogador da vez
+	 * @param oponente Bitboard do oponente
+	 * @return Posicao da melhor jogada, ou -1 se o jogo terminou ou a
+	 *   posicao e' ilegal.
+	 */
+	public int getJogada(int jogador, int oponente) {
+		return (getEntrada(jogador, oponente) >>> 8) - 1;
+	}
+
+	/**
+	 * Retorna a melhor jogada para o jogador da vez de um tabuleiro.
+	 * @param tabuleiro Tabuleiro com as mesmas dimensoes da tablebase
+	 * @return Posicao da melhor jogada, ou -1 se o jogo terminou ou a
+	 *   posicao e' ilegal.
+	 */
+	public int getJogada(VelhaTabuleiro tabuleiro) {
+		char vez = tabuleiro.getVez();
+		int jogador = 0;
+		int oponente = 0;
+		for (int pos = 0; pos < tabuleiro.getNumPosicoes(); pos++) {
+			char marcado = tabuleiro.getPosicao(pos);
+			if      (marcado == vez                     ) jogador  |= 1 << pos;
+			else if (marcado != VelhaEngine.JOGADOR_VAZIO) oponente |= 1 << pos;
+		}
+		return getJogada(jogador, oponente);
+	}
+
+	/**
+	 * Gera a tablebase de um tabuleiro (m,n,k) e grava no arquivo.
+	 * As entradas sao escritas diretamente no arquivo mapeado em memoria,
+	 * sem ocupar o heap.
+	 * @param largura Largura do tabuleiro
+	 * @param altura Altura do tabuleiro
+	 * @param k Numero de posicoes em linha para ganhar
+	 * @param arquivo Arquivo a ser gravado (sobrescrito se existir)
+	 * @param pool Pool onde as camadas sao resolvidas em paralelo
+	 * @throws IOException Se houve erro ao gravar o arquivo.
+	 */
+	public static void gerar(int largura, int altura, int k, File arquivo,
+	                         ForkJoinPool pool) throws IOException {
+		int posicoes = largura * altura;
+		if (posicoes > POSICOES_MAXIMO) {
+			throw new IllegalArgumentException("Tabuleiro " + largura + "x"
+					+ altura + " tem mais de " + POSICOES_MAXIMO + " posicoes.");
+		}
+
+		/* mascaras das linhas, a partir da geracao do tabuleiro (m,n,k) */
+		VelhaEngineMNK engine = new VelhaEngineMNK(largura, altura, k);
+		int linhas[] = new int[engine.getNumLinhas()];
+		int posicoesLinha[] = new int[k];
+		for (int l = 0; l < linhas.length; l++) {
+			engine.getPosicoesLinha(l, posicoesLinha);
+			for (int i = 0; i < k; i++) linhas[l] |= 1 << posicoesLinha[i];
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(arquivo, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel canal = raf.getChannel();
+			MappedByteBuffer buffer = canal.map(FileChannel.MapMode.READ_WRITE,
+					0, getTamanhoArquivo(posicoes));
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(0, MAGICO);
+			buffer.put(4, (byte) largura);
+			buffer.put(5, (byte) altura);
+			buffer.put(6, (byte) k);
+
+			int ternario[] = criarTernario(posicoes);
+			for (int n = posicoes; n >= 0; n--) {
+				pool.invoke(new Camada(buffer, ternario, linhas, posicoes, n,
+				                       0, 1 << posicoes));
+			}
+			buffer.force();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Ferramenta de linha de comando para gerar uma tablebase.
+	 * Uso: VelhaTablebase largura altura k arquivo
+	 * @param args Argumentos da linha de comando
+	 * @throws IOException Se houve erro ao gravar o arquivo.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 4) {
+			System.out.println("Uso: VelhaTablebase largura altura k arquivo");
+			return;
+		}
+		int largura = Integer.parseInt(args[0]);
+		int altura  = Integer.parseInt(args[1]);
+		int k       = Integer.parseInt(args[2]);
+		File arquivo = new File(args[3]);
+
+		long inicio = System.currentTimeMillis();
+		gerar(largura, altura, k, arquivo, ForkJoinPool.commonPool());
+		VelhaTablebase tablebase = abrir(arquivo);
+
+		String resultados[] = {"ilegal", "derrota", "empate", "vitoria"};
+		System.out.println("Tablebase " + largura + "x" + altura + " k=" + k
+				+ " gerada em " + (System.currentTimeMillis() - inicio)
+				+ " ms (" + arquivo.length() + " bytes): primeiro jogador "
+				+ resultados[tablebase.getResultado(0, 0)] + " em "
+				+ tablebase.getDistancia(0, 0) + " jogadas.");
+	}
+
+	/**
+	 * Retorna o tamanho do arquivo de uma tablebase.
+	 * @param posicoes Numero de posicoes do tabuleiro
+	 * @return Tamanho em bytes.
+	 */
+	private static long getTamanhoArquivo(int posicoes) {
+		long indices = 1;
+		for (int i = 0; i < posicoes; i++) indices *= 3;
+		return TAMANHO_CABECALHO + 2 * indices;
+	}
+
+	/**
+	 * Cria a tabela com o valor ternario de cada mascara.
+	 * @param posicoes Numero de posicoes do tabuleiro
+	 * @return Vetor com 2^posicoes valores.
+	 */
+	private static int[] criarTernario(int posicoes) {
+		int ternario[] = new int[1 << posicoes];
+		int potencias[] = new int[posicoes];
+		for (int pos = 0; pos < posicoes; pos++) {
+			potencias[pos] = (pos == 0) ? 1 : potencias[pos - 1] * 3;
+		}
+		for (int mascara = 1; mascara < ternario.length; mascara++) {
+			ternario[mascara] = ternario[mascara & (mascara - 1)]
+				+ potencias[Integer.numberOfTrailingZeros(mascara)];
+		}
+		return ternario;
+	}
+
+	/**
+	 * Tarefa que resolve as posicoes de uma camada (n posicoes marcadas)
+	 * cujo bitboard do jogador da vez esta' num intervalo. A camada n+1 ja'
+	 * esta' resolvida. Cada posicao e' escrita por uma unica tarefa.
+	 */
+	private static final class Camada extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final MappedByteBuffer buffer;
+		private final int ternario[];
+		private final int linhas[];
+		private final int posicoes;
+		private final int marcadas;
+		private final int inicio;
+		private final int fim;
+
+		Camada(MappedByteBuffer buffer, int ternario[], int linhas[],
+		       int posicoes, int marcadas, int inicio, int fim) {
+			this.buffer = buffer;
+			this.ternario = ternario;
+			this.linhas = linhas;
+			this.posicoes = posicoes;
+			this.marcadas = marcadas;
+			this.inicio = inicio;
+			this.fim = fim;
+		}
+
+		@Override
+		protected void compute() {
+			if (fim - inicio > LIMITE_TAREFA) {
+				int meio = (inicio + fim) >>> 1;
+				invokeAll(new Camada(buffer, ternario, linhas, posicoes,
+				                     marcadas, inicio, meio),
+				          new Camada(buffer, ternario, linhas, posicoes,
+				                     marcadas, meio, fim));
+				return;
+			}
+
+			/* o jogador da vez tem o mesmo numero de posicoes do oponente
+			 * ou uma a menos */
+			int doJogador  = marcadas / 2;
+			int doOponente = marcadas - doJogador;
+			int cheio = (1 << posicoes) - 1;
+
+			for (int jogador = inicio; jogador < fim; jogador++) {
+				if (Integer.bitCount(jogador) != doJogador) continue;
+				int livres = cheio & ~jogador;
+
+				/* percorre os subconjuntos das posicoes livres */
+				for (int oponente = livres; ; oponente = (oponente - 1) & livres) {
+					if (Integer.bitCount(oponente) == doOponente) {
+						resolver(jogador, oponente);
+					}
+					if (oponente == 0) break;
+				}
+			}
+		}
+
+		/** Resolve uma posicao a partir das posicoes da camada seguinte. */
+		private void resolver(int jogador, int oponente) {
+			int entrada;
+
+			if (isLinha(oponente)) {
+				entrada = RESULTADO_DERROTA;
+			} else if (isLinha(jogador)) {
+				/* o jogo ja' tinha terminado: posicao ilegal */
+				entrada = RESULTADO_ILEGAL;
+			} else if (Integer.bitCount(jogador | oponente) == posicoes) {
+				entrada = RESULTADO_EMPATE;
+			} else {
+				int melhorResultado = RESULTADO_ILEGAL;
+				int melhorDistancia = 0;
+				int melhor = -1;
+				int livres = ((1 << posicoes) - 1) & ~(jogador | oponente);
+
+				while (livres != 0) {
+					int pos = Integer.numberOfTrailingZeros(livres);
+					livres &= livres - 1;
+
+					int filho = getEntrada(oponente, jogador | (1 << pos));
+					int resultado = RESULTADO_VITORIA + RESULTADO_DERROTA
+						- (filho & 0x3);
+					int distancia = ((filho >>> 2) & 0x3F) + 1;
+
+					if (resultado > melhorResultado
+							|| (resultado == melhorResultado
+								&& (resultado == RESULTADO_VITORIA
+									? distancia < melhorDistancia
+									: distancia > melhorDistancia))) {
+						melhorResultado = resultado;
+						melhorDistancia = distancia;
+						melhor = pos;
+					}
+				}
+				entrada = melhorResultado | (melhorDistancia << 2)
+					| ((melhor + 1) << 8);
+			}
+
+			int indice = ternario[jogador] + 2 * ternario[oponente];
+			buffer.putShort(TAMANHO_CABECALHO + 2 * indice, (short) entrada);
+		}
+
+		/** Le a entrada de uma posicao ja' resolvida. */
+		private int getEntrada(int jogador, int oponente) {
+			int indice = ternario[jogador] + 2 * ternario[oponente];
+			return buffer.getShort(TAMANHO_CABECALHO + 2 * indice) & 0xFFFF;
+		}
+
+		/** Verifica se um bitboard contem uma linha completa. */
+		private boolean isLinha(int mascara) {
+			for (int l = 0; l < linhas.length; l++) {
+				if ((mascara & linhas[l]) == linhas[l]) return true;
+			}
+			return false;
+		}
+	}
+}
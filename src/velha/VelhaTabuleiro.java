@@ -0,0 +1,95 @@
+package velha;
+
+/**
+ * Interface de um tabuleiro do Jogo da Velha que pode ser analisado pelas
+ * buscas do robot (@ref VelhaBusca). As jogadas sao feitas e desfeitas
+ * no proprio tabuleiro, sem copias.
+ */
+public interface VelhaTabuleiro {
+
+	/**
+	 * Retorna o numero de posicoes do tabuleiro.
+	 * @return Numero de posicoes (largura x altura).
+	 */
+	int getNumPosicoes();
+
+	/**
+	 * Retorna uma posicao no tabuleiro.
+	 * @param pos Posicao (de 0 a @ref getNumPosicoes - 1)
+	 * @return Jogador marcado na posicao ou @ref VelhaEngine.JOGADOR_VAZIO
+	 *   se nao houver.
+	 */
+	char getPosicao(int pos);
+
+	/**
+	 * Retorna o jogador da vez.
+	 * @return Jogador da vez (@ref VelhaEngine.JOGADOR_X ou
+	 *   @ref VelhaEngine.JOGADOR_O).
+	 */
+	char getVez();
+
+	/**
+	 * Retorna o numero de posicoes marcadas no tabuleiro.
+	 * @return Numero de jogadas.
+	 */
+	int getNumJogadas();
+
+	/**
+	 * Retorna o jogador ganhador.
+	 * @return Jogador que ganhou, ou @ref VelhaEngine.JOGADOR_VAZIO se
+	 *   nenhum jogador ganhou.
+	 */
+	char getGanhador();
+
+	/**
+	 * Verifica se o jogo terminou (um jogador ganhou ou deu empate).
+	 * @return True se o jogo terminou, false se nao.
+	 */
+	boolean isGameOver();
+
+	/**
+	 * Faz uma jogada do jogador da vez. A vez passa para o oponente.
+	 * @param pos Posicao da jogada
+	 * @return True se a jogada foi feita, false se nao e' valida.
+	 */
+	boolean makeMove(int pos);
+
+	/**
+	 * Desfaz a ultima jogada feita com @ref makeMove.
+	 * @return True se a jogada foi desfeita, false se nao ha' jogadas.
+	 */
+	boolean unmakeMove();
+
+	/**
+	 * Preenche um vetor com as jogadas livres, das mais promissoras para as
+	 * menos promissoras (ordem usada pela busca).
+	 * @param destino Vetor a ser preenchido (no minimo
+	 *   @ref getNumPosicoes posicoes)
+	 * @return Numero de jogadas preenchidas no vetor.
+	 */
+	int preencherJogadasOrdenadas(int[] destino);
+
+	/**
+	 * Preenche um vetor com as jogadas livres, em qualquer ordem (usado
+	 * nas simulacoes aleatorias do @ref VelhaMCTS).
+	 * @param destino Vetor a ser preenchido (no minimo
+	 *   @ref getNumPosicoes posicoes)
+	 * @return Numero de jogadas preenchidas no vetor.
+	 */
+	int preencherJogadasLivres(int[] destino);
+
+	/**
+	 * Retorna uma copia independente do tabuleiro, com o mesmo jogador da
+	 * vez (a pilha de jogadas nao e' copiada).
+	 * @return Novo tabuleiro.
+	 */
+	VelhaTabuleiro copiar();
+
+	/**
+	 * Avalia heuristicamente a posicao, para buscas com profundidade
+	 * limitada.
+	 * @return Valor da posicao do ponto de vista do jogador da vez
+	 *   (positivo favorece o jogador da vez).
+	 */
+	int avaliar();
+}
@@ -0,0 +1,345 @@
+package velha;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.CumulativeProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+
+/**
+ * Decodificador MINA das mensagens XML do Jogo da Velha (uma mensagem por
+ * linha, terminada por '\n').
+ * As mensagens na forma gerada pelos parsers (elementos na ordem do schema,
+ * sem atributos, comentarios ou entidades) sao lidas direto dos bytes do
+ * IoBuffer para um @ref VelhaBean, sem String intermediaria. Qualquer
+ * outra linha e' repassada como String, para que o handler a converta com
+ * o parser de XML completo (@ref VelhaCodec) e a valide como antes.
+ * Leituras fragmentadas ou com varias mensagens sao tratadas pelo
+ * CumulativeProtocolDecoder, que guarda os bytes de uma linha incompleta
+ * ate' a proxima leitura.
+ * Cada sessao tem o seu decodificador (ver @ref VelhaCodecFactory).
+ */
+public class VelhaXMLDecoder extends CumulativeProtocolDecoder {
+
+	/** Tamanho maximo de uma linha, em bytes. */
+	public static final int TAMANHO_MAXIMO = 2048;
+
+	/* tags do arquivo XML, em bytes (ASCII) */
+	private static final byte NODE_JOGODAVELHA[] = bytes("JogoDaVelha");
+	private static final byte NODE_ID[] = bytes("id");
+	private static final byte NODE_STATUS[] = bytes("status");
+	private static final byte NODE_JOGADA[] = bytes("jogada");
+	private static final byte NODE_TABULEIRO[] = bytes("tabuleiro");
+	private static final byte NODE_TAB_POS[][] = {
+			bytes("p0"), bytes("p1"), bytes("p2"), bytes("p3"), bytes("p4"),
+			bytes("p5"), bytes("p6"), bytes("p7"), bytes("p8")
+	};
+	/** Inicio da declaracao XML. */
+	private static final byte DECLARACAO_INICIO[] = bytes("<?xml");
+
+	/** Status aceitos no XML. */
+	private static final String STATUS[] = {
+			VelhaEngine.STATUS_AGUARDE, VelhaEngine.STATUS_JOGUE,
+			VelhaEngine.STATUS_GANHOU, VelhaEngine.STATUS_PERDEU,
+			VelhaEngine.STATUS_EMPATE, VelhaEngine.STATUS_WO
+	};
+	/** Status aceitos no XML, em bytes. */
+	private static final byte STATUS_BYTES[][] = new byte[STATUS.length][];
+
+	static {
+		for (int i = 0; i < STATUS.length; i++) {
+			STATUS_BYTES[i] = bytes(STATUS[i]);
+		}
+	}
+
+	/** Decodificador de UTF-8 das linhas repassadas como String. */
+	private final CharsetDecoder utf8 = Charset.forName("UTF-8").newDecoder();
+
+	/** Buffer da linha sendo lida. */
+	private IoBuffer linha;
+	/** Posicao de leitura na linha. */
+	private int cursor;
+	/** Fim da linha (exclusivo). */
+	private int fim;
+	/** Inicio do texto do ultimo elemento lido com @ref lerValor. */
+	private int inicioValor;
+	/** Fim do texto do ultimo elemento lido com @ref lerValor. */
+	private int fimValor;
+
+	/**
+	 * Decodifica as linhas completas disponiveis no buffer.
+	 * @param session Sessao do cliente
+	 * @param in Buffer com os bytes recebidos (acumulados)
+	 * @param out Saida das mensagens decodificadas
+	 * @return True se uma linha foi decodificada, false se e' preciso
+	 *   esperar mais bytes.
+	 * @throws ProtocolDecoderException Se a linha passou do tamanho maximo.
+	 */
+	@Override
+	protected boolean doDecode(IoSession session, IoBuffer in,
+			ProtocolDecoderOutput out) throws Exception {
+
+		int inicio = in.position();
+		int limite = in.limit();
+		int fimLinha = -1;
+		for (int i = inicio; i < limite; i++) {
+			if (in.get(i) == '\n') {
+				fimLinha = i;
+				break;
+			}
+		}
+
+		if (fimLinha < 0) {
+			/* linha incompleta: espera a proxima leitura */
+			if (limite - inicio > TAMANHO_MAXIMO) {
+				in.position(limite);
+				throw new ProtocolDecoderException(
+						"Linha maior que " + TAMANHO_MAXIMO + " bytes");
+			}
+			return false;
+		}
+
+		VelhaBean velhaBean = decodificar(in, inicio, fimLinha);
+		if (velhaBean != null) {
+			out.write(velhaBean);
+		} else {
+			/* fora da forma conhecida: repassa a linha ao handler */
+			in.limit(fimLinha);
+			utf8.reset();
+			String texto = in.getString(utf8);
+			in.limit(limite);
+			if (texto.endsWith("\r")) {
+				texto = texto.substring(0, texto.length() - 1);
+			}
+			out.write(texto);
+		}
+		in.position(fimLinha + 1);
+		return true;
+	}
+
+	/**
+	 * Le uma mensagem na forma conhecida direto dos bytes.
+	 * @param in Buffer com a mensagem
+	 * @param inicio Inicio da mensagem no buffer
+	 * @param fimLinha Fim da mensagem no buffer (exclusivo)
+	 * @return Objeto @ref VelhaBean, ou null se a mensagem nao esta' na
+	 *   forma conhecida ou tem valores invalidos.
+	 */
+	private VelhaBean decodificar(IoBuffer in, int inicio, int fimLinha) {
+		linha = in;
+		cursor = inicio;
+		fim = fimLinha;
+		try {
+			VelhaBean velhaBean = new VelhaBean();
+
+			pularEspacos();
+			if (comecaCom(DECLARACAO_INICIO)) {
+				/* pula a declaracao <?xml ... ?> */
+				while (cursor + 1 < fim
+						&& !(linha.get(cursor) == '?'
+							&& linha.get(cursor + 1) == '>')) {
+					cursor++;
+				}
+				if (cursor + 1 >= fim) return null;
+				cursor += 2;
+			}
+
+			if (!abrirElemento(NODE_JOGODAVELHA)) return null;
+
+			if (!lerValor(NODE_ID)) return null;
+			char id = getJogador();
+			if (id == VelhaEngine.JOGADOR_VAZIO) return null;
+			velhaBean.setId(id);
+
+			if (!lerValor(NODE_STATUS)) return null;
+			String status = getStatus();
+			if (status == null) return null;
+			velhaBean.setStatus(status);
+
+			if (!lerValor(NODE_JOGADA)) return null;
+			int jogada = -1;
+			if (fimValor > inicioValor) {
+				byte digito = linha.get(inicioValor);
+				if (fimValor - inicioValor != 1
+						|| digito < '0' || digito > '8') {
+					return null;
+				}
+				jogada = digito - '0';
+			}
+			velhaBean.setJogada(jogada);
+
+			if (!abrirElemento(NODE_TABULEIRO)) return null;
+			for (int pos = 0; pos < NODE_TAB_POS.length; pos++) {
+				if (!lerValor(NODE_TAB_POS[pos])) return null;
+				char jogador = getJogador();
+				if (jogador == VelhaEngine.JOGADOR_VAZIO
+						&& fimValor > inicioValor) {
+					return null;
+				}
+				velhaBean.setPosicao(pos, jogador);
+			}
+			if (!fecharElemento(NODE_TABULEIRO)) return null;
+
+			if (!fecharElemento(NODE_JOGODAVELHA)) return null;
+
+			/* depois do elemento raiz so' pode haver espacos */
+			pularEspacos();
+			return (cursor == fim) ? velhaBean : null;
+
+		} finally {
+			linha = null;
+		}
+	}
+
+	/** Avanca o cursor ate' o primeiro caractere que nao e' espaco. */
+	private void pularEspacos() {
+		while (cursor < fim) {
+			byte c = linha.get(cursor);
+			if (c != ' ' && c != '\t' && c != '\r' && c != '\n') break;
+			cursor++;
+		}
+	}
+
+	/**
+	 * Verifica se os bytes na posicao do cursor sao os indicados.
+	 * @param esperado Bytes esperados
+	 * @return True se sao iguais (o cursor nao e' alterado).
+	 */
+	private boolean comecaCom(byte[] esperado) {
+		if (fim - cursor < esperado.length) return false;
+		for (int i = 0; i < esperado.length; i++) {
+			if (linha.get(cursor + i) != esperado[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Le a abertura de um elemento ("<nome>"), precedida ou nao de espacos.
+	 * @param nome Nome do elemento
+	 * @return True se leu, false se nao e' a abertura esperada.
+	 */
+	private boolean abrirElemento(byte[] nome) {
+		pularEspacos();
+		if (cursor >= fim || linha.get(cursor) != '<') return false;
+		cursor++;
+		if (!comecaCom(nome)) return false;
+		cursor += nome.length;
+		if (cursor >= fim || linha.get(cursor) != '>') return false;
+		cursor++;
+		return true;
+	}
+
+	/**
+	 * Le o fechamento de um elemento ("</nome>"), precedido ou nao de
+	 * espacos.
+	 * @param nome Nome do elemento
+	 * @return True se leu, false se nao e' o fechamento esperado.
+	 */
+	private boolean fecharElemento(byte[] nome) {
+		pularEspacos();
+		if (fim - cursor < 2
+				|| linha.get(cursor) != '<' || linha.get(cursor + 1) != '/') {
+			return false;
+		}
+		cursor += 2;
+		if (!comecaCom(nome)) return false;
+		cursor += nome.length;
+		if (cursor >= fim || linha.get(cursor) != '>') return false;
+		cursor++;
+		return true;
+	}
+
+	/**
+	 * Le um elemento que contem apenas texto ("<nome>texto</nome>",
+	 * "<nome></nome>" ou "<nome/>"), guardando a posicao do texto em
+	 * @ref inicioValor e @ref fimValor.
+	 * @param nome Nome do elemento
+	 * @return True se leu, false se o elemento nao esta' na forma conhecida.
+	 */
+	private boolean lerValor(byte[] nome) {
+		pularEspacos();
+		if (cursor >= fim || linha.get(cursor) != '<') return false;
+		cursor++;
+		if (!comecaCom(nome)) return false;
+		cursor += nome.length;
+
+		if (fim - cursor >= 2
+				&& linha.get(cursor) == '/' && linha.get(cursor + 1) == '>') {
+			/* elemento vazio */
+			cursor += 2;
+			inicioValor = cursor;
+			fimValor = cursor;
+			return true;
+		}
+		if (cursor >= fim || linha.get(cursor) != '>') return false;
+		cursor++;
+
+		inicioValor = cursor;
+		while (cursor < fim) {
+			byte c = linha.get(cursor);
+			/* entidades e secoes CDATA ficam para o parser completo */
+			if (c == '&') return false;
+			if (c == '<') break;
+			cursor++;
+		}
+		fimValor = cursor;
+
+		/* o fechamento vem logo apos o texto */
+		if (fim - cursor < 2 || linha.get(cursor + 1) != '/') return false;
+		cursor += 2;
+		if (!comecaCom(nome)) return false;
+		cursor += nome.length;
+		if (cursor >= fim || linha.get(cursor) != '>') return false;
+		cursor++;
+		return true;
+	}
+
+	/**
+	 * Converte o texto do ultimo elemento lido em um jogador.
+	 * @return @ref VelhaEngine.JOGADOR_X, @ref VelhaEngine.JOGADOR_O ou
+	 *   @ref VelhaEngine.JOGADOR_VAZIO se o texto e' vazio ou invalido.
+	 */
+	private char getJogador() {
+		if (fimValor - inicioValor != 1) return VelhaEngine.JOGADOR_VAZIO;
+		byte c = linha.get(inicioValor);
+		if (c == 'X' || c == 'x') return VelhaEngine.JOGADOR_X;
+		if (c == 'O' || c == 'o') return VelhaEngine.JOGADOR_O;
+		return VelhaEngine.JOGADOR_VAZIO;
+	}
+
+	/**
+	 * Converte o texto do ultimo elemento lido em um status.
+	 * @return Status do jogo (uma das constantes STATUS_ de
+	 *   @ref VelhaEngine), ou null se o texto nao e' um status valido.
+	 */
+	private String getStatus() {
+		int tamanho = fimValor - inicioValor;
+		for (int i = 0; i < STATUS_BYTES.length; i++) {
+			byte status[] = STATUS_BYTES[i];
+			if (status.length != tamanho) continue;
+			int j = 0;
+			while (j < tamanho
+					&& (linha.get(inicioValor + j) | 0x20) == status[j]) {
+				j++;
+			}
+			if (j == tamanho) return STATUS[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Converte uma string ASCII em bytes.
+	 * @param texto String (apenas caracteres ASCII)
+	 * @return Vetor de bytes.
+	 */
+	private static byte[] bytes(String texto) {
+		byte retorno[] = new byte[texto.length()];
+		for (int i = 0; i < retorno.length; i++) {
+			retorno[i] = (byte) texto.charAt(i);
+		}
+		return retorno;
+	}
+}
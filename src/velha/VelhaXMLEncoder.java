@@ -0,0 +1,50 @@
+package velha;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolEncoderAdapter;
+import org.apache.mina.filter.codec.ProtocolEncoderException;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+
+/**
+ * Codificador MINA das mensagens XML do Jogo da Velha (uma mensagem por
+ * linha, terminada por '\n'). Uma String e' enviada como uma linha UTF-8.
+ * O servidor nao passa por aqui para enviar status: as sessoes XML
+ * recebem as linhas prontas de @ref VelhaCacheMensagens, geradas e
+ * validadas pelo parser uma unica vez, que atravessam o codec sem ser
+ * codificadas.
+ */
+public class VelhaXMLEncoder extends ProtocolEncoderAdapter {
+
+	/** Codificador de UTF-8 das Strings. */
+	private final CharsetEncoder utf8 = Charset.forName("UTF-8").newEncoder();
+
+	/**
+	 * Codifica uma mensagem.
+	 * @param session Sessao do cliente
+	 * @param message Mensagem (String)
+	 * @param out Saida dos buffers codificados
+	 * @throws ProtocolEncoderException Se a mensagem e' um @ref VelhaBean
+	 *   (o status XML vem de @ref VelhaCacheMensagens).
+	 */
+	public void encode(IoSession session, Object message,
+			ProtocolEncoderOutput out) throws Exception {
+
+		if (message instanceof VelhaBean) {
+			throw new ProtocolEncoderException(
+					"Status XML deve vir do cache de mensagens: " + message);
+		}
+
+		String texto = message.toString();
+		IoBuffer buffer = IoBuffer.allocate(texto.length() * 3 + 1)
+				.setAutoExpand(true);
+		utf8.reset();
+		buffer.putString(texto, utf8);
+		buffer.put((byte) '\n');
+		buffer.flip();
+		out.write(buffer);
+	}
+}